@@ -116,6 +116,13 @@ configurations {
     }
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
 dependencies {
     compileOnly("jakarta.servlet:jakarta.servlet-api:6.1.0")
     compileOnly("javax.annotation:javax.annotation-api:1.3.2")
@@ -158,16 +165,26 @@ dependencies {
     kapt("org.springframework.boot:spring-boot-configuration-processor")
     testImplementation("org.springframework.boot:spring-boot-starter-test")
     testImplementation("org.mockito:mockito-core:5.18.0")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "kaptJmh"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 configurations {
     testImplementation.extendsFrom(compileOnly)
+    named("jmhImplementation").extendsFrom(compileOnly)
 }
 
 kotlin {
     jvmToolchain(javaVersion.majorVersion.toInt())
 }
 
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks of the jmh source set."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+}
+
 tasks.withType<Test> {
     jvmArgs("-Xmx1024m", "--add-exports", "java.base/sun.security.rsa=ALL-UNNAMED")
     useJUnitPlatform()
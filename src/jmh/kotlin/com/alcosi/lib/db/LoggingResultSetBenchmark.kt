@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+import org.springframework.jdbc.core.RowCallbackHandler
+import org.springframework.jdbc.datasource.DriverManagerDataSource
+import java.sql.ResultSet
+import java.sql.Types
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import javax.sql.rowset.CachedRowSet
+import javax.sql.rowset.RowSetMetaDataImpl
+import javax.sql.rowset.RowSetProvider
+
+/**
+ * Row iteration throughput of an in-memory ResultSet: plain, wrapped into LoggingResultSet with disabled callbacks
+ * (the behaviour before the fast path), passed through the fast path of LoggingJdbcTemplate with disabled callbacks
+ * and wrapped with an active callback.
+ *
+ * Run with the `jmh` Gradle task or with `main` from the jmh source set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class LoggingResultSetBenchmark {
+    @Param("1000")
+    var rows: Int = 0
+
+    lateinit var rowSet: CachedRowSet
+    lateinit var disabledCallbacks: List<ConditionalRowCallbackHandler>
+    lateinit var activeCallbacks: List<ConditionalRowCallbackHandler>
+    lateinit var disabledTemplate: BenchmarkJdbcTemplate
+
+    @Setup
+    fun setup() {
+        val metaData = RowSetMetaDataImpl()
+        metaData.columnCount = 2
+        metaData.setColumnName(1, "id")
+        metaData.setColumnType(1, Types.BIGINT)
+        metaData.setColumnName(2, "name")
+        metaData.setColumnType(2, Types.VARCHAR)
+        rowSet = RowSetProvider.newFactory().createCachedRowSet()
+        rowSet.setMetaData(metaData)
+        for (i in 1..rows) {
+            rowSet.moveToInsertRow()
+            rowSet.updateLong(1, i.toLong())
+            rowSet.updateString(2, "name$i")
+            rowSet.insertRow()
+        }
+        rowSet.moveToCurrentRow()
+        disabledCallbacks = listOf(LoggingResponseRowCallbackHandler(1000, Level.OFF))
+        activeCallbacks = listOf(NoOpCallbackHandler())
+        disabledTemplate = BenchmarkJdbcTemplate(disabledCallbacks)
+    }
+
+    @Benchmark
+    fun plain(blackhole: Blackhole) {
+        iterate(rowSet, blackhole)
+    }
+
+    @Benchmark
+    fun wrappedDisabled(blackhole: Blackhole) {
+        iterate(LoggingResultSet(disabledCallbacks, rowSet), blackhole)
+    }
+
+    @Benchmark
+    fun fastPathDisabled(blackhole: Blackhole) {
+        iterate(disabledTemplate.wrap(rowSet), blackhole)
+    }
+
+    @Benchmark
+    fun wrappedActive(blackhole: Blackhole) {
+        iterate(LoggingResultSet(activeCallbacks, rowSet), blackhole)
+    }
+
+    protected fun iterate(
+        rs: ResultSet,
+        blackhole: Blackhole,
+    ) {
+        rowSet.beforeFirst()
+        while (rs.next()) {
+            blackhole.consume(rs.getLong(1))
+            blackhole.consume(rs.getString(2))
+        }
+    }
+
+    /**
+     * Exposes the ResultSet wrapping of [LoggingJdbcTemplate.processResultSet], without its extraction and closing.
+     */
+    class BenchmarkJdbcTemplate(
+        callbacks: List<RowCallbackHandler>,
+    ) : LoggingJdbcTemplate(callbacks, DriverManagerDataSource()) {
+        fun wrap(rs: ResultSet): ResultSet {
+            val active = getActiveCallbacks()
+            return if (active.isEmpty()) rs else LoggingResultSet(active, rs)
+        }
+    }
+
+    /**
+     * Active callback doing nothing, to measure the pure wrapper overhead.
+     */
+    class NoOpCallbackHandler : ConditionalRowCallbackHandler {
+        override fun isActive(): Boolean = true
+
+        override fun processRow(rs: ResultSet) {}
+    }
+
+    companion object {
+        @JvmStatic
+        fun main(args: Array<String>) {
+            Runner(OptionsBuilder().include(LoggingResultSetBenchmark::class.java.simpleName).build()).run()
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The immutable selection snapshot of the healthy nodes of a chain, rebuilt on every health update.
+ *
+ * @property chainId The chain ID.
+ * @property nodes The healthy nodes.
+ * @property weights The node weights, derived from the health check times.
+ */
+open class CryptoChainNodes(
+    val chainId: Int,
+    val nodes: List<CryptoNodeStats>,
+    val weights: DoubleArray,
+) {
+    /**
+     * The weighted random selection table.
+     */
+    val aliasTable: WeightedAliasTable<CryptoNodeStats> = WeightedAliasTable(nodes, weights)
+
+    /**
+     * The request sequence number, used by the round robin strategies.
+     */
+    val sequence = AtomicLong()
+
+    /**
+     * The smooth weighted round robin schedule of the node indexes, built on first use.
+     */
+    val roundRobinSchedule: IntArray by lazy(LazyThreadSafetyMode.PUBLICATION) { buildRoundRobinSchedule() }
+
+    /**
+     * Builds the smooth weighted round robin schedule. The weights are scaled to integers up to [MAX_ROUND_ROBIN_WEIGHT]
+     * and reduced by their greatest common divisor to keep the schedule short.
+     *
+     * @return The node indexes in the picking order.
+     */
+    protected open fun buildRoundRobinSchedule(): IntArray {
+        val max = weights.maxOrNull()?.takeIf { it > 0 } ?: 1.0
+        val rounded = IntArray(nodes.size) { Math.round(weights[it] / max * MAX_ROUND_ROBIN_WEIGHT).toInt().coerceAtLeast(1) }
+        val gcd = rounded.reduce { a, b -> gcd(a, b) }
+        val scaled = IntArray(nodes.size) { rounded[it] / gcd }
+        val total = scaled.sum()
+        val current = IntArray(nodes.size)
+        return IntArray(total) {
+            var best = 0
+            for (i in nodes.indices) {
+                current[i] += scaled[i]
+                if (current[i] > current[best]) {
+                    best = i
+                }
+            }
+            current[best] -= total
+            best
+        }
+    }
+
+    /**
+     * Returns the greatest common divisor of two positive numbers.
+     */
+    private tailrec fun gcd(
+        a: Int,
+        b: Int,
+    ): Int = if (b == 0) a else gcd(b, a % b)
+
+    /**
+     * The Companion object of the CryptoChainNodes class.
+     */
+    companion object {
+        /**
+         * The maximum integer weight of the round robin schedule.
+         */
+        const val MAX_ROUND_ROBIN_WEIGHT = 100
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * The strategy picking a node of a chain for a request. Implementations must be thread-safe and should not block.
+ * The built-in strategies account for the block lag and the live error rate of the nodes, see [CryptoNodeStats.getPenalty].
+ */
+fun interface CryptoNodeBalancingStrategy {
+    /**
+     * Picks the node for the next request.
+     *
+     * @param chain The healthy nodes of the chain, never empty.
+     * @return The picked node.
+     */
+    fun pick(chain: CryptoChainNodes): CryptoNodeStats
+
+    /**
+     * The built-in strategy types.
+     */
+    enum class Type {
+        /**
+         * Random, weighted by the health check time.
+         */
+        WEIGHTED_RANDOM,
+
+        /**
+         * Power of two random choices by the EWMA latency multiplied by the outstanding requests.
+         */
+        P2C_EWMA,
+
+        /**
+         * The node with the least outstanding requests.
+         */
+        LEAST_OUTSTANDING,
+
+        /**
+         * Smooth weighted round robin, weighted by the health check time.
+         */
+        WEIGHTED_ROUND_ROBIN,
+        ;
+
+        /**
+         * Creates the strategy of the type.
+         *
+         * @return The strategy.
+         */
+        fun create(): CryptoNodeBalancingStrategy =
+            when (this) {
+                WEIGHTED_RANDOM -> WeightedRandom()
+                P2C_EWMA -> PowerOfTwoChoicesEwma()
+                LEAST_OUTSTANDING -> LeastOutstanding()
+                WEIGHTED_ROUND_ROBIN -> WeightedRoundRobin()
+            }
+    }
+
+    /**
+     * Picks a random node, weighted by the health check time and the block lag. A node is picked again with the
+     * probability of its live error rate, so the picking chance is also proportional to the success rate.
+     */
+    open class WeightedRandom : CryptoNodeBalancingStrategy {
+        override fun pick(chain: CryptoChainNodes): CryptoNodeStats {
+            var node = chain.aliasTable.pick()
+            for (attempt in 1 until MAX_PICK_ATTEMPTS) {
+                if (accepts(node)) {
+                    return node
+                }
+                node = chain.aliasTable.pick()
+            }
+            return node
+        }
+    }
+
+    /**
+     * Picks the better of two random nodes. The score is the EWMA latency multiplied by the outstanding requests
+     * plus one and by the node penalty, so slow, overloaded, lagging and failing nodes are avoided, while the
+     * randomness prevents herding on one node.
+     */
+    open class PowerOfTwoChoicesEwma : CryptoNodeBalancingStrategy {
+        override fun pick(chain: CryptoChainNodes): CryptoNodeStats {
+            val nodes = chain.nodes
+            if (nodes.size == 1) {
+                return nodes[0]
+            }
+            val random = ThreadLocalRandom.current()
+            val first = random.nextInt(nodes.size)
+            var second = random.nextInt(nodes.size - 1)
+            if (second >= first) {
+                second++
+            }
+            val a = nodes[first]
+            val b = nodes[second]
+            return if (score(a) <= score(b)) a else b
+        }
+
+        /**
+         * Returns the node score, lower is better.
+         *
+         * @param node The node.
+         * @return The score.
+         */
+        protected open fun score(node: CryptoNodeStats): Double = node.getEwmaNanos() * (node.getOutstanding() + 1) * node.getPenalty()
+    }
+
+    /**
+     * Picks the node with the least outstanding requests plus one, multiplied by the node penalty.
+     * Ties are broken starting from a random node.
+     */
+    open class LeastOutstanding : CryptoNodeBalancingStrategy {
+        override fun pick(chain: CryptoChainNodes): CryptoNodeStats {
+            val nodes = chain.nodes
+            val offset = if (nodes.size > 1) ThreadLocalRandom.current().nextInt(nodes.size) else 0
+            var best = nodes[offset]
+            var bestScore = score(best)
+            for (i in 1 until nodes.size) {
+                val node = nodes[(offset + i) % nodes.size]
+                val score = score(node)
+                if (score < bestScore) {
+                    best = node
+                    bestScore = score
+                }
+            }
+            return best
+        }
+
+        /**
+         * Returns the node score, lower is better.
+         *
+         * @param node The node.
+         * @return The score.
+         */
+        protected open fun score(node: CryptoNodeStats): Double = (node.getOutstanding() + 1) * node.getPenalty()
+    }
+
+    /**
+     * Picks the nodes in the smooth weighted round robin order, weighted by the health check time and the block lag.
+     * A node is skipped with the probability of its live error rate.
+     */
+    open class WeightedRoundRobin : CryptoNodeBalancingStrategy {
+        override fun pick(chain: CryptoChainNodes): CryptoNodeStats {
+            val schedule = chain.roundRobinSchedule
+            var node = next(chain, schedule)
+            for (attempt in 1 until MAX_PICK_ATTEMPTS) {
+                if (accepts(node)) {
+                    return node
+                }
+                node = next(chain, schedule)
+            }
+            return node
+        }
+
+        /**
+         * Returns the next node of the schedule.
+         *
+         * @param chain The chain.
+         * @param schedule The round robin schedule of the chain.
+         * @return The node.
+         */
+        protected open fun next(
+            chain: CryptoChainNodes,
+            schedule: IntArray,
+        ): CryptoNodeStats = chain.nodes[schedule[Math.floorMod(chain.sequence.getAndIncrement(), schedule.size)]]
+    }
+
+    /**
+     * The Companion object of the CryptoNodeBalancingStrategy interface.
+     */
+    companion object {
+        /**
+         * The maximum number of picks of the strategies skipping the failing nodes, the last pick is used as is.
+         */
+        const val MAX_PICK_ATTEMPTS = 8
+
+        /**
+         * Accepts the node with the probability of its live success rate.
+         *
+         * @param node The node.
+         * @return True if the node is accepted.
+         */
+        @JvmStatic
+        fun accepts(node: CryptoNodeStats): Boolean {
+            val successRate = node.getSuccessRate()
+            return successRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < successRate
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReference
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * A lock-free circuit breaker of a crypto node, fed by the outcomes of the balanced requests.
+ *
+ * The outcomes are counted in a sliding [window] of [buckets] time buckets. The circuit opens immediately when
+ * [consecutiveFailures] requests fail in a row, or when the failure rate of the window reaches [failureRateThreshold]
+ * with at least [minimumRequests] requests. An open circuit rejects the requests for [openDuration], then lets
+ * [halfOpenProbes] probe requests through: a successful probe closes the circuit, a failed one opens it again.
+ *
+ * @property name The node name, used for logging.
+ * @property window The sliding window duration.
+ * @property buckets The number of the window buckets.
+ * @property failureRateThreshold The failure rate of the window opening the circuit, from 0 to 1.
+ * @property minimumRequests The minimum number of the window requests to evaluate the failure rate.
+ * @property consecutiveFailures The number of the consecutive failures opening the circuit, zero or negative to disable.
+ * @property openDuration The time the open circuit rejects the requests.
+ * @property halfOpenProbes The number of the probe requests of the half-open circuit.
+ */
+open class CryptoNodeCircuitBreaker(
+    val name: String,
+    val window: Duration = Duration.ofSeconds(10),
+    val buckets: Int = 10,
+    val failureRateThreshold: Double = 0.5,
+    val minimumRequests: Int = 10,
+    val consecutiveFailures: Int = 5,
+    val openDuration: Duration = Duration.ofSeconds(5),
+    val halfOpenProbes: Int = 1,
+) {
+    /**
+     * The circuit states.
+     */
+    enum class State {
+        /**
+         * The requests are allowed.
+         */
+        CLOSED,
+
+        /**
+         * The requests are rejected.
+         */
+        OPEN,
+
+        /**
+         * Only the probe requests are allowed.
+         */
+        HALF_OPEN,
+    }
+
+    protected val bucketNanos = (window.toNanos() / buckets).coerceAtLeast(1)
+    protected val bucketEpochs = AtomicLongArray(buckets)
+    protected val bucketSuccesses = AtomicLongArray(buckets)
+    protected val bucketFailures = AtomicLongArray(buckets)
+    protected val state = AtomicReference(State.CLOSED)
+    protected val openedAt = AtomicLong()
+    protected val probes = AtomicInteger()
+    protected val failuresInRow = AtomicInteger()
+
+    init {
+        for (i in 0 until buckets) {
+            bucketEpochs.set(i, EMPTY_BUCKET)
+        }
+    }
+
+    /**
+     * Returns the current state. An open circuit stays [State.OPEN] until a request is attempted after [openDuration].
+     */
+    open fun getState(): State = state.get()
+
+    /**
+     * Checks whether a request may be sent to the node. Takes a probe permit if the circuit is half-open.
+     *
+     * @return True if the request is allowed.
+     */
+    open fun tryAcquire(): Boolean =
+        when (state.get()) {
+            State.CLOSED -> true
+            State.OPEN -> {
+                if (System.nanoTime() - openedAt.get() >= openDuration.toNanos() && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                    probes.set(halfOpenProbes - 1)
+                    logger.log(Level.INFO, "Circuit of $name is half-open")
+                    true
+                } else {
+                    state.get() == State.HALF_OPEN && tryAcquireProbe()
+                }
+            }
+            State.HALF_OPEN -> tryAcquireProbe()
+        }
+
+    /**
+     * Registers a successful request.
+     */
+    open fun onSuccess() {
+        failuresInRow.set(0)
+        record(bucketSuccesses)
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            reset()
+            logger.log(Level.INFO, "Circuit of $name is closed")
+        }
+    }
+
+    /**
+     * Registers a failed request and opens the circuit if the failure thresholds are reached.
+     */
+    open fun onFailure() {
+        val inRow = failuresInRow.incrementAndGet()
+        record(bucketFailures)
+        when (state.get()) {
+            State.HALF_OPEN -> open(State.HALF_OPEN, "probe failed")
+            State.CLOSED -> {
+                if (consecutiveFailures in 1..inRow) {
+                    open(State.CLOSED, "$inRow failures in row")
+                } else {
+                    val (successes, failures) = getWindowCounts()
+                    val total = successes + failures
+                    if (total >= minimumRequests && total > 0 && failures.toDouble() / total >= failureRateThreshold) {
+                        open(State.CLOSED, "$failures of $total requests failed")
+                    }
+                }
+            }
+            State.OPEN -> {}
+        }
+    }
+
+    /**
+     * Registers a request cancelled before its end. It is neither a success nor a failure, so the probe permit it
+     * may hold in the half-open circuit is returned.
+     */
+    open fun onCancel() {
+        if (state.get() != State.HALF_OPEN) {
+            return
+        }
+        while (true) {
+            val left = probes.get()
+            if (left >= halfOpenProbes || probes.compareAndSet(left, left + 1)) {
+                return
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the successful and the failed requests of the window.
+     *
+     * @return The pair of the successes and the failures.
+     */
+    open fun getWindowCounts(): Pair<Long, Long> {
+        val epoch = System.nanoTime() / bucketNanos
+        var successes = 0L
+        var failures = 0L
+        for (i in 0 until buckets) {
+            if (bucketEpochs.get(i) > epoch - buckets) {
+                successes += bucketSuccesses.get(i)
+                failures += bucketFailures.get(i)
+            }
+        }
+        return successes to failures
+    }
+
+    /**
+     * Opens the circuit if it is still in the expected state.
+     *
+     * @param expected The expected current state.
+     * @param reason The reason, used for logging.
+     */
+    protected open fun open(
+        expected: State,
+        reason: String,
+    ) {
+        if (state.compareAndSet(expected, State.OPEN)) {
+            openedAt.set(System.nanoTime())
+            logger.log(Level.WARNING, "Circuit of $name is open: $reason")
+        }
+    }
+
+    /**
+     * Takes a probe permit of the half-open circuit.
+     *
+     * @return True if a permit was taken.
+     */
+    protected open fun tryAcquireProbe(): Boolean {
+        while (true) {
+            val left = probes.get()
+            if (left <= 0) {
+                return false
+            }
+            if (probes.compareAndSet(left, left - 1)) {
+                return true
+            }
+        }
+    }
+
+    /**
+     * Counts a request in the current bucket, resetting the bucket if it belongs to an expired epoch.
+     *
+     * @param counters The counters to increment.
+     */
+    protected open fun record(counters: AtomicLongArray) {
+        val epoch = System.nanoTime() / bucketNanos
+        val slot = Math.floorMod(epoch, buckets.toLong()).toInt()
+        val current = bucketEpochs.get(slot)
+        if (current != epoch && bucketEpochs.compareAndSet(slot, current, epoch)) {
+            bucketSuccesses.set(slot, 0)
+            bucketFailures.set(slot, 0)
+        }
+        counters.incrementAndGet(slot)
+    }
+
+    /**
+     * Clears the window.
+     */
+    protected open fun reset() {
+        for (i in 0 until buckets) {
+            bucketEpochs.set(i, EMPTY_BUCKET)
+            bucketSuccesses.set(i, 0)
+            bucketFailures.set(i, 0)
+        }
+    }
+
+    /**
+     * The Companion object of the CryptoNodeCircuitBreaker class.
+     */
+    companion object {
+        /**
+         * The logger of the circuit state changes.
+         */
+        val logger: Logger = Logger.getLogger(CryptoNodeCircuitBreaker::class.java.name)
+
+        /**
+         * The epoch of the unused buckets.
+         */
+        const val EMPTY_BUCKET = Long.MIN_VALUE
+    }
+}
@@ -22,9 +22,14 @@ import io.github.breninsul.javatimerscheduler.registry.TaskSchedulerRegistry
 import java.net.URL
 import java.time.Duration
 import java.time.LocalDateTime
-import java.util.concurrent.Callable
+import java.util.Collections
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.function.Consumer
 import java.util.logging.Level
 import java.util.logging.Logger
 
@@ -32,16 +37,23 @@ import java.util.logging.Logger
  * CryptoNodeHealthActualizer class is responsible for periodically checking the health
  * of various crypto node services and updating their statuses accordingly.
  *
+ * All the nodes of a round are checked concurrently with [CryptoNodeHealthChecker.checkAsync], so a round takes at most
+ * [maxRefreshTimeout] regardless of the number of nodes; checks not finished by then are cancelled and the nodes are
+ * considered unhealthy. The head of a chain is the highest block reported by its nodes; nodes lagging behind it by more
+ * than `health.max-block-lag` blocks are excluded. The round result is published as one immutable snapshot ([serviceStatuses]), and the health
+ * listeners (see [addHealthListener]) receive it.
+ *
  * @property loggingLevel The logging level for the class.
  * @property cryptoNodeProperties The properties related to the crypto node services.
- * @property executor The executor service for running health check tasks.
+ * @property executor Not used, the checks are asynchronous. Deprecated, kept for source compatibility.
  * @property cryptoNodeHealthChecker The health checker for crypto node services.
- * @property maxRefreshTimeout The maximum refresh timeout duration.
+ * @property maxRefreshTimeout The deadline of a health check round.
  */
 open class CryptoNodeHealthActualizer(
     val loggingLevel: Level,
     val cryptoNodeProperties: CryptoNodeProperties,
-    val executor: ExecutorService,
+    @Deprecated("Not used, the health checks are asynchronous")
+    val executor: ExecutorService = ForkJoinPool.commonPool(),
     val cryptoNodeHealthChecker: CryptoNodeHealthChecker,
     val maxRefreshTimeout: Duration,
 ) {
@@ -82,15 +94,26 @@ open class CryptoNodeHealthActualizer(
             }.toList()
 
     /**
-     * Represents a map of service statuses.
-     *
-     * The key of the map represents the service ID, and the associated value
-     * is a list of ServiceStatus objects representing the statuses of the service.
+     * The immutable snapshot of the healthy nodes by chain ID, replaced as a whole after every round.
+     * Chains without healthy nodes have an empty list.
+     */
+    @Volatile
+    var serviceStatuses: Map<Int, List<ServiceStatus>> = mapOf()
+        protected set
+
+    /**
+     * The listeners notified after every health check.
+     */
+    protected val healthListeners: MutableList<Consumer<Map<Int, List<ServiceStatus>>>> = CopyOnWriteArrayList()
+
+    /**
+     * Adds the listener notified with the statuses of all chains after every health check.
      *
-     * @property serviceStatuses The map of service statuses, where the key is the service ID
-     *            and the value is a list of ServiceStatus objects.
+     * @param listener The listener.
      */
-    val serviceStatuses = HashMap<Int, List<ServiceStatus>>()
+    open fun addHealthListener(listener: Consumer<Map<Int, List<ServiceStatus>>>) {
+        healthListeners.add(listener)
+    }
 
     /**
      * Represents a service with a chain ID and a URL.
@@ -110,7 +133,11 @@ open class CryptoNodeHealthActualizer(
      * @property chainId The chain ID of the service.
      * @property url The URL of the service.
      * @property status The status of the service.
-     * @property timeout*/
+     * @property timeout The time taken for the health check in milliseconds.
+     * @property checkedTime The check time.
+     * @property blockNumber The block height reported by the service, or null if it is unknown.
+     * @property lag The number of blocks the service is behind the chain head, zero if the block height is unknown.
+     */
 
     data class ServiceStatus(
         val chainId: Int,
@@ -118,35 +145,83 @@ open class CryptoNodeHealthActualizer(
         val status: Boolean,
         val timeout: Long,
         val checkedTime: LocalDateTime = LocalDateTime.now(),
+        val blockNumber: Long? = null,
+        val lag: Long = 0,
     )
 
     /**
-     * Checks the health status of the nodes in the service list.
+     * Checks the health status of all the nodes concurrently and publishes the snapshot of the healthy ones.
+     * Chains without healthy nodes get an empty list.
      */
     protected open fun checkNodes() {
-        val list =
-            serviceListRaw
-                .asSequence()
-                .map { it to executor.submit(Callable { return@Callable cryptoNodeHealthChecker.check(it.url) }) }
-                .map {
-                    try {
-                        val heathStatus =
-                            it.second.get(
-                                maxRefreshTimeout.toMillis(),
-                                TimeUnit.MILLISECONDS,
-                            )
-                        if (loggingLevel != Level.OFF) {
-                            logger.log(loggingLevel, "Health ${it.first.url}:$heathStatus")
-                        }
-                        it.first to heathStatus
-                    } catch (t: Throwable) {
-                        logger.log(Level.SEVERE, "Error actualize health ${it.first.url}", t)
-                        return@map null
-                    }
-                }.filterNotNull()
-                .filter { it.second?.status ?: false }
-                .map { ServiceStatus(it.first.chainId, it.first.url, it.second!!.status, it.second!!.timeout) }
-                .toList()
-        list.groupBy { it.chainId }.forEach { serviceStatuses[it.key] = it.value }
+        val services = serviceListRaw
+        val checks = services.map { it to cryptoNodeHealthChecker.checkAsync(it.url, maxRefreshTimeout) }
+        try {
+            CompletableFuture
+                .allOf(*checks.map { it.second }.toTypedArray())
+                .get(maxRefreshTimeout.toMillis() + ROUND_GRACE_MILLIS, TimeUnit.MILLISECONDS)
+        } catch (_: TimeoutException) {
+            logger.log(Level.WARNING, "Health check round did not finish in $maxRefreshTimeout")
+        }
+        val healthy =
+            checks.mapNotNull { (service, check) ->
+                val status = check.getNow(null)
+                if (loggingLevel != Level.OFF) {
+                    logger.log(loggingLevel, "Health ${service.url}:${status ?: "timeout"}")
+                }
+                if (status?.status == true) ServiceStatus(service.chainId, service.url, true, status.timeout, blockNumber = status.blockNumber) else null
+            }
+        val byChain = healthy.groupBy { it.chainId }.mapValues { excludeLagging(it.value) }
+        val snapshot = LinkedHashMap<Int, List<ServiceStatus>>()
+        services.forEach { snapshot[it.chainId] = byChain[it.chainId] ?: listOf() }
+        serviceStatuses = Collections.unmodifiableMap(snapshot)
+        notifyHealthListeners()
+    }
+
+    /**
+     * Computes the lag of the nodes behind the highest block of the chain and excludes the nodes lagging by more than
+     * `health.max-block-lag` blocks. If other nodes report the head, nodes with an unknown block height are kept with
+     * the maximum allowed lag (or the maximum lag of the chain, if the limit is disabled), so they are picked last.
+     *
+     * @param list The healthy nodes of a chain.
+     * @return The nodes with their lag, without the lagging ones.
+     */
+    protected open fun excludeLagging(list: List<ServiceStatus>): List<ServiceStatus> {
+        val head = list.mapNotNull { it.blockNumber }.maxOrNull() ?: return list
+        val maxLag = cryptoNodeProperties.health.maxBlockLag
+        val unknownLag = if (maxLag > 0) maxLag else head - list.mapNotNull { it.blockNumber }.min()
+        return list
+            .map { status -> status.copy(lag = status.blockNumber?.let { head - it } ?: unknownLag) }
+            .filter { status ->
+                val lagging = maxLag > 0 && status.lag > maxLag
+                if (lagging) {
+                    logger.log(Level.WARNING, "Node ${status.url.host} of chain ${status.chainId} is ${status.lag} blocks behind, excluded")
+                }
+                !lagging
+            }
+    }
+
+    /**
+     * Passes the snapshot of the statuses to the health listeners. Listener errors are logged and ignored.
+     */
+    protected open fun notifyHealthListeners() {
+        val snapshot = serviceStatuses
+        healthListeners.forEach {
+            try {
+                it.accept(snapshot)
+            } catch (t: Throwable) {
+                logger.log(Level.SEVERE, "Error processing health update", t)
+            }
+        }
+    }
+
+    /**
+     * The Companion object of the CryptoNodeHealthActualizer class.
+     */
+    companion object {
+        /**
+         * The time a round waits for the checks after their deadline.
+         */
+        const val ROUND_GRACE_MILLIS = 1000L
     }
 }
@@ -17,23 +17,33 @@
 
 package com.alcosi.lib.crypto.nodes
 
+import com.alcosi.lib.filters.servlet.ThreadContext
+import com.alcosi.lib.logging.http.okhttp.executeAsync
 import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
 import java.net.URL
+import java.time.Duration
 import java.util.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
 import java.util.logging.Level
 import java.util.logging.Logger
+import java.util.regex.Pattern
 
 /**
  * The CryptoNodeHealthChecker class is responsible for checking the health status of a crypto node.
  *
  * @property client OkHttpClient instance used for making HTTP requests.
+ * @property threadContext The ThreadContext propagated into asynchronous checks, or null.
  */
 open class CryptoNodeHealthChecker(
     val client: OkHttpClient,
+    val threadContext: ThreadContext? = null,
 ) {
     /**
      * Represents the request body used for checking the health status of a crypto node.
@@ -46,13 +56,15 @@ open class CryptoNodeHealthChecker(
      *
      * @property status The status of the crypto node.
      * @property timeout The time taken for the health check in milliseconds.
+     * @property blockNumber The block height reported by the node, or null if it is unknown.
      */
 
     data class HeathStatus(
         val status: Boolean,
         val timeout: Long,
+        val blockNumber: Long? = null,
     ) {
-        override fun toString(): String = "$status:$timeout ms"
+        override fun toString(): String = if (blockNumber == null) "$status:$timeout ms" else "$status:$timeout ms:block $blockNumber"
     }
 
     /**
@@ -79,6 +91,96 @@ open class CryptoNodeHealthChecker(
         return HeathStatus(status, System.currentTimeMillis() - time)
     }
 
+    /**
+     * Checks the health status of a given URL without blocking the calling thread, within the deadline.
+     * A check not finished within the timeout is cancelled and reported as unhealthy.
+     *
+     * @param url The URL to check.
+     * @param timeout The check deadline.
+     * @return The future of the health status of the URL, it never completes exceptionally.
+     */
+    open fun checkAsync(
+        url: URL,
+        timeout: Duration,
+    ): CompletableFuture<HeathStatus> {
+        val time = System.currentTimeMillis()
+        return checkStatusAsync(url, timeout)
+            .thenApply { HeathStatus(it.first, System.currentTimeMillis() - time, it.second) }
+            .completeOnTimeout(HeathStatus(false, timeout.toMillis()), timeout.toMillis(), TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Checks the status of a given URL asynchronously, cancelling the HTTP call after the timeout.
+     *
+     * @param url The URL to check the status of.
+     * @param timeout The check deadline.
+     * @return The future of the status, true if the status check is successful, and the reported block height.
+     * @see parseStatus
+     */
+    protected open fun checkStatusAsync(
+        url: URL,
+        timeout: Duration,
+    ): CompletableFuture<Pair<Boolean, Long?>> {
+        try {
+            val call = client.executeAsync(createRequest(url), threadContext) { parseStatus(it) }
+            CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS).execute { call.cancel(true) }
+            return call.exceptionally { th ->
+                if (CryptoNodeRetryPolicy.unwrap(th) is CancellationException) {
+                    logger.log(Level.WARNING, "Health check $url timed out after $timeout")
+                } else {
+                    logger.log(Level.SEVERE, "Error health check $url", th)
+                }
+                false to null
+            }
+        } catch (th: Throwable) {
+            logger.log(Level.SEVERE, "Error health check $url", th)
+            return CompletableFuture.completedFuture(false to null)
+        }
+    }
+
+    /**
+     * Parses the status of the health check response. An HTTP error or a JSON-RPC error makes the node unhealthy.
+     * A successful response without a valid `eth_blockNumber` result is healthy with an unknown block height.
+     *
+     * @param response The response.
+     * @return The status and the block height, or null if it is unknown.
+     */
+    protected open fun parseStatus(response: Response): Pair<Boolean, Long?> {
+        if (!response.isSuccessful) {
+            return false to null
+        }
+        val text = response.body?.string() ?: return true to null
+        if (ERROR_PATTERN.matcher(text).find()) {
+            logger.log(Level.WARNING, "Health check ${response.request.url} returned error: $text")
+            return false to null
+        }
+        return true to parseBlockNumber(text)
+    }
+
+    /**
+     * Parses the block height of the `eth_blockNumber` response.
+     *
+     * @param text The response text.
+     * @return The block height, or null if the response has no valid result.
+     */
+    protected open fun parseBlockNumber(text: String): Long? {
+        val matcher = BLOCK_NUMBER_PATTERN.matcher(text)
+        return if (matcher.find()) matcher.group(1).toLongOrNull(16) else null
+    }
+
+    /**
+     * Creates the health check request.
+     *
+     * @param url The URL to check.
+     * @return The request.
+     */
+    protected open fun createRequest(url: URL): Request =
+        Request
+            .Builder()
+            .url(url)
+            .post(body)
+            .build()
+
     /**
      * Checks the status of a given URL.
      *
@@ -87,15 +189,8 @@ open class CryptoNodeHealthChecker(
      */
     protected open fun checkStatus(url: URL): Boolean {
         try {
-            val request =
-                Request
-                    .Builder()
-                    .url(url)
-                    .post(body)
-                    .build()
-            val call = client.newCall(request)
-            val response = call.execute()
-            return response.isSuccessful
+            val call = client.newCall(createRequest(url))
+            return call.execute().use { it.isSuccessful }
         } catch (th: Throwable) {
             logger.log(Level.SEVERE, "Error health check $url", th)
             return false
@@ -115,5 +210,15 @@ open class CryptoNodeHealthChecker(
          * @property logger The logger instance.
          */
         val logger = Logger.getLogger(this::class.java.name)
+
+        /**
+         * Matches the hex result of the `eth_blockNumber` response.
+         */
+        val BLOCK_NUMBER_PATTERN: Pattern = Pattern.compile("\"result\"\\s*:\\s*\"0x([0-9a-fA-F]{1,15})\"")
+
+        /**
+         * Matches the error member of a JSON-RPC response.
+         */
+        val ERROR_PATTERN: Pattern = Pattern.compile("\"error\"\\s*:\\s*\\{")
     }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ArrayNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import org.web3j.protocol.exceptions.ClientConnectionException
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.concurrent.withLock
+
+/**
+ * Coalesces the JSON-RPC requests of a chain into JSON-RPC batches.
+ *
+ * A batch is sent [window] after its first request, or as soon as it has [maxBatchSize] requests. The request ids are
+ * replaced with the batch indexes, so the responses are matched to the callers even if the callers used the same ids,
+ * and the original ids are restored in the returned responses. Batches, notifications, malformed requests and requests
+ * of methods not in [methods] are sent as is. If the node does not answer a batch with an array, the requests are resent
+ * one by one, so only idempotent methods may be batched: the node may have processed the batch anyway.
+ *
+ * @property maxBatchSize The maximum number of requests of a batch.
+ * @property window The time the first request of a batch waits for the other ones.
+ * @property objectMapper The ObjectMapper used to parse and write the JSON-RPC messages.
+ * @property methods The idempotent JSON-RPC methods that may be batched.
+ * @property sender Sends a request or a batch and returns the future of the response body.
+ */
+open class CryptoNodeJsonRpcBatcher(
+    val maxBatchSize: Int,
+    val window: Duration,
+    val objectMapper: ObjectMapper,
+    val methods: Set<String> = CryptoNodeRetryPolicy.DEFAULT_METHODS,
+    val sender: (String) -> CompletableFuture<InputStream?>,
+) {
+    /**
+     * A request waiting for its batch.
+     *
+     * @property raw The request string.
+     * @property request The parsed request.
+     * @property id The original request id.
+     * @property future The future of the response body.
+     */
+    protected class Pending(
+        val raw: String,
+        val request: ObjectNode,
+        val id: JsonNode,
+        val future: CompletableFuture<InputStream?> = CompletableFuture(),
+    )
+
+    protected val lock = ReentrantLock()
+    protected var pending = ArrayList<Pending>(maxBatchSize)
+
+    /**
+     * Adds the request to the current batch.
+     *
+     * @param request The JSON-RPC request string.
+     * @return The future of the response body.
+     */
+    open fun submit(request: String): CompletableFuture<InputStream?> {
+        val item = parse(request) ?: return sender(request)
+        var full: List<Pending>? = null
+        var first: List<Pending>? = null
+        lock.withLock {
+            val batch = pending
+            batch.add(item)
+            if (batch.size >= maxBatchSize) {
+                pending = ArrayList(maxBatchSize)
+                full = batch
+            } else if (batch.size == 1) {
+                first = batch
+            }
+        }
+        first?.let { batch -> CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS).execute { flush(batch) } }
+        full?.let { send(it) }
+        return item.future
+    }
+
+    /**
+     * Parses a single JSON-RPC request with an id and an idempotent method.
+     *
+     * @param request The request string.
+     * @return The pending request, or null if the request must be sent as is.
+     */
+    protected open fun parse(request: String): Pending? {
+        val node =
+            try {
+                objectMapper.readTree(request)
+            } catch (t: Throwable) {
+                return null
+            }
+        val id = node?.get("id")
+        if (node !is ObjectNode || id == null || id.isNull || node.get("method")?.asText() !in methods) {
+            return null
+        }
+        return Pending(request, node, id)
+    }
+
+    /**
+     * Sends the batch if it is still the current one.
+     *
+     * @param batch The batch.
+     */
+    protected open fun flush(batch: List<Pending>) {
+        lock.withLock {
+            if (pending !== batch) {
+                return
+            }
+            pending = ArrayList(maxBatchSize)
+        }
+        send(batch)
+    }
+
+    /**
+     * Sends the batch and dispatches the responses.
+     *
+     * @param batch The batch.
+     */
+    protected open fun send(batch: List<Pending>) {
+        if (batch.size == 1) {
+            sendSingle(batch[0])
+            return
+        }
+        val array = objectMapper.createArrayNode()
+        batch.forEachIndexed { index, item -> array.add(item.request.put("id", index)) }
+        val response =
+            try {
+                sender(objectMapper.writeValueAsString(array))
+            } catch (t: Throwable) {
+                CompletableFuture.failedFuture(t)
+            }
+        response.whenComplete { stream, error ->
+            if (error != null) {
+                val cause = CryptoNodeRetryPolicy.unwrap(error)
+                batch.forEach { it.future.completeExceptionally(cause) }
+            } else {
+                try {
+                    dispatch(batch, stream)
+                } catch (t: Throwable) {
+                    batch.forEach { it.future.completeExceptionally(t) }
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches the batch responses to the requests by their ids.
+     *
+     * @param batch The batch.
+     * @param stream The batch response body.
+     */
+    protected open fun dispatch(
+        batch: List<Pending>,
+        stream: InputStream?,
+    ) {
+        val tree = stream?.use { objectMapper.readTree(it) }
+        if (tree !is ArrayNode) {
+            logger.log(Level.WARNING, "Batch response is not an array, sending ${batch.size} requests one by one")
+            batch.forEach { sendSingle(it) }
+            return
+        }
+        for (element in tree) {
+            val index = element.get("id")?.takeIf { it.canConvertToInt() }?.asInt() ?: continue
+            val item = batch.getOrNull(index) ?: continue
+            (element as ObjectNode).set<JsonNode>("id", item.id)
+            item.future.complete(ByteArrayInputStream(objectMapper.writeValueAsBytes(element)))
+        }
+        batch.forEach {
+            if (!it.future.isDone) {
+                it.future.completeExceptionally(ClientConnectionException("No response for the batched request ${it.id}"))
+            }
+        }
+    }
+
+    /**
+     * Sends the request as is.
+     *
+     * @param item The request.
+     */
+    protected open fun sendSingle(item: Pending) {
+        val response =
+            try {
+                sender(item.raw)
+            } catch (t: Throwable) {
+                CompletableFuture.failedFuture(t)
+            }
+        response.whenComplete { stream, error ->
+            if (error != null) {
+                item.future.completeExceptionally(CryptoNodeRetryPolicy.unwrap(error))
+            } else if (!item.future.complete(stream)) {
+                stream?.close()
+            }
+        }
+    }
+
+    /**
+     * The Companion object of the CryptoNodeJsonRpcBatcher class.
+     */
+    companion object {
+        /**
+         * The logger of the batch failures.
+         */
+        val logger: Logger = Logger.getLogger(CryptoNodeJsonRpcBatcher::class.java.name)
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Tracks a latency quantile over the last [size] samples.
+ *
+ * Recording is lock-free. The quantile is recomputed from a sorted copy of the samples at most every `size / 8`
+ * records, so reading it is cheap.
+ *
+ * @property quantile The tracked quantile, from 0 to 1.
+ * @property size The number of the kept samples.
+ * @property minSamples The number of the samples required to compute the quantile.
+ */
+open class CryptoNodeLatencyTracker(
+    val quantile: Double = 0.95,
+    val size: Int = 256,
+    val minSamples: Int = 20,
+) {
+    protected val samples = AtomicLongArray(size)
+    protected val count = AtomicLong()
+
+    @Volatile
+    protected var cached: Long = -1
+
+    @Volatile
+    protected var cachedAt: Long = 0
+
+    /**
+     * Records a latency sample.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    open fun record(nanos: Long) {
+        val index = count.getAndIncrement()
+        samples.set((index % size).toInt(), nanos)
+    }
+
+    /**
+     * Returns the quantile of the recorded latencies.
+     *
+     * @return The quantile in nanoseconds, or null if there are less than [minSamples] samples.
+     */
+    open fun getQuantileNanos(): Long? {
+        val recorded = count.get()
+        if (recorded < minSamples) {
+            return null
+        }
+        val current = cached
+        if (current >= 0 && recorded - cachedAt < (size / 8).coerceAtLeast(1)) {
+            return current
+        }
+        val sorted = LongArray(minOf(recorded, size.toLong()).toInt()) { samples.get(it) }
+        sorted.sort()
+        val computed = sorted[((sorted.size - 1) * quantile).toInt()]
+        cached = computed
+        cachedAt = recorded
+        return computed
+    }
+}
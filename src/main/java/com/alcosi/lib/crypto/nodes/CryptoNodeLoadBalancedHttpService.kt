@@ -17,62 +17,512 @@
 
 package com.alcosi.lib.crypto.nodes
 
+import com.alcosi.lib.filters.servlet.ThreadContext
+import com.alcosi.lib.logging.http.okhttp.executeAsync
 import okhttp3.Headers.Companion.toHeaders
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
 import okhttp3.ResponseBody
 import org.web3j.protocol.exceptions.ClientConnectionException
 import org.web3j.protocol.http.HttpService
 import java.io.ByteArrayInputStream
 import java.io.InputStream
+import java.net.URL
+import java.time.Duration
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.Level
+import java.util.logging.Logger
 
 /**
  * A class representing a load-balanced HTTP service for performing IO operations using Crypto Nodes.
  *
+ * The latency and the outcome of every request are reported to the [CryptoNodeStats] of the picked node.
+ * Idempotent requests are retried on other nodes and optionally hedged, as defined by the [retryPolicy].
+ * If [batchSize] is greater than one, the idempotent requests issued within [batchWindow] are sent as JSON-RPC batches.
+ * The finality-safe responses are served from the [responseCache], if set.
+ * If [streamResponses] is true, the response body is not copied: the returned InputStream reads the live HTTP response
+ * and releases the connection when it is closed, so the caller must close it. The outcome and the latency of a streamed
+ * request are reported when its body is read to the end or closed, a failure while reading the body counts as a failed request.
+ *
  * @param chainId The ID of the Crypto Node chain.
  * @param cryptoNodesLoadBalancer The load balancer for selecting the actual URL of the Crypto Node.
  * @param okHttpClientRaw The raw OkHttpClient instance for making HTTP requests.
+ * @param threadContext The ThreadContext propagated into asynchronous requests, or null.
+ * @param retryPolicy The retry and hedging policy, or null to send every request once.
+ * @param batchSize The maximum number of requests of a JSON-RPC batch, one or less to disable the batching.
+ * @param batchWindow The time the first request of a batch waits for the other ones.
+ * @param responseCache The cache of the immutable responses, or null.
+ * @param streamResponses True to stream the response bodies instead of buffering them.
  */
 open class CryptoNodeLoadBalancedHttpService(
     val chainId: Int,
     val cryptoNodesLoadBalancer: CryptoNodesLoadBalancer,
     val okHttpClientRaw: OkHttpClient,
+    val threadContext: ThreadContext? = null,
+    val retryPolicy: CryptoNodeRetryPolicy? = null,
+    val batchSize: Int = 0,
+    val batchWindow: Duration = Duration.ofMillis(2),
+    val responseCache: CryptoNodeResponseCache? = null,
+    val streamResponses: Boolean = false,
 ) : HttpService(okHttpClientRaw) {
+    /**
+     * The latencies of the successful requests of the chain, used for the hedge delay.
+     */
+    protected val latencyTracker = CryptoNodeLatencyTracker(retryPolicy?.hedgeQuantile ?: 0.95)
+
+    /**
+     * The JSON-RPC batcher, or null if the batching is disabled.
+     */
+    protected val batcher: CryptoNodeJsonRpcBatcher? =
+        if (batchSize > 1) CryptoNodeJsonRpcBatcher(batchSize, batchWindow, objectMapper, retryPolicy?.methods ?: CryptoNodeRetryPolicy.DEFAULT_METHODS) { performIOAsyncDirect(it) } else null
+
     /**
      * Performs an IO operation by making an HTTP POST request with the given request string.
+     * Cached, batched and hedged requests are performed asynchronously and awaited.
      *
      * @param request The request string to be sent in the HTTP POST request.
      * @return An InputStream containing the response body if the request is successful, else null.
      * @throws ClientConnectionException if the response received is not successful.
      */
     override fun performIO(request: String): InputStream? {
+        val policy = retryPolicy
+        if (responseCache != null || batcher != null || policy?.hedging == true && policy.isRetryable(request)) {
+            try {
+                return performIOAsync(request).get()
+            } catch (e: ExecutionException) {
+                throw CryptoNodeRetryPolicy.unwrap(e)
+            }
+        }
+        if (policy == null || !policy.isRetryable(request)) {
+            return performIO(request, cryptoNodesLoadBalancer.pickNode(chainId))
+        }
+        val tried = ArrayList<CryptoNodeStats>(policy.maxAttempts)
+        while (true) {
+            val node = cryptoNodesLoadBalancer.pickNode(chainId, tried)
+            try {
+                return performIO(request, node)
+            } catch (t: Throwable) {
+                tried.add(node)
+                if (tried.size >= policy.maxAttempts || !policy.isRetryable(t)) {
+                    throw t
+                }
+                logger.log(Level.FINE, "Request to chain $chainId node ${node.url.host} failed, retrying: $t")
+            }
+        }
+    }
+
+    /**
+     * Performs an IO operation on the node. If the response is streamed, the outcome is reported when the body ends.
+     *
+     * @param request The request string to be sent in the HTTP POST request.
+     * @param node The node.
+     * @return An InputStream containing the response body if the request is successful, else null.
+     * @throws ClientConnectionException if the response received is not successful.
+     */
+    protected open fun performIO(
+        request: String,
+        node: CryptoNodeStats,
+    ): InputStream? {
+        val outcome = NodeRequest(node)
+        try {
+            val response = okHttpClientRaw.newCall(buildRequest(request, node.url)).execute()
+            val result =
+                try {
+                    processResponse(response)
+                } catch (t: Throwable) {
+                    response.close()
+                    throw t
+                }
+            if (result == null || !streamResponses) {
+                response.close()
+                outcome.succeed()
+                return result
+            }
+            return outcome.track(result)
+        } catch (t: Throwable) {
+            outcome.fail()
+            throw t
+        }
+    }
+
+    /**
+     * Performs an IO operation without parking the calling thread while waiting for the node response.
+     *
+     * @param request The request string to be sent in the HTTP POST request.
+     * @return The future of the InputStream containing the response body, completed exceptionally with
+     * ClientConnectionException if the response received is not successful.
+     */
+    open fun performIOAsync(request: String): CompletableFuture<InputStream?> = responseCache?.getOrLoad(chainId, request) { performIOAsyncBatched(it) } ?: performIOAsyncBatched(request)
+
+    /**
+     * Performs an IO operation bypassing the [responseCache].
+     *
+     * @param request The request string to be sent in the HTTP POST request.
+     * @return The future of the InputStream containing the response body.
+     */
+    protected open fun performIOAsyncBatched(request: String): CompletableFuture<InputStream?> = batcher?.submit(request) ?: performIOAsyncDirect(request)
+
+    /**
+     * Performs an IO operation without batching, retrying and hedging it according to the [retryPolicy].
+     *
+     * @param request The request string or batch to be sent in the HTTP POST request.
+     * @return The future of the InputStream containing the response body.
+     */
+    protected open fun performIOAsyncDirect(request: String): CompletableFuture<InputStream?> {
+        val policy = retryPolicy
+        if (policy != null && policy.isRetryable(request)) {
+            return RetryingCall(request, policy).start()
+        }
+        val node =
+            try {
+                cryptoNodesLoadBalancer.pickNode(chainId)
+            } catch (t: Throwable) {
+                return CompletableFuture.failedFuture(t)
+            }
+        return performIOAsync(request, node)
+    }
+
+    /**
+     * Performs an IO operation on the node without parking the calling thread. Cancelling the returned future
+     * cancels the HTTP call.
+     *
+     * @param request The request string to be sent in the HTTP POST request.
+     * @param node The node.
+     * @return The future of the InputStream containing the response body.
+     */
+    protected open fun performIOAsync(
+        request: String,
+        node: CryptoNodeStats,
+    ): CompletableFuture<InputStream?> {
+        val outcome = NodeRequest(node)
+        try {
+            val httpRequest = buildRequest(request, node.url)
+            val future =
+                if (streamResponses) {
+                    executeStreaming(httpRequest, outcome)
+                } else {
+                    okHttpClientRaw.executeAsync(httpRequest, threadContext) { processResponse(it) }
+                }
+            future.whenComplete { _, error ->
+                when (error) {
+                    null -> if (!streamResponses) outcome.succeed()
+                    is CancellationException -> outcome.cancel()
+                    else -> outcome.fail()
+                }
+            }
+            return future
+        } catch (t: Throwable) {
+            outcome.fail()
+            return CompletableFuture.failedFuture(t)
+        }
+    }
+
+    /**
+     * Executes the request asynchronously and streams the response body. The response stays open until the returned
+     * stream is closed; it is closed at once if the returned future is cancelled or fails. Cancelling the returned
+     * future cancels the HTTP call.
+     *
+     * @param request The HTTP request.
+     * @param outcome The request to the node, tracking the response body, or null.
+     * @return The future of the InputStream reading the response body.
+     */
+    protected open fun executeStreaming(
+        request: Request,
+        outcome: NodeRequest? = null,
+    ): CompletableFuture<InputStream?> {
+        val call = okHttpClientRaw.executeAsync(request, threadContext)
+        val result = CompletableFuture<InputStream?>()
+        call.whenComplete { response, error ->
+            if (error != null) {
+                result.completeExceptionally(error)
+                return@whenComplete
+            }
+            try {
+                val stream = processResponse(response)
+                if (stream == null) {
+                    response.close()
+                }
+                val tracked = if (outcome == null) stream else outcome.track(stream)
+                if (!result.complete(tracked)) {
+                    stream?.close()
+                }
+            } catch (t: Throwable) {
+                response.close()
+                result.completeExceptionally(t)
+            }
+        }
+        result.whenComplete { _, error ->
+            if (error is CancellationException) {
+                call.cancel(true)
+            }
+        }
+        return result
+    }
+
+    /**
+     * A request to a node, reporting its outcome to the node statistics and the latency tracker once.
+     *
+     * @property node The node.
+     */
+    protected open inner class NodeRequest(
+        val node: CryptoNodeStats,
+    ) {
+        /**
+         * The start time of the request.
+         */
+        val start = node.start()
+
+        protected val reported = AtomicBoolean()
+
+        /**
+         * Reports the success of the request.
+         */
+        open fun succeed() {
+            if (reported.compareAndSet(false, true)) {
+                latencyTracker.record(System.nanoTime() - start)
+                node.finish(start, true)
+            }
+        }
+
+        /**
+         * Reports the failure of the request.
+         */
+        open fun fail() {
+            if (reported.compareAndSet(false, true)) {
+                node.finish(start, false)
+            }
+        }
+
+        /**
+         * Reports the cancellation of the request.
+         */
+        open fun cancel() {
+            if (reported.compareAndSet(false, true)) {
+                node.cancel()
+            }
+        }
+
+        /**
+         * Wraps the streamed response body to report the outcome when the body ends.
+         *
+         * @param stream The response body, or null.
+         * @return The wrapped body, or null if there is no body; the request is then reported as successful.
+         */
+        open fun track(stream: InputStream?): InputStream? {
+            if (stream == null) {
+                succeed()
+                return null
+            }
+            return CryptoNodeResponseStream(stream) { if (it) succeed() else fail() }
+        }
+    }
+
+    /**
+     * An asynchronous request retried on other nodes and hedged according to the policy.
+     * The first successful attempt completes the call, the other attempts are cancelled.
+     *
+     * @property request The request string.
+     * @property policy The retry and hedging policy.
+     */
+    protected open inner class RetryingCall(
+        val request: String,
+        val policy: CryptoNodeRetryPolicy,
+    ) {
+        /**
+         * The call result.
+         */
+        val result = CompletableFuture<InputStream?>()
+
+        protected val lock = Any()
+        protected val tried = ArrayList<CryptoNodeStats>(policy.maxAttempts)
+        protected val attempts = ArrayList<CompletableFuture<InputStream?>>(policy.maxAttempts)
+        protected var started = 0
+        protected var inFlight = 0
+
+        /**
+         * Starts the first attempt and schedules the hedged one.
+         *
+         * @return The call result.
+         */
+        open fun start(): CompletableFuture<InputStream?> {
+            result.whenComplete { _, _ -> synchronized(lock) { attempts.toList() }.forEach { it.cancel(true) } }
+            launch(null)
+            if (policy.hedging && !result.isDone) {
+                val delay = policy.getHedgeDelayNanos(latencyTracker)
+                CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute { hedge() }
+            }
+            return result
+        }
+
+        /**
+         * Starts the hedged attempt if the call is still waiting for the first one.
+         */
+        protected open fun hedge() {
+            val waiting = synchronized(lock) { !result.isDone && inFlight > 0 && started < policy.maxAttempts }
+            if (waiting) {
+                logger.log(Level.FINE, "Hedging request to chain $chainId")
+                launch(null)
+            }
+        }
+
+        /**
+         * Starts an attempt on a node not tried yet, if the attempts are not exhausted.
+         *
+         * @param lastError The failure of the previous attempt, used if no attempt can be started.
+         */
+        protected open fun launch(lastError: Throwable?) {
+            val excluded =
+                synchronized(lock) {
+                    if (result.isDone || started >= policy.maxAttempts) {
+                        null
+                    } else {
+                        started++
+                        inFlight++
+                        tried.toList()
+                    }
+                }
+            if (excluded == null) {
+                return
+            }
+            val node =
+                try {
+                    cryptoNodesLoadBalancer.pickNode(chainId, excluded)
+                } catch (t: Throwable) {
+                    onAttemptFailure(lastError ?: t, false)
+                    return
+                }
+            val future = performIOAsync(request, node)
+            synchronized(lock) {
+                tried.add(node)
+                attempts.add(future)
+            }
+            if (result.isDone) {
+                future.cancel(true)
+            }
+            future.whenComplete { stream, error ->
+                if (error == null) {
+                    if (!result.complete(stream)) {
+                        stream?.close()
+                    }
+                } else {
+                    onAttemptFailure(error, policy.isRetryable(error))
+                }
+            }
+        }
+
+        /**
+         * Handles a failed attempt: retries it, or fails the call if no other attempt is in flight.
+         *
+         * @param error The attempt failure.
+         * @param retryable True if the failure may be retried.
+         */
+        protected open fun onAttemptFailure(
+            error: Throwable,
+            retryable: Boolean,
+        ) {
+            val retry: Boolean
+            val failed: Boolean
+            synchronized(lock) {
+                inFlight--
+                retry = retryable && !result.isDone && started < policy.maxAttempts
+                failed = !retry && inFlight == 0
+            }
+            if (retry) {
+                logger.log(Level.FINE, "Request to chain $chainId failed, retrying: $error")
+                launch(error)
+            } else if (failed) {
+                result.completeExceptionally(CryptoNodeRetryPolicy.unwrap(error))
+            }
+        }
+    }
+
+    /**
+     * Sends the request asynchronously using [performIOAsync] instead of the blocking web3j async executor.
+     *
+     * @param request The web3j request.
+     * @param responseType The response class.
+     * @return The future of the response.
+     */
+    override fun <T : org.web3j.protocol.core.Response<*>> sendAsync(
+        request: org.web3j.protocol.core.Request<*, out org.web3j.protocol.core.Response<*>>,
+        responseType: Class<T>,
+    ): CompletableFuture<T> {
+        val payload =
+            try {
+                objectMapper.writeValueAsString(request)
+            } catch (t: Throwable) {
+                return CompletableFuture.failedFuture(t)
+            }
+        return performIOAsync(payload).thenApply { stream ->
+            stream?.use { objectMapper.readValue(it, responseType) }
+        }
+    }
+
+    /**
+     * Builds the HTTP POST request to the picked node URL.
+     *
+     * @param request The request string to be sent.
+     * @param url The node URL.
+     * @return The HTTP request.
+     */
+    protected open fun buildRequest(
+        request: String,
+        url: URL,
+    ): Request {
         val requestBody = request.toRequestBody(JSON_MEDIA_TYPE)
         val headersOkHttp = headers.toHeaders()
-        val url = cryptoNodesLoadBalancer.getActualUrl(chainId)
-        val httpRequest: Request = Request.Builder().url(url.get()).headers(headersOkHttp).post(requestBody).build()
-        okHttpClientRaw.newCall(httpRequest).execute().use { response ->
-            processHeaders(response.headers)
-            val responseBody = response.body
-            return if (response.isSuccessful) {
-                responseBody?.let { buildInputStream(it) }
-            } else {
-                val code = response.code
-                val text = responseBody?.string() ?: "N/A"
-                throw ClientConnectionException(
-                    "Invalid response received: $code; $text",
-                )
-            }
+        return Request.Builder().url(url).headers(headersOkHttp).post(requestBody).build()
+    }
+
+    /**
+     * Processes the HTTP response.
+     *
+     * @param response The HTTP response.
+     * @return An InputStream containing the response body if the request is successful, else null.
+     * @throws ClientConnectionException if the response received is not successful.
+     */
+    protected open fun processResponse(response: Response): InputStream? {
+        processHeaders(response.headers)
+        val responseBody = response.body
+        return if (response.isSuccessful) {
+            responseBody?.let { buildInputStream(it) }
+        } else {
+            val code = response.code
+            val text = responseBody?.string() ?: "N/A"
+            throw ClientConnectionException(
+                "Invalid response received: $code; $text",
+            )
         }
     }
 
     /**
      * Builds an input stream from the provided response body.
+     * If [streamResponses] is true, the stream reads the live response body and closing it releases the connection,
+     * otherwise the body is read into memory.
      *
      * @param responseBody The response body from which to build the input stream.
      * @return The input stream built from the response body.
      */
     protected open fun buildInputStream(responseBody: ResponseBody): InputStream {
+        if (streamResponses) {
+            return responseBody.byteStream()
+        }
         return ByteArrayInputStream(responseBody.bytes())
     }
+
+    /**
+     * The Companion object of the CryptoNodeLoadBalancedHttpService class.
+     */
+    companion object {
+        /**
+         * The logger of the retried and hedged requests.
+         */
+        val logger: Logger = Logger.getLogger(CryptoNodeLoadBalancedHttpService::class.java.name)
+    }
 }
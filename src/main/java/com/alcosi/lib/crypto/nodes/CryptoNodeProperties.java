@@ -18,12 +18,15 @@
 package com.alcosi.lib.crypto.nodes;
 
 import com.alcosi.lib.logging.JavaLoggingLevel;
+import com.alcosi.lib.logging.http.okhttp.OkHttpConnectionProperties;
 import io.github.breninsul.okhttp.logging.OkHttpLoggerProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Configuration class for CryptoNodeProperties.
@@ -31,6 +34,19 @@ import java.util.Map;
 @ConfigurationProperties("common-lib.crypto.node")
 public class CryptoNodeProperties {
     private OkHttpLoggerProperties logging = new OkHttpLoggerProperties();
+    /**
+     * Connection pool and dispatcher settings of the node client.
+     * Not used if the shared root OkHttp client is enabled (common-lib.okhttp.shared-root-client).
+     */
+    private OkHttpConnectionProperties connection = new OkHttpConnectionProperties();
+
+    public OkHttpConnectionProperties getConnection() {
+        return connection;
+    }
+
+    public void setConnection(OkHttpConnectionProperties connection) {
+        this.connection = connection;
+    }
 
     public OkHttpLoggerProperties getLogging() {
         return logging;
@@ -88,6 +104,70 @@ public class CryptoNodeProperties {
     public void setHealth(Health health) {
         this.health = health;
     }
+    public CryptoNodeBalancingStrategy.Type getBalancingStrategy() {
+        return balancingStrategy;
+    }
+
+    public void setBalancingStrategy(CryptoNodeBalancingStrategy.Type balancingStrategy) {
+        this.balancingStrategy = balancingStrategy;
+    }
+
+    public Duration getEwmaDecay() {
+        return ewmaDecay;
+    }
+
+    public void setEwmaDecay(Duration ewmaDecay) {
+        this.ewmaDecay = ewmaDecay;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public void setRetry(Retry retry) {
+        this.retry = retry;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public void setBatch(Batch batch) {
+        this.batch = batch;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public Boolean getStreamResponses() {
+        return streamResponses;
+    }
+
+    public void setStreamResponses(Boolean streamResponses) {
+        this.streamResponses = streamResponses;
+    }
+
+    public Double getLagWeight() {
+        return lagWeight;
+    }
+
+    public void setLagWeight(Double lagWeight) {
+        this.lagWeight = lagWeight;
+    }
+
     public Boolean getDisabled() {
         return disabled;
     }
@@ -140,6 +220,42 @@ public class CryptoNodeProperties {
      * Note: This class does not have an explicit author or version tag.
      */
     private Duration balancerTimeout = Duration.ofSeconds(10);
+    /**
+     * The strategy picking a node of the chain for a request.
+     * WEIGHTED_RANDOM picks nodes by the health check time, P2C_EWMA and LEAST_OUTSTANDING use the latencies and the
+     * in-flight requests of the balanced requests, WEIGHTED_ROUND_ROBIN cycles through the nodes by the health check time.
+     * All of them also account for the block lag and the live error rate of the nodes.
+     */
+    private CryptoNodeBalancingStrategy.Type balancingStrategy = CryptoNodeBalancingStrategy.Type.WEIGHTED_RANDOM;
+    /**
+     * The decay time of the node latency moving average used by the P2C_EWMA strategy.
+     */
+    private Duration ewmaDecay = Duration.ofSeconds(10);
+    /**
+     * The weight of a block of lag behind the chain head in the node score: the score is worsened by 1 + lag * lagWeight.
+     */
+    private Double lagWeight = 0.1;
+    /**
+     * Passive health tracking: the per-node circuit breakers fed by the outcomes of the balanced requests.
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    /**
+     * Retry and hedging of the idempotent JSON-RPC requests.
+     */
+    private Retry retry = new Retry();
+    /**
+     * Coalescing of the JSON-RPC requests into JSON-RPC batches.
+     */
+    private Batch batch = new Batch();
+    /**
+     * Cache of the immutable JSON-RPC responses.
+     */
+    private ResponseCache responseCache = new ResponseCache();
+    /**
+     * Streams the node response bodies to web3j instead of copying them into memory.
+     * Reduces the heap usage for large responses, e.g. eth_getLogs and full blocks.
+     */
+    private Boolean streamResponses = false;
     /**
      * The "threads" variable represents the number of threads used in a certain context.
      * It is an Integer type variable with an initial value of 20.
@@ -177,7 +293,7 @@ public class CryptoNodeProperties {
      * refreshTimeout - The timeout duration for refreshing health (default: 10 seconds)
      * checkDelay - The delay duration for health checks (default: 60 seconds)
      * firstDelay - The initial delay duration for health checks (default: 1 second)
-     * threads - The number of threads for health checks (default: 20)
+     * threads - Not used, the health checks are asynchronous (deprecated)
      *
      * Usage Examples:
      *     Health health = new Health();
@@ -206,6 +322,289 @@ public class CryptoNodeProperties {
      */
     private Boolean disabled =false;
 
+    /**
+     * The per-node circuit breaker settings.
+     * A node is ejected when it fails consecutiveFailures requests in a row, or when failureRateThreshold of at least
+     * minimumRequests requests of the sliding window fail. After openDuration, halfOpenProbes requests probe the node.
+     */
+    public static class CircuitBreaker {
+        /**
+         * Enables the circuit breakers.
+         */
+        private Boolean enabled = true;
+        /**
+         * The sliding window duration.
+         */
+        private Duration window = Duration.ofSeconds(10);
+        /**
+         * The number of the sliding window buckets.
+         */
+        private Integer buckets = 10;
+        /**
+         * The failure rate of the window ejecting the node, from 0 to 1.
+         */
+        private Double failureRateThreshold = 0.5;
+        /**
+         * The minimum number of the window requests to evaluate the failure rate.
+         */
+        private Integer minimumRequests = 10;
+        /**
+         * The number of the consecutive failures ejecting the node, zero to disable.
+         */
+        private Integer consecutiveFailures = 5;
+        /**
+         * The time an ejected node receives no requests.
+         */
+        private Duration openDuration = Duration.ofSeconds(5);
+        /**
+         * The number of the probe requests after openDuration.
+         */
+        private Integer halfOpenProbes = 1;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public Integer getBuckets() {
+            return buckets;
+        }
+
+        public void setBuckets(Integer buckets) {
+            this.buckets = buckets;
+        }
+
+        public Double getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(Double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public Integer getMinimumRequests() {
+            return minimumRequests;
+        }
+
+        public void setMinimumRequests(Integer minimumRequests) {
+            this.minimumRequests = minimumRequests;
+        }
+
+        public Integer getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public void setConsecutiveFailures(Integer consecutiveFailures) {
+            this.consecutiveFailures = consecutiveFailures;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public Integer getHalfOpenProbes() {
+            return halfOpenProbes;
+        }
+
+        public void setHalfOpenProbes(Integer halfOpenProbes) {
+            this.halfOpenProbes = halfOpenProbes;
+        }
+    }
+
+    /**
+     * The retry and hedging settings of the idempotent JSON-RPC requests.
+     * A failed request is retried on another node. If hedging is enabled, a request not answered within the
+     * hedgeQuantile of the recent latencies is also sent to another node, and the first response is used.
+     */
+    public static class Retry {
+        /**
+         * Enables the retries.
+         */
+        private Boolean enabled = true;
+        /**
+         * The maximum number of attempts of a request, including the hedged one.
+         */
+        private Integer maxAttempts = 2;
+        /**
+         * The idempotent JSON-RPC methods that may be retried and hedged.
+         */
+        private Set<String> methods = new HashSet<>(CryptoNodeRetryPolicy.DEFAULT_METHODS);
+        /**
+         * Enables the hedged requests.
+         */
+        private Boolean hedging = false;
+        /**
+         * The latency quantile used as the hedge delay.
+         */
+        private Double hedgeQuantile = 0.95;
+        /**
+         * The minimum hedge delay.
+         */
+        private Duration minHedgeDelay = Duration.ofMillis(50);
+        /**
+         * The hedge delay used until enough latencies are recorded.
+         */
+        private Duration defaultHedgeDelay = Duration.ofMillis(500);
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(Integer maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public Set<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(Set<String> methods) {
+            this.methods = methods;
+        }
+
+        public Boolean getHedging() {
+            return hedging;
+        }
+
+        public void setHedging(Boolean hedging) {
+            this.hedging = hedging;
+        }
+
+        public Double getHedgeQuantile() {
+            return hedgeQuantile;
+        }
+
+        public void setHedgeQuantile(Double hedgeQuantile) {
+            this.hedgeQuantile = hedgeQuantile;
+        }
+
+        public Duration getMinHedgeDelay() {
+            return minHedgeDelay;
+        }
+
+        public void setMinHedgeDelay(Duration minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+        }
+
+        public Duration getDefaultHedgeDelay() {
+            return defaultHedgeDelay;
+        }
+
+        public void setDefaultHedgeDelay(Duration defaultHedgeDelay) {
+            this.defaultHedgeDelay = defaultHedgeDelay;
+        }
+    }
+
+    /**
+     * The JSON-RPC batching settings.
+     * The requests of a chain issued within window are sent as one JSON-RPC batch of up to maxSize requests.
+     */
+    public static class Batch {
+        /**
+         * Enables the batching.
+         */
+        private Boolean enabled = false;
+        /**
+         * The maximum number of requests of a batch.
+         */
+        private Integer maxSize = 20;
+        /**
+         * The time the first request of a batch waits for the other ones.
+         */
+        private Duration window = Duration.ofMillis(2);
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(Integer maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+    }
+
+    /**
+     * The JSON-RPC response cache settings.
+     * Only the responses bound to blocks at least confirmations blocks behind the chain head are cached.
+     * Identical concurrent requests are sent once.
+     */
+    public static class ResponseCache {
+        /**
+         * Enables the cache.
+         */
+        private Boolean enabled = false;
+        /**
+         * The number of blocks after which a block is considered final.
+         */
+        private Long confirmations = 64L;
+        /**
+         * The maximum estimated size of the cached responses, in bytes.
+         */
+        private Long maxBytes = 64L * 1024 * 1024;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Long getConfirmations() {
+            return confirmations;
+        }
+
+        public void setConfirmations(Long confirmations) {
+            this.confirmations = confirmations;
+        }
+
+        public Long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(Long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+
     /**
      * The Health class is responsible for managing health-related configurations and settings.
      * It provides methods to get and set various properties such as logging level, timeouts, and thread count.
@@ -246,20 +645,24 @@ public class CryptoNodeProperties {
          */
         private Duration firstDelay = Duration.ofSeconds(1);
         /**
-         * The threads variable represents the number of threads to be used for a specific operation.
-         * It is an Integer type variable and has a default value of 20.
-         *
-         * This variable is a member of the Health class, which is responsible for managing health-related configurations and settings.
-         * The Health class provides methods to get and set various properties such as logging level, timeouts, and thread count.
-         *
-         * Usage Example:
-         *     Health health = new Health();
-         *     health.setThreads(10);
-         *     Integer threadCount = health.getThreads(); // threadCount will be 10
-         *
-         * Note: The threads variable is private, so its value should be accessed or modified using the appropriate getter and setter methods provided by the Health class.
+         * Not used, the health checks are asynchronous and need no thread pool.
+         * Deprecated, kept for the compatibility of the existing configurations.
          */
         private Integer threads =20;
+        /**
+         * The maximum number of blocks a node may be behind the highest block of its chain reported by the other nodes.
+         * Lagging nodes are excluded from the balancing. Zero or negative to disable.
+         */
+        private Long maxBlockLag = 50L;
+
+        public Long getMaxBlockLag() {
+            return maxBlockLag;
+        }
+
+        public void setMaxBlockLag(Long maxBlockLag) {
+            this.maxBlockLag = maxBlockLag;
+        }
+
         public Duration getFirstDelay() {
             return firstDelay;
         }
@@ -283,10 +686,20 @@ public class CryptoNodeProperties {
             this.refreshTimeout = refreshTimeout;
         }
 
+        /**
+         * @return The configured value, not used.
+         * @deprecated Not used, the health checks are asynchronous.
+         */
+        @Deprecated
         public Integer getThreads() {
             return threads;
         }
 
+        /**
+         * @param threads Ignored.
+         * @deprecated Not used, the health checks are asynchronous.
+         */
+        @Deprecated
         public void setThreads(Integer threads) {
             this.threads = threads;
         }
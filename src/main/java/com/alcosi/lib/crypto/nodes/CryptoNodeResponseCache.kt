@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ObjectNode
+import org.web3j.protocol.ObjectMapperFactory
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A cache of the immutable JSON-RPC responses of the crypto nodes, keyed by the chain ID, the method and the params.
+ *
+ * Only finality-safe results are cached: the results of `eth_chainId` and `net_version`, and the results bound to a
+ * block at least [confirmations] blocks behind the chain head, e.g. `eth_getBlockByNumber` of an old block, the receipt
+ * of a confirmed transaction or `eth_call` at an old block. The chain head is set by [updateHead], from the median of
+ * the heights reported by the health checks, so a single node reporting a wrong height can not mark recent blocks as
+ * final; until it is known, only the unconditional results are cached.
+ * The least recently used entries are evicted when the estimated size of the cached responses exceeds [maxBytes].
+ *
+ * Identical concurrent requests of the [methods] are deduplicated: only the first one is sent, the other callers
+ * receive its response with their own ids.
+ *
+ * @property confirmations The number of blocks after which a block is considered final.
+ * @property maxBytes The maximum estimated size of all cached responses.
+ * @property maxEntryBytes The maximum size of one cached response, bigger responses are not cached.
+ * @property methods The methods that may be deduplicated and cached.
+ * @property objectMapper The ObjectMapper used to parse and write the JSON-RPC messages.
+ */
+open class CryptoNodeResponseCache(
+    val confirmations: Long,
+    val maxBytes: Long,
+    val maxEntryBytes: Long = maxBytes / 10,
+    val methods: Set<String> = CryptoNodeRetryPolicy.DEFAULT_METHODS,
+    val objectMapper: ObjectMapper = ObjectMapperFactory.getObjectMapper(),
+) {
+    /**
+     * The cache key.
+     *
+     * @property chainId The chain ID.
+     * @property method The JSON-RPC method.
+     * @property params The canonical JSON of the params.
+     */
+    data class Key(
+        val chainId: Int,
+        val method: String,
+        val params: String,
+    )
+
+    /**
+     * A node response.
+     *
+     * @property bytes The response body.
+     * @property node The parsed response, or null if it is not a JSON object.
+     */
+    protected class Response(
+        val bytes: ByteArray,
+        val node: ObjectNode?,
+    )
+
+    protected val lock = ReentrantLock()
+    protected val entries = LinkedHashMap<Key, Response>(16, 0.75f, true)
+    protected var usedBytes = 0L
+    protected val inFlight = ConcurrentHashMap<Key, CompletableFuture<Response?>>()
+    protected val heads = ConcurrentHashMap<Int, Long>()
+    protected val hits = AtomicLong()
+    protected val misses = AtomicLong()
+    protected val deduplicated = AtomicLong()
+    protected val evictions = AtomicLong()
+
+    /**
+     * Returns the cached response of the request, or joins the identical request in flight, or sends the request.
+     *
+     * @param chainId The chain ID.
+     * @param request The JSON-RPC request string.
+     * @param loader Sends the request.
+     * @return The future of the response body.
+     */
+    open fun getOrLoad(
+        chainId: Int,
+        request: String,
+        loader: (String) -> CompletableFuture<InputStream?>,
+    ): CompletableFuture<InputStream?> {
+        val call =
+            try {
+                objectMapper.readTree(request) as? ObjectNode
+            } catch (t: Throwable) {
+                null
+            }
+        val method = call?.get("method")?.asText()
+        if (call == null || method == null || method !in methods) {
+            return loader(request)
+        }
+        val id = call.get("id")
+        val params = call.get("params")
+        val key = Key(chainId, method, params?.toString() ?: "[]")
+        lock.withLock { entries[key] }?.let {
+            hits.incrementAndGet()
+            return CompletableFuture.completedFuture(toStream(it, id))
+        }
+        misses.incrementAndGet()
+        var leader = false
+        val shared = inFlight.computeIfAbsent(key) { CompletableFuture<Response?>().also { leader = true } }
+        if (leader) {
+            load(key, params, request, loader, shared)
+        } else {
+            deduplicated.incrementAndGet()
+        }
+        return shared.thenApply { response -> response?.let { toStream(it, id) } }
+    }
+
+    /**
+     * Sends the request, caches the finality-safe response and completes the callers waiting for it.
+     *
+     * @param key The cache key.
+     * @param params The request params.
+     * @param request The request string.
+     * @param loader Sends the request.
+     * @param shared The future of the callers.
+     */
+    protected open fun load(
+        key: Key,
+        params: JsonNode?,
+        request: String,
+        loader: (String) -> CompletableFuture<InputStream?>,
+        shared: CompletableFuture<Response?>,
+    ) {
+        val future =
+            try {
+                loader(request)
+            } catch (t: Throwable) {
+                CompletableFuture.failedFuture(t)
+            }
+        future.whenComplete { stream, error ->
+            inFlight.remove(key, shared)
+            if (error != null) {
+                shared.completeExceptionally(CryptoNodeRetryPolicy.unwrap(error))
+                return@whenComplete
+            }
+            try {
+                val response = stream?.use { it.readAllBytes() }?.let { Response(it, objectMapper.readTree(it) as? ObjectNode) }
+                if (response?.node != null) {
+                    observe(key, params, response)
+                }
+                shared.complete(response)
+            } catch (t: Throwable) {
+                shared.completeExceptionally(t)
+            }
+        }
+    }
+
+    /**
+     * Caches the finality-safe responses.
+     *
+     * @param key The cache key.
+     * @param params The request params.
+     * @param response The response.
+     */
+    protected open fun observe(
+        key: Key,
+        params: JsonNode?,
+        response: Response,
+    ) {
+        val node = response.node!!
+        if (node.hasNonNull("error") || !node.has("result")) {
+            return
+        }
+        val result = node.get("result")
+        if (response.bytes.size <= maxEntryBytes && isFinal(key.chainId, key.method, params, result)) {
+            put(key, response)
+        }
+    }
+
+    /**
+     * Checks whether the result of the call can not change anymore.
+     *
+     * @param chainId The chain ID.
+     * @param method The JSON-RPC method.
+     * @param params The request params.
+     * @param result The result.
+     * @return True if the result may be cached.
+     */
+    protected open fun isFinal(
+        chainId: Int,
+        method: String,
+        params: JsonNode?,
+        result: JsonNode,
+    ): Boolean =
+        when (method) {
+            "eth_chainId", "net_version" -> true
+            "eth_getBlockByNumber", "eth_getBlockTransactionCountByNumber" -> !result.isNull && isFinalBlock(chainId, params?.get(0))
+            "eth_getBlockByHash" -> !result.isNull && isFinalBlock(chainId, result.get("number"))
+            "eth_getTransactionByHash", "eth_getTransactionReceipt" -> !result.isNull && isFinalBlock(chainId, result.get("blockNumber"))
+            in BLOCK_PARAM_INDEXES -> {
+                val index = BLOCK_PARAM_INDEXES.getValue(method)
+                params != null && params.size() > index && isFinalBlock(chainId, params.get(index))
+            }
+            "eth_getLogs" -> {
+                val filter = params?.get(0)
+                filter != null && !filter.has("blockHash") && isFinalBlock(chainId, filter.get("fromBlock")) && isFinalBlock(chainId, filter.get("toBlock"))
+            }
+            else -> false
+        }
+
+    /**
+     * Checks whether the block is at least [confirmations] blocks behind the known chain head.
+     *
+     * @param chainId The chain ID.
+     * @param block The block number, tag, or EIP-1898 block object.
+     * @return True if the block is final.
+     */
+    protected open fun isFinalBlock(
+        chainId: Int,
+        block: JsonNode?,
+    ): Boolean {
+        val number = (if (block != null && block.isObject) block.get("blockNumber") else block)?.let { parseBlock(it) } ?: return false
+        val head = heads[chainId] ?: return false
+        return number <= head - confirmations
+    }
+
+    /**
+     * Parses a block number.
+     *
+     * @param block The hex block number or the `earliest` tag.
+     * @return The block number, or null if it is not a fixed block.
+     */
+    protected open fun parseBlock(block: JsonNode): Long? {
+        val text = block.asText()
+        return when {
+            text == "earliest" -> 0L
+            text.startsWith("0x") && text.length > 2 -> text.substring(2).toLongOrNull(16)
+            else -> null
+        }
+    }
+
+    /**
+     * Replaces the known head block of the chain.
+     *
+     * @param chainId The chain ID.
+     * @param block The head block number.
+     */
+    open fun updateHead(
+        chainId: Int,
+        block: Long,
+    ) {
+        heads[chainId] = block
+    }
+
+    /**
+     * Replaces the known head block of the chain with the consensus of the node heights: their median, the lower one
+     * for an even number of nodes. If no height is known, the head is reset and only the unconditional results are cached.
+     *
+     * @param chainId The chain ID.
+     * @param blocks The head block numbers reported by the nodes of the chain.
+     */
+    open fun updateHead(
+        chainId: Int,
+        blocks: Collection<Long>,
+    ) {
+        if (blocks.isEmpty()) {
+            heads.remove(chainId)
+            return
+        }
+        val sorted = blocks.sorted()
+        updateHead(chainId, sorted[(sorted.size - 1) / 2])
+    }
+
+    /**
+     * Returns the known head block of the chain, or null if it is unknown.
+     *
+     * @param chainId The chain ID.
+     */
+    open fun getHead(chainId: Int): Long? = heads[chainId]
+
+    /**
+     * Caches the response, evicting the least recently used entries if needed.
+     *
+     * @param key The cache key.
+     * @param response The response.
+     */
+    protected open fun put(
+        key: Key,
+        response: Response,
+    ) {
+        lock.withLock {
+            entries.put(key, response)?.let { usedBytes -= estimateSize(key, it) }
+            usedBytes += estimateSize(key, response)
+            val iterator = entries.entries.iterator()
+            while (usedBytes > maxBytes && iterator.hasNext()) {
+                val eldest = iterator.next()
+                iterator.remove()
+                usedBytes -= estimateSize(eldest.key, eldest.value)
+                evictions.incrementAndGet()
+            }
+        }
+    }
+
+    /**
+     * Estimates the memory used by an entry.
+     *
+     * @param key The cache key.
+     * @param response The response.
+     * @return The estimated size in bytes.
+     */
+    protected open fun estimateSize(
+        key: Key,
+        response: Response,
+    ): Long = response.bytes.size * 3L + (key.method.length + key.params.length) * 2L + ENTRY_OVERHEAD
+
+    /**
+     * Returns the response body with the id of the caller.
+     *
+     * @param response The response.
+     * @param id The request id.
+     * @return The response body stream.
+     */
+    protected open fun toStream(
+        response: Response,
+        id: JsonNode?,
+    ): InputStream {
+        val node = response.node
+        if (node == null || node.get("id") == id) {
+            return ByteArrayInputStream(response.bytes)
+        }
+        val copy = node.deepCopy()
+        copy.set<JsonNode>("id", id)
+        return ByteArrayInputStream(objectMapper.writeValueAsBytes(copy))
+    }
+
+    /**
+     * Removes all entries.
+     */
+    open fun invalidateAll() {
+        lock.withLock {
+            entries.clear()
+            usedBytes = 0
+        }
+    }
+
+    /**
+     * Returns the number of the cache hits.
+     */
+    open fun getHits(): Long = hits.get()
+
+    /**
+     * Returns the number of the cache misses, including the deduplicated requests.
+     */
+    open fun getMisses(): Long = misses.get()
+
+    /**
+     * Returns the number of the requests joined to an identical request in flight.
+     */
+    open fun getDeduplicated(): Long = deduplicated.get()
+
+    /**
+     * Returns the number of the evicted entries.
+     */
+    open fun getEvictions(): Long = evictions.get()
+
+    /**
+     * Returns the number of the cached responses.
+     */
+    open fun getSize(): Int = lock.withLock { entries.size }
+
+    /**
+     * Returns the estimated size of the cached responses.
+     */
+    open fun getBytes(): Long = lock.withLock { usedBytes }
+
+    /**
+     * The Companion object of the CryptoNodeResponseCache class.
+     */
+    companion object {
+        /**
+         * The estimated memory used by an entry besides the response and the key text.
+         */
+        const val ENTRY_OVERHEAD = 200L
+
+        /**
+         * The index of the block parameter of the state methods. Without it, the node uses `latest`, so the result is
+         * not final.
+         */
+        val BLOCK_PARAM_INDEXES: Map<String, Int> =
+            mapOf(
+                "eth_call" to 1,
+                "eth_getBalance" to 1,
+                "eth_getCode" to 1,
+                "eth_getTransactionCount" to 1,
+                "eth_getStorageAt" to 2,
+            )
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A streamed node response body reporting the outcome of the request when the body ends: success when it is read to
+ * the end or closed, failure when reading it fails, e.g. on a connection reset in the middle of the stream.
+ * The outcome is reported once.
+ *
+ * @param stream The live response body.
+ * @property onEnd Receives true on success and false on failure.
+ */
+open class CryptoNodeResponseStream(
+    stream: InputStream,
+    protected val onEnd: (Boolean) -> Unit,
+) : FilterInputStream(stream) {
+    protected val ended = AtomicBoolean()
+
+    override fun read(): Int {
+        val read =
+            try {
+                super.read()
+            } catch (e: IOException) {
+                fail(e)
+            }
+        if (read < 0) {
+            end(true)
+        }
+        return read
+    }
+
+    override fun read(
+        b: ByteArray,
+        off: Int,
+        len: Int,
+    ): Int {
+        val read =
+            try {
+                super.read(b, off, len)
+            } catch (e: IOException) {
+                fail(e)
+            }
+        if (read < 0) {
+            end(true)
+        }
+        return read
+    }
+
+    override fun skip(n: Long): Long =
+        try {
+            super.skip(n)
+        } catch (e: IOException) {
+            fail(e)
+        }
+
+    override fun available(): Int =
+        try {
+            super.available()
+        } catch (e: IOException) {
+            fail(e)
+        }
+
+    override fun close() {
+        try {
+            super.close()
+        } finally {
+            end(true)
+        }
+    }
+
+    /**
+     * Reports the failure and rethrows it.
+     *
+     * @param e The read failure.
+     */
+    protected open fun fail(e: IOException): Nothing {
+        end(false)
+        throw e
+    }
+
+    /**
+     * Reports the outcome, if it is not reported yet.
+     *
+     * @param success True if the body was read successfully.
+     */
+    protected open fun end(success: Boolean) {
+        if (ended.compareAndSet(false, true)) {
+            onEnd(success)
+        }
+    }
+}
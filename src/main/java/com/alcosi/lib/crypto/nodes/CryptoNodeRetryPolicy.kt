@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import org.web3j.protocol.exceptions.ClientConnectionException
+import java.io.IOException
+import java.time.Duration
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutionException
+import java.util.regex.Pattern
+
+/**
+ * The retry and hedging policy of the balanced JSON-RPC requests.
+ *
+ * Only the requests whose methods are all in [methods] are retried or hedged, others are sent once. A failed request
+ * is retried on another node, up to [maxAttempts] attempts in total. If [hedging] is enabled and the first attempt
+ * does not respond within the hedge delay, the same request is sent to another node and the first response wins.
+ * The hedge delay is the [hedgeQuantile] of the recent latencies of the chain, but at least [minHedgeDelay];
+ * [defaultHedgeDelay] is used until enough latencies are recorded.
+ *
+ * @property maxAttempts The maximum number of attempts of a request, including the hedged one.
+ * @property methods The idempotent JSON-RPC methods.
+ * @property hedging True to send the hedged requests.
+ * @property hedgeQuantile The latency quantile used as the hedge delay.
+ * @property minHedgeDelay The minimum hedge delay.
+ * @property defaultHedgeDelay The hedge delay used until enough latencies are recorded.
+ */
+open class CryptoNodeRetryPolicy(
+    val maxAttempts: Int = 2,
+    val methods: Set<String> = DEFAULT_METHODS,
+    val hedging: Boolean = false,
+    val hedgeQuantile: Double = 0.95,
+    val minHedgeDelay: Duration = Duration.ofMillis(50),
+    val defaultHedgeDelay: Duration = Duration.ofMillis(500),
+) {
+    /**
+     * Checks whether the request may be retried: all its methods must be idempotent.
+     *
+     * @param request The JSON-RPC request or batch.
+     * @return True if the request may be retried.
+     */
+    open fun isRetryable(request: String): Boolean {
+        if (maxAttempts <= 1) {
+            return false
+        }
+        val matcher = METHOD_PATTERN.matcher(request)
+        var found = false
+        while (matcher.find()) {
+            if (matcher.group(1) !in methods) {
+                return false
+            }
+            found = true
+        }
+        return found
+    }
+
+    /**
+     * Checks whether the failure of an attempt may be retried on another node.
+     *
+     * @param t The failure.
+     * @return True for the IO failures and the unsuccessful HTTP responses.
+     */
+    open fun isRetryable(t: Throwable): Boolean {
+        val cause = unwrap(t)
+        return cause is IOException || cause is ClientConnectionException
+    }
+
+    /**
+     * Returns the hedge delay.
+     *
+     * @param tracker The latency tracker of the chain.
+     * @return The delay, in nanoseconds.
+     */
+    open fun getHedgeDelayNanos(tracker: CryptoNodeLatencyTracker): Long {
+        val quantile = tracker.getQuantileNanos() ?: return defaultHedgeDelay.toNanos()
+        return maxOf(quantile, minHedgeDelay.toNanos())
+    }
+
+    /**
+     * The Companion object of the CryptoNodeRetryPolicy class.
+     */
+    companion object {
+        /**
+         * Matches the method names of a JSON-RPC request or batch.
+         */
+        val METHOD_PATTERN: Pattern = Pattern.compile("\"method\"\\s*:\\s*\"([^\"]+)\"")
+
+        /**
+         * The idempotent read methods retried by default.
+         */
+        @JvmField
+        val DEFAULT_METHODS: Set<String> =
+            setOf(
+                "eth_blockNumber",
+                "eth_call",
+                "eth_chainId",
+                "eth_estimateGas",
+                "eth_feeHistory",
+                "eth_gasPrice",
+                "eth_getBalance",
+                "eth_getBlockByHash",
+                "eth_getBlockByNumber",
+                "eth_getBlockTransactionCountByNumber",
+                "eth_getCode",
+                "eth_getLogs",
+                "eth_getStorageAt",
+                "eth_getTransactionByHash",
+                "eth_getTransactionCount",
+                "eth_getTransactionReceipt",
+                "eth_maxPriorityFeePerGas",
+                "net_version",
+                "web3_clientVersion",
+            )
+
+        /**
+         * Unwraps the future completion exceptions.
+         *
+         * @param t The exception.
+         * @return The cause of the completion exception, or the exception itself.
+         */
+        @JvmStatic
+        fun unwrap(t: Throwable): Throwable = if ((t is CompletionException || t is ExecutionException) && t.cause != null) unwrap(t.cause!!) else t
+    }
+}
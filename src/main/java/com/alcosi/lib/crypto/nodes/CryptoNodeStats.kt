@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.net.URL
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.exp
+
+/**
+ * The runtime statistics of a crypto node, fed by the outcomes of the balanced requests.
+ *
+ * The latency is an exponentially weighted moving average decaying with [decay]: the older the previous samples are,
+ * the less they weigh. Failed requests are recorded with at least [errorPenalty] latency. The error rate is a moving
+ * average with the same decay. All updates are lock-free.
+ * The outcomes also feed the [circuitBreaker], ejecting a failing node without waiting for the next health check.
+ * The block lag of the node is updated by the health checks. The lag and the live error rate make the [getPenalty]
+ * used in the node scores of the balancing strategies.
+ *
+ * @property url The node URL.
+ * @param initialLatency The initial latency, usually the health check time.
+ * @property decay The EWMA decay time.
+ * @property errorPenalty The minimal latency recorded for failed requests.
+ * @property circuitBreaker The node circuit breaker, or null if the passive health tracking is disabled.
+ * @property lagWeight The weight of a block of lag in the node penalty.
+ */
+open class CryptoNodeStats(
+    val url: URL,
+    initialLatency: Duration,
+    val decay: Duration = Duration.ofSeconds(10),
+    val errorPenalty: Duration = Duration.ofSeconds(1),
+    val circuitBreaker: CryptoNodeCircuitBreaker? = null,
+    val lagWeight: Double = 0.0,
+) {
+    protected val blockLag = AtomicLong()
+    protected val outstanding = AtomicInteger()
+    protected val ewmaBits = AtomicLong(initialLatency.toNanos().toDouble().toRawBits())
+    protected val errorRateBits = AtomicLong(0.0.toRawBits())
+    protected val lastUpdate = AtomicLong(System.nanoTime())
+
+    /**
+     * Returns the number of the requests in flight.
+     */
+    open fun getOutstanding(): Int = outstanding.get()
+
+    /**
+     * Returns the moving average latency, in nanoseconds.
+     */
+    open fun getEwmaNanos(): Double = Double.fromBits(ewmaBits.get())
+
+    /**
+     * Returns the moving average error rate, from 0 to 1.
+     */
+    open fun getErrorRate(): Double = Double.fromBits(errorRateBits.get())
+
+    /**
+     * Returns the moving average success rate, at least [MIN_SUCCESS_RATE], so failing nodes keep a small chance.
+     */
+    open fun getSuccessRate(): Double = (1 - getErrorRate()).coerceAtLeast(MIN_SUCCESS_RATE)
+
+    /**
+     * Returns the block lag reported by the last health check.
+     */
+    open fun getLag(): Long = blockLag.get()
+
+    /**
+     * Sets the block lag reported by a health check.
+     *
+     * @param lag The number of blocks the node is behind the chain head.
+     */
+    open fun setLag(lag: Long) {
+        blockLag.set(lag.coerceAtLeast(0))
+    }
+
+    /**
+     * Returns the multiplier of the node score, one for a synced node without errors, higher is worse:
+     * `1 + lag * lagWeight` divided by the success rate.
+     */
+    open fun getPenalty(): Double = (1 + getLag() * lagWeight) / getSuccessRate()
+
+    /**
+     * Checks whether the circuit breaker allows a request to the node. Takes a probe permit of a half-open circuit.
+     *
+     * @return True if the request is allowed.
+     */
+    open fun tryAcquire(): Boolean = circuitBreaker?.tryAcquire() ?: true
+
+    /**
+     * Registers the start of a request.
+     *
+     * @return The start time, to be passed to [finish].
+     */
+    open fun start(): Long {
+        outstanding.incrementAndGet()
+        return System.nanoTime()
+    }
+
+    /**
+     * Registers the end of a request started with [start].
+     *
+     * @param start The start time.
+     * @param success True if the request succeeded.
+     */
+    open fun finish(
+        start: Long,
+        success: Boolean,
+    ) {
+        outstanding.decrementAndGet()
+        if (success) {
+            circuitBreaker?.onSuccess()
+        } else {
+            circuitBreaker?.onFailure()
+        }
+        val now = System.nanoTime()
+        val latency = (now - start).toDouble()
+        record(if (success) latency else maxOf(latency, errorPenalty.toNanos().toDouble()), !success, now)
+    }
+
+    /**
+     * Registers a request started with [start] and cancelled before its end, e.g. a losing hedged request.
+     * The request is not counted as a failure, and the half-open circuit probe permit it may hold is returned.
+     */
+    open fun cancel() {
+        outstanding.decrementAndGet()
+        circuitBreaker?.onCancel()
+    }
+
+    /**
+     * Adds the request outcome to the moving averages.
+     *
+     * @param latencyNanos The latency, in nanoseconds.
+     * @param failed True if the request failed.
+     * @param now The current System.nanoTime.
+     */
+    protected open fun record(
+        latencyNanos: Double,
+        failed: Boolean,
+        now: Long,
+    ) {
+        val elapsed = (now - lastUpdate.getAndSet(now)).coerceAtLeast(0)
+        val weight = exp(-elapsed.toDouble() / decay.toNanos())
+        update(ewmaBits, latencyNanos, weight)
+        update(errorRateBits, if (failed) 1.0 else 0.0, weight)
+    }
+
+    /**
+     * Adds the sample to a moving average.
+     *
+     * @param average The bits of the moving average.
+     * @param sample The sample.
+     * @param weight The weight of the previous average.
+     */
+    protected open fun update(
+        average: AtomicLong,
+        sample: Double,
+        weight: Double,
+    ) {
+        while (true) {
+            val bits = average.get()
+            val updated = Double.fromBits(bits) * weight + sample * (1 - weight)
+            if (average.compareAndSet(bits, updated.toRawBits())) {
+                return
+            }
+        }
+    }
+
+    override fun toString(): String = "$url:${(getEwmaNanos() / 1_000_000).toLong()} ms, ${getOutstanding()} outstanding"
+
+    /**
+     * The Companion object of the CryptoNodeStats class.
+     */
+    companion object {
+        /**
+         * The lowest success rate used in the node scores.
+         */
+        const val MIN_SUCCESS_RATE = 0.01
+    }
+}
@@ -17,11 +17,14 @@
 
 package com.alcosi.lib.crypto.nodes
 
-import com.alcosi.lib.executors.NormalThreadPoolExecutor
 import com.alcosi.lib.filters.servlet.HeaderHelper
+import com.alcosi.lib.filters.servlet.ThreadContext
+import com.alcosi.lib.logging.http.okhttp.OKThreadContextInterceptor
 import com.alcosi.lib.logging.http.okhttp.OKLoggingInterceptor
+import com.alcosi.lib.logging.http.okhttp.newOkHttpClientBuilder
 import io.github.breninsul.okhttp.logging.OkHttpLoggerConfiguration
 import okhttp3.OkHttpClient
+import org.springframework.beans.factory.ObjectProvider
 import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.boot.autoconfigure.AutoConfiguration
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass
@@ -33,8 +36,8 @@ import org.springframework.scheduling.annotation.Scheduled
 import org.web3j.protocol.admin.Admin
 import org.web3j.tx.gas.ContractGasProvider
 import org.web3j.tx.gas.DefaultGasProvider
+import java.net.URL
 import java.time.Duration
-import java.util.concurrent.ExecutorService
 import java.util.concurrent.ScheduledThreadPoolExecutor
 
 /**
@@ -64,14 +67,19 @@ class CryptoNodesConfig {
      *
      * @param cryptoNodeProperties The instance of CryptoNodeProperties.
      * @param headerHelper The instance of HeaderHelper.
+     * @param rootClient The shared root OkHttpClient, available only if it is enabled.
+     * @param threadContext The ThreadContext propagated into asynchronous calls.
      * @return The created OkHttpClient with configured timeouts and logging interceptor.
      */
     @Bean("cryptoNodeHttpClient")
     fun createOkHttpClient(
         cryptoNodeProperties: CryptoNodeProperties,
         headerHelper: HeaderHelper,
+        @Qualifier("okHttpRootClient") rootClient: ObjectProvider<OkHttpClient>,
+        threadContext: ObjectProvider<ThreadContext>,
     ): OkHttpClient {
-        val builder = OkHttpClient.Builder()
+        val builder = newOkHttpClientBuilder(rootClient.ifAvailable, cryptoNodeProperties.connection)
+        threadContext.ifAvailable?.let { builder.addInterceptor(OKThreadContextInterceptor(it)) }
         configureTimeouts(
             builder,
             OKLoggingInterceptor(cryptoNodeProperties.logging, headerHelper),
@@ -107,37 +115,26 @@ class CryptoNodesConfig {
     @ConditionalOnMissingBean(ContractGasProvider::class)
     fun gasProvider(): ContractGasProvider = DefaultGasProvider()
 
-    /**
-     * Retrieves a HealthCheckerNormalThreadPoolExecutor instance with the given CryptoNodeProperties.
-     *
-     * @param cryptoNodeProperties The properties related to the crypto node services.
-     *
-     * @return The HealthCheckerNormalThreadPoolExecutor instance.
-     */
-    @Bean("healthCheckerNormalThreadPoolExecutor")
-    fun getHealthCheckerNormalThreadPoolExecutor(cryptoNodeProperties: CryptoNodeProperties): ExecutorService = NormalThreadPoolExecutor.build(cryptoNodeProperties.health.threads, "crypto-health-check")
-
     /**
      * Retrieves the CryptoNodeHealthActualizer instance.
      *
      * @param cryptoNodeProperties The properties related to the crypto node services.
-     * @param executor The executor service for running health check tasks.
      * @param httpClient The OkHttpClient for making HTTP requests.
+     * @param threadContext The ThreadContext propagated into asynchronous calls.
      * @return The CryptoNodeHealthActualizer instance
      */
     @Bean
     @ConditionalOnMissingBean(CryptoNodeHealthActualizer::class)
     fun getCryptoNodeHealthActualizer(
         cryptoNodeProperties: CryptoNodeProperties,
-        @Qualifier("healthCheckerNormalThreadPoolExecutor") executor: ExecutorService,
         @Qualifier("cryptoNodeHttpClient") httpClient: OkHttpClient,
+        threadContext: ObjectProvider<ThreadContext>,
     ): CryptoNodeHealthActualizer =
         CryptoNodeHealthActualizer(
             cryptoNodeProperties.health.nodesLoggingLevel.javaLevel,
             cryptoNodeProperties,
-            executor,
-            CryptoNodeHealthChecker(httpClient),
-            cryptoNodeProperties.health.refreshTimeout,
+            cryptoNodeHealthChecker = CryptoNodeHealthChecker(httpClient, threadContext.ifAvailable),
+            maxRefreshTimeout = cryptoNodeProperties.health.refreshTimeout,
         )
 
     /**
@@ -150,12 +147,37 @@ class CryptoNodesConfig {
     @ConditionalOnMissingBean(ContractGasProvider::class)
     fun getDefaultGasProvider(): ContractGasProvider = DefaultGasProvider()
 
+    /**
+     * Creates the cache of the immutable JSON-RPC responses, shared by all chains.
+     * The median chain heads reported by the healthy nodes are passed to the cache.
+     *
+     * @param properties The properties for Crypto Nodes.
+     * @param cryptoNodesHealthActualizer The CryptoNodeHealthActualizer instance.
+     * @return The CryptoNodeResponseCache instance.
+     */
+    @Bean
+    @ConditionalOnMissingBean(CryptoNodeResponseCache::class)
+    @ConditionalOnProperty(prefix = "common-lib.crypto.node.response-cache", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+    fun getCryptoNodeResponseCache(
+        properties: CryptoNodeProperties,
+        cryptoNodesHealthActualizer: CryptoNodeHealthActualizer,
+    ): CryptoNodeResponseCache {
+        val cache = properties.responseCache
+        val responseCache = CryptoNodeResponseCache(cache.confirmations, cache.maxBytes)
+        cryptoNodesHealthActualizer.addHealthListener { statuses ->
+            statuses.forEach { (chainId, list) -> responseCache.updateHead(chainId, list.filter { it.status }.mapNotNull { it.blockNumber }) }
+        }
+        return responseCache
+    }
+
     /**
      * Generates the configuration for Crypto Nodes admin service.
      *
      * @param properties The properties for Crypto Nodes.
      * @param httpClient The OkHttpClient for making HTTP requests.
      * @param cryptoNodesLoadBalancer The load balancer for selecting the actual URL of the Crypto Node.
+     * @param threadContext The ThreadContext propagated into asynchronous calls.
+     * @param responseCache The JSON-RPC response cache provider.
      * @return The holder for the admin services with the generated configuration.
      */
     @Bean
@@ -164,14 +186,36 @@ class CryptoNodesConfig {
         properties: CryptoNodeProperties,
         @Qualifier("cryptoNodeHttpClient") httpClient: OkHttpClient,
         cryptoNodesLoadBalancer: CryptoNodesLoadBalancer,
+        threadContext: ObjectProvider<ThreadContext>,
+        responseCache: ObjectProvider<CryptoNodeResponseCache>,
     ): CryptoNodesAdminServiceHolder {
         val map: MutableMap<Int, Admin> = HashMap()
+        val retry = properties.retry
+        val retryPolicy =
+            if (retry.enabled) {
+                CryptoNodeRetryPolicy(retry.maxAttempts, retry.methods, retry.hedging, retry.hedgeQuantile, retry.minHedgeDelay, retry.defaultHedgeDelay)
+            } else {
+                null
+            }
+        val batch = properties.batch
+        val batchSize = if (batch.enabled) batch.maxSize else 0
+        val cache = responseCache.ifAvailable
         val url = properties.url ?: emptyMap()
         url
             .forEach { (key, value) ->
                 map[key] =
                     Admin.build(
-                        CryptoNodeLoadBalancedHttpService(key, cryptoNodesLoadBalancer, httpClient),
+                        CryptoNodeLoadBalancedHttpService(
+                            key,
+                            cryptoNodesLoadBalancer,
+                            httpClient,
+                            threadContext.ifAvailable,
+                            retryPolicy,
+                            batchSize,
+                            batch.window,
+                            cache,
+                            properties.streamResponses,
+                        ),
                         properties.poolingInterval.toMillis(),
                         ScheduledThreadPoolExecutor(
                             properties.threads!!,
@@ -193,5 +237,32 @@ class CryptoNodesConfig {
     fun getCryptoNodesLoadBalancer(
         cryptoNodesHealthActualizer: CryptoNodeHealthActualizer,
         properties: CryptoNodeProperties,
-    ): CryptoNodesLoadBalancer = CryptoNodesLoadBalancer(cryptoNodesHealthActualizer, properties.balancerTimeout)
+    ): CryptoNodesLoadBalancer {
+        val breaker = properties.circuitBreaker
+        val circuitBreakerFactory =
+            if (breaker.enabled) {
+                { url: URL ->
+                    CryptoNodeCircuitBreaker(
+                        url.host,
+                        breaker.window,
+                        breaker.buckets,
+                        breaker.failureRateThreshold,
+                        breaker.minimumRequests,
+                        breaker.consecutiveFailures,
+                        breaker.openDuration,
+                        breaker.halfOpenProbes,
+                    )
+                }
+            } else {
+                null
+            }
+        return CryptoNodesLoadBalancer(
+            cryptoNodesHealthActualizer,
+            properties.balancerTimeout,
+            properties.balancingStrategy.create(),
+            properties.ewmaDecay,
+            properties.lagWeight,
+            circuitBreakerFactory,
+        )
+    }
 }
@@ -15,40 +15,72 @@
  *
  */
 
-@file:Suppress("ktlint:standard:no-wildcard-imports")
-
 package com.alcosi.lib.crypto.nodes
 
+import com.alcosi.lib.crypto.nodes.CryptoNodeHealthActualizer.ServiceStatus
 import com.alcosi.lib.logging.annotations.LogTime
 import java.net.URL
 import java.time.Duration
-import java.util.*
-import java.util.concurrent.Callable
-import java.util.concurrent.Executors
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Future
+import java.util.concurrent.ThreadLocalRandom
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.TimeoutException
+import java.util.logging.Level
 import java.util.logging.Logger
 
 /**
  * CryptoNodesLoadBalancer is a class that provides load balancing functionality for crypto node services.
  *
+ * Selection is synchronous and lock-free: on every health update an immutable [CryptoChainNodes] snapshot is built for
+ * each chain and the snapshots are published as one map, the [strategy] picks a node of the snapshot. Nodes are weighted
+ * by their health check time and block lag (see [score]); the block lag is also passed to the [CryptoNodeStats] of the
+ * node, which the strategies combine with the live error rate. The [CryptoNodeStats] of a node survive the health
+ * updates, so latency-aware strategies keep the request history of the node.
+ *
+ * Nodes ejected by their [CryptoNodeCircuitBreaker] are skipped: if the strategy picks one, the first available node
+ * of the chain is used instead. If all the nodes of the chain are ejected, the strategy pick is used anyway.
+ *
  * @property cryptoNodesHealthActualizer The CryptoNodeHealthActualizer instance used for retrieving the health status of crypto node services.
- * @property balancerTimeout The timeout duration for the load balancer.
+ * @property balancerTimeout The maximum time to wait for a healthy node of the chain.
+ * @property strategy The node picking strategy.
+ * @property ewmaDecay The decay time of the node latency moving average.
+ * @property lagWeight The weight of a block of lag in the node score.
+ * @property circuitBreakerFactory Creates the circuit breaker of a node URL, or null to disable the passive health tracking.
  * @property logger The logger instance for logging events and messages.
- * @property random The Random instance for generating random numbers.
- * @property sleepTime The sleep duration for waiting between attempts to get a valid URL.
- * @property executor The ExecutorService instance for running tasks.
  */
 open class CryptoNodesLoadBalancer(
     val cryptoNodesHealthActualizer: CryptoNodeHealthActualizer,
     val balancerTimeout: Duration,
+    val strategy: CryptoNodeBalancingStrategy = CryptoNodeBalancingStrategy.WeightedRandom(),
+    val ewmaDecay: Duration = Duration.ofSeconds(10),
+    val lagWeight: Double = 0.1,
+    val circuitBreakerFactory: ((URL) -> CryptoNodeCircuitBreaker)? = null,
 ) {
     val logger = Logger.getLogger(this.javaClass.name)
 
-    val random = Random()
-    val sleepTime = Duration.ofMillis(3000)
-    protected val executor = Executors.newSingleThreadExecutor()
+    /**
+     * The node statistics by URL, shared by all the snapshots.
+     */
+    protected val stats: MutableMap<URL, CryptoNodeStats> = ConcurrentHashMap()
+
+    /**
+     * The selection snapshots by chain ID, replaced as a whole on every health update.
+     */
+    @Volatile
+    protected var chains: Map<Int, CryptoChainNodes> = mapOf()
+
+    /**
+     * Completed and replaced on every health update, to wake up the callers waiting for a healthy node.
+     */
+    @Volatile
+    protected var nextUpdate = CompletableFuture<Unit>()
+
+    init {
+        cryptoNodesHealthActualizer.addHealthListener { update(it) }
+        update(cryptoNodesHealthActualizer.serviceStatuses)
+    }
 
     /**
      * Represents a service chance that consists of a URL, chance, and range.
@@ -57,7 +89,7 @@ open class CryptoNodesLoadBalancer(
      * @property chance The chance of the service being selected.
      * @property range The range of possible values for selection.
      */
-
+    @Deprecated("The selection uses WeightedAliasTable")
     data class ServiceChance(
         val url: URL,
         val chance: Long,
@@ -65,55 +97,160 @@ open class CryptoNodesLoadBalancer(
     )
 
     /**
-     * Retrieves the actual URL for the given chain ID with an optional timeout.
+     * Retrieves the actual URL for the given chain ID.
      *
      * @param chainId The chain ID for which to retrieve the actual URL.
-     * @param timeout The timeout duration in milliseconds. Default value is 0.
-     * @return A Future object representing the result of the URL retrieval.
+     * @param timeout Ignored, the waiting is bounded by [balancerTimeout].
+     * @return A completed Future with the URL.
+     * @throws IllegalStateException if no healthy node is available within [balancerTimeout].
      */
     @LogTime
+    @Deprecated("The selection is synchronous", ReplaceWith("getUrl(chainId)"))
     open fun getActualUrl(
         chainId: Int,
         timeout: Long = 0,
-    ): Future<URL> = executor.submit(Callable { internal(chainId, timeout) })
+    ): Future<URL> = CompletableFuture.completedFuture(getUrl(chainId))
 
     /**
-     * Selects an internal URL for a given chain ID based on the health status and timeouts of available URLs.
+     * Picks the URL of a healthy node of the chain. Waits for a health update if the chain has no healthy nodes.
      *
-     * @param chainId The ID of the chain for which to select an internal URL.
-     * @param timeout The timeout value in milliseconds. Default is 0.
-     * @return The selected internal URL for the specified chain ID.
-     * @throws IllegalStateException if no valid URL is available within the timeout period.
+     * @param chainId The chain ID.
+     * @return The picked URL.
+     * @throws IllegalStateException if no healthy node is available within [balancerTimeout].
      */
-    protected open fun internal(
+    open fun getUrl(chainId: Int): URL = pickNode(chainId).url
+
+    /**
+     * Picks a healthy node of the chain with the [strategy]. Waits for a health update if the chain has no healthy nodes.
+     * The caller should report the request outcome with [CryptoNodeStats.start] and [CryptoNodeStats.finish].
+     *
+     * @param chainId The chain ID.
+     * @param excluded The nodes to avoid, e.g. the nodes already tried by a retried request. Used only if other nodes are available.
+     * @return The picked node.
+     * @throws IllegalStateException if no healthy node is available within [balancerTimeout].
+     */
+    open fun pickNode(
         chainId: Int,
-        timeout: Long = 0,
-    ): URL {
-        val time = System.currentTimeMillis()
-        val list = cryptoNodesHealthActualizer.serviceStatuses[chainId]?.filter { it.status }.orEmpty()
-        if (list.isEmpty()) {
-            val sleepMillis = sleepTime.toMillis()
-            if (timeout + sleepMillis < balancerTimeout.toMillis()) {
-                logger.info("No valid url for chain $chainId. Waiting for it")
-                TimeUnit.MILLISECONDS.sleep(sleepMillis)
-                return internal(chainId, System.currentTimeMillis() - time)
-            } else {
+        excluded: Collection<CryptoNodeStats> = listOf(),
+    ): CryptoNodeStats {
+        chains[chainId]?.let { return pick(it, excluded) }
+        val deadline = System.nanoTime() + balancerTimeout.toNanos()
+        logger.info("No valid url for chain $chainId. Waiting for it")
+        while (true) {
+            val signal = nextUpdate
+            chains[chainId]?.let { return pick(it, excluded) }
+            val remaining = deadline - System.nanoTime()
+            if (remaining <= 0) {
                 throw IllegalStateException("Can't get actual url. Timeout.")
             }
+            try {
+                signal.get(remaining, TimeUnit.NANOSECONDS)
+            } catch (_: TimeoutException) {
+            }
         }
-        if (list.size == 1) {
-            return list.first().url
+    }
+
+    /**
+     * Picks a node of the chain with the [strategy], skipping the excluded nodes and the nodes rejected by their circuit breakers.
+     *
+     * @param chain The healthy nodes of the chain.
+     * @param excluded The nodes to avoid.
+     * @return The picked node.
+     */
+    protected open fun pick(
+        chain: CryptoChainNodes,
+        excluded: Collection<CryptoNodeStats>,
+    ): CryptoNodeStats {
+        val picked = strategy.pick(chain)
+        if (picked !in excluded && picked.tryAcquire()) {
+            return picked
         }
-        val timeoutMax = list.maxOf { it.timeout }
-        val atomicPrevRange = AtomicLong(0)
-        val prepared =
-            list.map {
-                val chance = timeoutMax * 2 - it.timeout
-                val downRange = atomicPrevRange.getAndAdd(chance)
-                val range = downRange.rangeTo(downRange + chance)
-                return@map ServiceChance(it.url, chance, range)
+        val nodes = chain.nodes
+        val offset = if (nodes.size > 1) ThreadLocalRandom.current().nextInt(nodes.size) else 0
+        for (i in nodes.indices) {
+            val node = nodes[(offset + i) % nodes.size]
+            if (node !== picked && node !in excluded && node.tryAcquire()) {
+                return node
             }
-        val picked = random.nextLong(atomicPrevRange.get() - 1)
-        return prepared.first { it.range.contains(picked) }.url
+        }
+        logger.log(Level.FINE, "All nodes of chain ${chain.chainId} are excluded or ejected")
+        return picked
+    }
+
+    /**
+     * Rebuilds the selection snapshots from the health statuses and wakes up the waiting callers.
+     *
+     * @param statuses The health statuses by chain ID.
+     */
+    protected open fun update(statuses: Map<Int, List<ServiceStatus>>) {
+        val built = HashMap<Int, CryptoChainNodes>()
+        statuses.forEach { (chainId, list) -> createChainNodes(chainId, list.filter { it.status })?.let { built[chainId] = it } }
+        chains = built
+        val signal = nextUpdate
+        nextUpdate = CompletableFuture()
+        signal.complete(Unit)
+    }
+
+    /**
+     * Creates the selection snapshot of the chain. The weights of the nodes are their [score]s.
+     *
+     * @param chainId The chain ID.
+     * @param list The healthy nodes of the chain.
+     * @return The snapshot, or null if there are no healthy nodes.
+     */
+    protected open fun createChainNodes(
+        chainId: Int,
+        list: List<ServiceStatus>,
+    ): CryptoChainNodes? {
+        if (list.isEmpty()) {
+            return null
+        }
+        val timeoutMax = list.maxOf { it.timeout }
+        val nodes = list.map { status -> stats.computeIfAbsent(status.url) { createStats(status) }.also { it.setLag(status.lag) } }
+        return CryptoChainNodes(chainId, nodes, DoubleArray(list.size) { score(list[it], nodes[it], timeoutMax) })
+    }
+
+    /**
+     * Returns the node weight. The health check time gives `timeoutMax * 2 - timeout`, which is divided by
+     * `1 + lag * lagWeight`. The error rate is not part of the weight, the strategies read the live one.
+     *
+     * @param status The node health status.
+     * @param stats The node statistics.
+     * @param timeoutMax The longest health check time of the chain.
+     * @return The node weight.
+     */
+    protected open fun score(
+        status: ServiceStatus,
+        stats: CryptoNodeStats,
+        timeoutMax: Long,
+    ): Double {
+        val latency = (timeoutMax * 2 - status.timeout).toDouble()
+        val lag = 1 + stats.getLag() * lagWeight
+        return latency / lag
+    }
+
+    /**
+     * Creates the statistics of a new node, the health check time is the initial latency.
+     *
+     * @param status The node health status.
+     * @return The node statistics.
+     */
+    protected open fun createStats(status: ServiceStatus): CryptoNodeStats =
+        CryptoNodeStats(
+            status.url,
+            Duration.ofMillis(status.timeout),
+            ewmaDecay,
+            circuitBreaker = circuitBreakerFactory?.invoke(status.url),
+            lagWeight = lagWeight,
+        )
+
+    /**
+     * The Companion object of the CryptoNodesLoadBalancer class.
+     */
+    companion object {
+        /**
+         * The lowest success rate used in the node scores, so failing nodes keep a small chance.
+         */
+        const val MIN_SUCCESS_RATE = CryptoNodeStats.MIN_SUCCESS_RATE
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * An immutable weighted random selection table (Walker/Vose alias method).
+ *
+ * The table is built in O(n) and every [pick] takes O(1) without locks or allocations, so one instance can be
+ * shared by any number of threads and replaced as a whole when the weights change.
+ *
+ * @param T The type of the items.
+ * @property items The items.
+ * @param weights The non-negative item weights. If all weights are zero, the items are picked uniformly.
+ */
+open class WeightedAliasTable<T>(
+    val items: List<T>,
+    weights: DoubleArray,
+) {
+    protected val probability = DoubleArray(items.size)
+    protected val alias = IntArray(items.size)
+
+    init {
+        require(items.isNotEmpty()) { "No items" }
+        require(items.size == weights.size) { "Expected ${items.size} weights, got ${weights.size}" }
+        val n = items.size
+        val total = weights.sum()
+        val scaled = DoubleArray(n) { if (total > 0) weights[it] * n / total else 1.0 }
+        val small = IntArray(n)
+        val large = IntArray(n)
+        var smallSize = 0
+        var largeSize = 0
+        for (i in 0 until n) {
+            if (scaled[i] < 1.0) small[smallSize++] = i else large[largeSize++] = i
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            val less = small[--smallSize]
+            val more = large[--largeSize]
+            probability[less] = scaled[less]
+            alias[less] = more
+            scaled[more] = scaled[more] + scaled[less] - 1.0
+            if (scaled[more] < 1.0) small[smallSize++] = more else large[largeSize++] = more
+        }
+        while (largeSize > 0) {
+            probability[large[--largeSize]] = 1.0
+        }
+        while (smallSize > 0) {
+            probability[small[--smallSize]] = 1.0
+        }
+    }
+
+    /**
+     * Picks a random item with the probability proportional to its weight.
+     *
+     * @param random The random number generator.
+     * @return The picked item.
+     */
+    open fun pick(random: ThreadLocalRandom = ThreadLocalRandom.current()): T {
+        val column = random.nextInt(items.size)
+        return items[if (random.nextDouble() < probability[column]) column else alias[column]]
+    }
+}
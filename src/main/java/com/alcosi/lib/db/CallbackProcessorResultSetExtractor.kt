@@ -37,5 +37,12 @@ data class CallbackProcessorResultSetExtractor<T>(
      * Extracts data from the provided ResultSet using the specified extractor.
      *
      * @param rs The ResultSet from which the data will*/
-    override fun extractData(rs: ResultSet): T? = extractor.extractData(LoggingResultSet(callbacks, rs))
+    override fun extractData(rs: ResultSet): T? {
+        val loggingResultSet = LoggingResultSet(callbacks, rs)
+        try {
+            return extractor.extractData(loggingResultSet)
+        } finally {
+            loggingResultSet.end()
+        }
+    }
 }
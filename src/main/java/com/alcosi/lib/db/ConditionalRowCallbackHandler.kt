@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.jdbc.core.RowCallbackHandler
+import java.sql.ResultSet
+
+/**
+ * A RowCallbackHandler that can be switched off, e.g. by its logging level.
+ *
+ * LoggingJdbcTemplate does not apply inactive handlers, and if none of the handlers is active it does not wrap
+ * the ResultSet at all, so disabled row logging costs nothing per row.
+ */
+interface ConditionalRowCallbackHandler : RowCallbackHandler {
+    /**
+     * Returns true if the handler has to be applied to the rows of the current query.
+     */
+    fun isActive(): Boolean
+
+    /**
+     * Called once when the wrapped ResultSet is exhausted or its extraction is finished.
+     *
+     * @param rs The original ResultSet, the same instance that was passed to [processRow].
+     */
+    fun onResultSetEnd(rs: ResultSet) {}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.beans.factory.ObjectProvider
+import org.springframework.beans.factory.config.BeanPostProcessor
+import org.springframework.boot.jdbc.metadata.CompositeDataSourcePoolMetadataProvider
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadataProvider
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.sql.DataSource
+
+/**
+ * Wraps every DataSource bean into a [ConnectionGateDataSource], so that the JdbcTemplate, the transaction managers
+ * and all other users of the bean obtain their connections through the gate.
+ *
+ * The dependencies are resolved lazily, when the first DataSource is initialized.
+ *
+ * @property properties The JdbcTemplateProperties provider, to retrieve the connection gate settings.
+ * @property poolMetadataProviders The pool metadata providers, used to size the gate.
+ * @property listeners The listeners of the connection gate waits.
+ */
+open class ConnectionGateBeanPostProcessor(
+    protected val properties: ObjectProvider<JdbcTemplateProperties>,
+    protected val poolMetadataProviders: ObjectProvider<DataSourcePoolMetadataProvider>,
+    protected val listeners: ObjectProvider<ConnectionGateListener>,
+) : BeanPostProcessor {
+    override fun postProcessAfterInitialization(
+        bean: Any,
+        beanName: String,
+    ): Any {
+        if (bean !is DataSource || bean is ConnectionGateDataSource) {
+            return bean
+        }
+        return wrap(bean, beanName)
+    }
+
+    /**
+     * Wraps the DataSource into the gate.
+     *
+     * @param dataSource The original DataSource.
+     * @param beanName The DataSource bean name.
+     * @return The gated DataSource.
+     */
+    protected open fun wrap(
+        dataSource: DataSource,
+        beanName: String,
+    ): ConnectionGateDataSource {
+        val gate = properties.getObject().connectionGate
+        val permits = if (gate.permits > 0) gate.permits else getPoolSize(dataSource) ?: JdbcTemplateConfig.DEFAULT_GATE_PERMITS
+        logger.log(Level.INFO, "DataSource $beanName is gated with $permits connection permits")
+        return ConnectionGateDataSource(dataSource, permits, gate.fair, gate.acquireTimeout, listeners.orderedStream().toList())
+    }
+
+    /**
+     * Returns the maximum size of the connection pool of the DataSource.
+     *
+     * @param dataSource The DataSource.
+     * @return The maximum pool size, or null if it is unknown.
+     */
+    protected open fun getPoolSize(dataSource: DataSource): Int? =
+        CompositeDataSourcePoolMetadataProvider(poolMetadataProviders.orderedStream().toList())
+            .getDataSourcePoolMetadata(dataSource)
+            ?.max
+            ?.takeIf { it > 0 }
+
+    /**
+     * The Companion object of the ConnectionGateBeanPostProcessor class.
+     */
+    companion object {
+        /**
+         * The logger.
+         */
+        val logger: Logger = Logger.getLogger(ConnectionGateBeanPostProcessor::class.java.name)
+    }
+}
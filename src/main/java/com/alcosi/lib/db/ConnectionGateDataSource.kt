@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.core.InfrastructureProxy
+import org.springframework.jdbc.datasource.DelegatingDataSource
+import java.sql.Connection
+import java.sql.SQLTransientConnectionException
+import java.time.Duration
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.sql.DataSource
+
+/**
+ * A DataSource wrapper limiting the number of connections obtained concurrently through it, usually to the pool size.
+ *
+ * A permit is taken before the connection is obtained from the pool and returned when the connection is closed.
+ * Callers wait on the semaphore, which parks virtual threads without pinning their carriers, instead of queuing
+ * inside the pool and driver synchronization. Waiting is fair if [fair] is set and bounded by [acquireTimeout].
+ *
+ * Only the connections obtained through the wrapper are gated, so it must replace the DataSource for all of its
+ * users, including the transaction managers: [ConnectionGateBeanPostProcessor] wraps the DataSource beans.
+ * A transaction-bound connection holds one permit for the whole transaction, and statements of the transaction
+ * reuse it without taking another permit. The wrapper is an InfrastructureProxy only so that it shares the
+ * transaction resource key with the original DataSource; connections obtained directly from the original
+ * DataSource bypass the gate.
+ *
+ * @param dataSource The original DataSource.
+ * @property permits The maximum number of concurrently obtained connections.
+ * @property fair True to grant the permits in the waiting order.
+ * @property acquireTimeout The maximum time to wait for a permit.
+ * @property listeners The listeners of the permit waits.
+ */
+open class ConnectionGateDataSource(
+    dataSource: DataSource,
+    val permits: Int,
+    val fair: Boolean = true,
+    val acquireTimeout: Duration = Duration.ofSeconds(30),
+    protected val listeners: List<ConnectionGateListener> = listOf(),
+) : DelegatingDataSource(dataSource), InfrastructureProxy {
+    /**
+     * The connection permits.
+     */
+    protected open val semaphore = Semaphore(permits, fair)
+
+    /**
+     * Returns the number of threads waiting for a permit (an estimate).
+     */
+    open fun getQueueLength(): Int = semaphore.queueLength
+
+    /**
+     * Returns the number of free permits.
+     */
+    open fun getAvailablePermits(): Int = semaphore.availablePermits()
+
+    override fun getConnection(): Connection = gated { super.getConnection() }
+
+    override fun getConnection(
+        username: String,
+        password: String,
+    ): Connection = gated { super.getConnection(username, password) }
+
+    override fun getWrappedObject(): Any = obtainTargetDataSource()
+
+    /**
+     * Obtains the connection holding a permit, which is released when the connection is closed.
+     *
+     * @param obtain Obtains the original connection.
+     * @return The gated connection.
+     * @throws SQLTransientConnectionException If no permit was acquired within [acquireTimeout].
+     */
+    protected open fun gated(obtain: () -> Connection): Connection {
+        acquire()
+        try {
+            return GatedConnection(obtain(), semaphore)
+        } catch (t: Throwable) {
+            semaphore.release()
+            throw t
+        }
+    }
+
+    /**
+     * Acquires a permit and notifies the listeners.
+     *
+     * @throws SQLTransientConnectionException If no permit was acquired within [acquireTimeout].
+     */
+    protected open fun acquire() {
+        val start = System.nanoTime()
+        var acquired = false
+        try {
+            acquired = semaphore.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            notifyListeners(System.nanoTime() - start, false)
+            throw SQLTransientConnectionException("Interrupted waiting for a connection permit", e)
+        }
+        notifyListeners(System.nanoTime() - start, acquired)
+        if (!acquired) {
+            throw SQLTransientConnectionException("Timeout waiting for a connection permit after ${acquireTimeout.toMillis()} ms, $permits permits, ${semaphore.queueLength} waiting")
+        }
+    }
+
+    /**
+     * Passes the wait to the listeners. Listener errors are logged and ignored.
+     *
+     * @param waitNanos The wait time, in nanoseconds.
+     * @param acquired True if the permit was acquired.
+     */
+    protected open fun notifyListeners(
+        waitNanos: Long,
+        acquired: Boolean,
+    ) {
+        listeners.forEach {
+            try {
+                it.onWait(waitNanos, acquired)
+            } catch (t: Throwable) {
+                logger.log(Level.SEVERE, "Error processing connection gate event", t)
+            }
+        }
+    }
+
+    /**
+     * A Connection wrapper releasing the permit once, when the connection is closed.
+     *
+     * @property delegate The original connection.
+     * @property semaphore The connection permits.
+     */
+    open class GatedConnection(
+        protected val delegate: Connection,
+        protected val semaphore: Semaphore,
+    ) : Connection by delegate {
+        protected val released = AtomicBoolean(false)
+
+        override fun close() {
+            try {
+                delegate.close()
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    semaphore.release()
+                }
+            }
+        }
+    }
+
+    /**
+     * The Companion object of the ConnectionGateDataSource class.
+     */
+    companion object {
+        /**
+         * The logger.
+         */
+        val logger: Logger = Logger.getLogger(this::class.java.name)
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.alcosi.lib.db
 
+import com.alcosi.lib.objectMapper.NulCharacterEscapes
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource
 
 /**
@@ -30,13 +31,7 @@ open class EscapingSqlParameter : MapSqlParameterSource() {
      * @param value The value to be escaped.
      * @return The escaped value. If the input is not a string, it is returned as is.
      */
-    protected fun escapeString(value: Any?): Any? {
-        return if (value is String) {
-            serializationReplacePairs.fold(value) { acc, pair -> acc.replace(pair.first, pair.second) }
-        } else {
-            value
-        }
-    }
+    protected fun escapeString(value: Any?): Any? = escape(value)
 
     /**
      * Adds a parameter value to the MapSqlParameterSource by calling the superclass's addValue method.
@@ -92,7 +87,7 @@ open class EscapingSqlParameter : MapSqlParameterSource() {
      * @return The modified MapSqlParameterSource object with the added values.
      */
     override fun addValues(values: MutableMap<String, *>?): MapSqlParameterSource {
-        return super.addValues(values?.mapValues { escapeString(it) })
+        return super.addValues(values?.mapValues { escapeString(it.value) })
     }
 
     /**
@@ -104,6 +99,16 @@ open class EscapingSqlParameter : MapSqlParameterSource() {
         /**
          * List of pairs used for replacing certain characters during variable serialization.
          */
+        @Deprecated("The replacement is done by NulCharacterEscapes", ReplaceWith("NulCharacterEscapes.escape(value)"))
         val serializationReplacePairs = listOf("\u0000" to "<0x00>")
+
+        /**
+         * Escapes special characters in a string value. Strings without special characters are returned without copying.
+         *
+         * @param value The value to be escaped.
+         * @return The escaped value. If the input is not a string, it is returned as is.
+         */
+        @JvmStatic
+        fun escape(value: Any?): Any? = NulCharacterEscapes.escapeValue(value)
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import java.util.function.Supplier
+
+/**
+ * Represents an executed JDBC statement.
+ *
+ * @property sql The SQL text as sent to the driver, or null if unknown.
+ * @property parameters The lazy description of the statement parameters, or null if unknown.
+ * @property tookNanos The duration of the statement execution and result extraction in nanoseconds.
+ * @property rows The number of returned or affected rows, or -1 if unknown.
+ * @property error The statement error, or null if it succeeded.
+ */
+data class JdbcQueryEvent(
+    val sql: String?,
+    val parameters: Supplier<String>?,
+    val tookNanos: Long,
+    val rows: Long,
+    val error: Throwable?,
+)
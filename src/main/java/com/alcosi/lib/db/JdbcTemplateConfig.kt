@@ -17,12 +17,15 @@
 
 package com.alcosi.lib.db
 
+import org.springframework.beans.factory.ObjectProvider
 import org.springframework.boot.autoconfigure.AutoConfiguration
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
 import org.springframework.boot.autoconfigure.jdbc.JdbcProperties
 import org.springframework.boot.context.properties.EnableConfigurationProperties
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadataProvider
 import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
 import org.springframework.jdbc.core.JdbcTemplate
 import org.springframework.jdbc.core.RowCallbackHandler
 import org.springframework.jdbc.core.simple.JdbcClient
@@ -44,31 +47,60 @@ class JdbcTemplateConfig {
      * Creates an instance of LoggingNamedParameterJdbcTemplate.
      *
      * @param jdbcTemplate The JdbcTemplate instance to be used.
+     * @param queryCache The query result cache provider.
      * @param*/
     @Bean
     fun namedParameterJdbcTemplate(
         jdbcTemplate: JdbcTemplate,
         jdbcTemplateProperties: JdbcTemplateProperties,
+        queryCache: ObjectProvider<QueryResultCache>,
     ): LoggingNamedParameterJdbcTemplate {
         return LoggingNamedParameterJdbcTemplate(
             jdbcTemplateProperties.loggingMaxBodySize,
             jdbcTemplate,
             jdbcTemplateProperties.loggingQueryLevel.javaLevel,
             jdbcTemplateProperties.loggingParametersLevel.javaLevel,
+            jdbcTemplateProperties.parsedSqlCacheSize,
+            jdbcTemplateProperties.batchSize,
+            queryCache.ifAvailable,
         )
     }
 
     /**
-     * Creates an instance of LoggingWarningRowCallbackHandler.
+     * Creates the query result cache of the LoggingNamedParameterJdbcTemplate.
+     *
+     * @param jdbcTemplateProperties The JdbcTemplateProperties instance to retrieve the cache settings.
+     * @return The QueryResultCache instance.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "common-lib.jdbc-template.query-cache", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+    fun jdbcQueryResultCache(jdbcTemplateProperties: JdbcTemplateProperties): QueryResultCache {
+        val cache = jdbcTemplateProperties.queryCache
+        return QueryResultCache(cache.ttl, cache.maxBytes, cache.maxEntryBytes)
+    }
+
+    /**
+     * Creates an instance of LoggingStatementWarningHandler.
      *
      * @param jdbcTemplateProperties The JdbcTemplateProperties instance to retrieve the logging warning level.
-     * @return The LoggingWarningRowCallbackHandler instance.
+     * @return The LoggingStatementWarningHandler instance.
      */
     @Bean
-    fun jdbcLoggingWarningCallBackHandler(jdbcTemplateProperties: JdbcTemplateProperties): LoggingWarningRowCallbackHandler {
-        return LoggingWarningRowCallbackHandler(jdbcTemplateProperties.loggingWarningLevel.javaLevel)
+    fun jdbcLoggingStatementWarningHandler(jdbcTemplateProperties: JdbcTemplateProperties): LoggingStatementWarningHandler {
+        return LoggingStatementWarningHandler(jdbcTemplateProperties.loggingWarningLevel.javaLevel)
     }
 
+    /**
+     * Creates the inactive LoggingWarningRowCallbackHandler, kept only for the compatibility of the bean name.
+     * The warnings are logged by the jdbcLoggingStatementWarningHandler bean.
+     *
+     * @return The LoggingWarningRowCallbackHandler instance.
+     */
+    @Bean
+    @Deprecated("Inactive, the warnings are logged once per statement by the jdbcLoggingStatementWarningHandler bean. Will be removed in the next release.")
+    @Suppress("DEPRECATION")
+    fun jdbcLoggingWarningCallBackHandler(): LoggingWarningRowCallbackHandler = LoggingWarningRowCallbackHandler(null)
+
     /**
      * Creates an instance of [LoggingResponseRowCallbackHandler].
      *
@@ -80,24 +112,52 @@ class JdbcTemplateConfig {
         return LoggingResponseRowCallbackHandler(
             jdbcTemplateProperties.loggingMaxBodySize,
             jdbcTemplateProperties.loggingResponseLevel.javaLevel,
+            jdbcTemplateProperties.loggingMaxRows,
         )
     }
 
+    /**
+     * Creates the slow statements logging listener.
+     *
+     * @param jdbcTemplateProperties The JdbcTemplateProperties instance to retrieve the slow query settings.
+     * @return The SlowQueryLoggingListener instance.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "common-lib.jdbc-template.slow-query", name = ["enabled"], matchIfMissing = true, havingValue = "true")
+    fun jdbcSlowQueryLoggingListener(jdbcTemplateProperties: JdbcTemplateProperties): SlowQueryLoggingListener {
+        val slowQuery = jdbcTemplateProperties.slowQuery
+        return SlowQueryLoggingListener(slowQuery.threshold, slowQuery.loggingLevel.javaLevel)
+    }
+
     /**
      * Creates an instance of JdbcTemplate.
      *
      * @param callbacks The list of RowCallbackHandlers to be applied to the ResultSet.
-     * @param dataSource The DataSource instance to be used.
+     * @param warningHandlers The handlers of the statement SQL warnings.
+     * @param queryListeners The listeners of the executed statements.
+     * @param dataSource The DataSource instance to be used, gated by the ConnectionGateBeanPostProcessor if enabled.
      * @param properties The JdbcProperties instance to retrieve the template configuration.
+     * @param jdbcTemplateProperties The JdbcTemplateProperties instance to retrieve the cursor stream settings.
      * @return The created JdbcTemplate instance.
      */
     @Bean
     fun jdbcTemplate(
         callbacks: List<RowCallbackHandler>,
+        warningHandlers: ObjectProvider<StatementWarningHandler>,
+        queryListeners: ObjectProvider<JdbcQueryListener>,
         dataSource: DataSource,
         properties: JdbcProperties,
+        jdbcTemplateProperties: JdbcTemplateProperties,
     ): JdbcTemplate {
-        val jdbcTemplate = LoggingJdbcTemplate(callbacks, dataSource)
+        val jdbcTemplate =
+            LoggingJdbcTemplate(
+                callbacks,
+                dataSource,
+                warningHandlers.orderedStream().toList(),
+                queryListeners.orderedStream().toList(),
+                jdbcTemplateProperties.cursorFetchSize,
+                jdbcTemplateProperties.cursorLoggingSampleRate,
+            )
         val template: JdbcProperties.Template = properties.template
         jdbcTemplate.fetchSize = template.fetchSize
         jdbcTemplate.maxRows = template.maxRows
@@ -118,4 +178,85 @@ class JdbcTemplateConfig {
     fun JdbcClient(template: LoggingNamedParameterJdbcTemplate): JdbcClient {
         return JdbcClient.create(template)
     }
+
+    /**
+     * Configures the Micrometer beans. Micrometer is optional, so they are declared only if it is on the classpath.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(io.micrometer.core.instrument.MeterRegistry::class)
+    class MicrometerConfiguration {
+        /**
+         * Binds the query result cache statistics to Micrometer.
+         *
+         * @param queryCache The query result cache.
+         * @return The QueryResultCacheMeterBinder instance.
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = "common-lib.jdbc-template.query-cache", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+        fun jdbcQueryResultCacheMeterBinder(queryCache: QueryResultCache): QueryResultCacheMeterBinder = QueryResultCacheMeterBinder(queryCache)
+
+        /**
+         * Creates the per-statement Micrometer metrics listener. The meter registry is resolved on first use.
+         *
+         * @param jdbcTemplateProperties The JdbcTemplateProperties instance to retrieve the metrics settings.
+         * @param meterRegistry The meter registry provider.
+         * @return The MicrometerJdbcQueryListener instance.
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = "common-lib.jdbc-template.metrics", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+        fun jdbcMetricsQueryListener(
+            jdbcTemplateProperties: JdbcTemplateProperties,
+            meterRegistry: ObjectProvider<io.micrometer.core.instrument.MeterRegistry>,
+        ): JdbcQueryListener {
+            val metrics = jdbcTemplateProperties.metrics
+            return MicrometerJdbcQueryListener(
+                { meterRegistry.ifAvailable },
+                SqlNormalizer(metrics.normalizedSqlCacheSize),
+                metrics.maxStatements,
+                metrics.percentileHistogram,
+            )
+        }
+
+        /**
+         * Creates the Micrometer listener of the connection gate wait times. The meter registry is resolved on first use.
+         *
+         * @param jdbcTemplateProperties The JdbcTemplateProperties instance to retrieve the connection gate settings.
+         * @param meterRegistry The meter registry provider.
+         * @return The MicrometerConnectionGateListener instance.
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = "common-lib.jdbc-template.connection-gate", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+        fun jdbcConnectionGateMetricsListener(
+            jdbcTemplateProperties: JdbcTemplateProperties,
+            meterRegistry: ObjectProvider<io.micrometer.core.instrument.MeterRegistry>,
+        ): ConnectionGateListener = MicrometerConnectionGateListener({ meterRegistry.ifAvailable }, jdbcTemplateProperties.connectionGate.percentileHistogram)
+    }
+
+    /**
+     * The Companion object of the JdbcTemplateConfig class.
+     */
+    companion object {
+        /**
+         * The connection gate permits if the pool size is unknown.
+         */
+        const val DEFAULT_GATE_PERMITS = 10
+
+        /**
+         * Creates the post processor gating the DataSource beans. Static, so that it does not initialize this
+         * configuration early.
+         *
+         * @param jdbcTemplateProperties The JdbcTemplateProperties provider, to retrieve the connection gate settings.
+         * @param poolMetadataProviders The pool metadata providers, used to size the connection gate.
+         * @param gateListeners The listeners of the connection gate waits.
+         * @return The ConnectionGateBeanPostProcessor instance.
+         */
+        @Bean
+        @JvmStatic
+        @ConditionalOnProperty(prefix = "common-lib.jdbc-template.connection-gate", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+        fun jdbcConnectionGateBeanPostProcessor(
+            jdbcTemplateProperties: ObjectProvider<JdbcTemplateProperties>,
+            poolMetadataProviders: ObjectProvider<DataSourcePoolMetadataProvider>,
+            gateListeners: ObjectProvider<ConnectionGateListener>,
+        ): ConnectionGateBeanPostProcessor = ConnectionGateBeanPostProcessor(jdbcTemplateProperties, poolMetadataProviders, gateListeners)
+    }
 }
@@ -20,6 +20,8 @@ package com.alcosi.lib.db;
 import com.alcosi.lib.logging.JavaLoggingLevel;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 /**
  * Configuration properties for JdbcTemplate.
  */
@@ -29,6 +31,23 @@ public class JdbcTemplateProperties {
      * The maximum body size for logging.
      */
     private Integer loggingMaxBodySize = 10000;
+    /**
+     * The maximum number of parsed named-parameter SQL statements cached by the NamedParameterJdbcTemplate.
+     * Zero disables the cache.
+     */
+    private Integer parsedSqlCacheSize = 256;
+    /**
+     * The default number of rows per batch of the chunked batch update and multi-row insert helpers.
+     */
+    private Integer batchSize = 500;
+    /**
+     * The default fetch size of the cursor streams.
+     */
+    private Integer cursorFetchSize = 1000;
+    /**
+     * Response rows of the cursor streams are logged for every n-th row only. Zero or negative value disables the logging.
+     */
+    private Integer cursorLoggingSampleRate = 1000;
     /**
      * The loggingQueryLevel variable represents the logging level for queries in the JdbcTemplate library.
      *
@@ -110,6 +129,11 @@ public class JdbcTemplateProperties {
      * Note: This variable is defined in the JdbcTemplateProperties class.
      */
     private JavaLoggingLevel loggingResponseLevel = JavaLoggingLevel.INFO;
+    /**
+     * The maximum number of logged response rows per ResultSet. The rest of the rows are only counted
+     * and the count is logged when the ResultSet ends. Zero or negative value disables the limit, the default.
+     */
+    private Integer loggingMaxRows = -1;
     /**
      * The `loggingWarningLevel` variable represents the logging level for warning messages in the Java logging library.
      * Warning messages indicate potential problems in the application.
@@ -151,6 +175,22 @@ public class JdbcTemplateProperties {
      * Note: This documentation does not include example code, @author tags, or @version tags.
      */
     private Boolean disabled = false;
+    /**
+     * Slow statements logging settings.
+     */
+    private SlowQuery slowQuery = new SlowQuery();
+    /**
+     * Per-statement metrics settings.
+     */
+    private Metrics metrics = new Metrics();
+    /**
+     * Connection gate settings.
+     */
+    private ConnectionGate connectionGate = new ConnectionGate();
+    /**
+     * Query result cache settings.
+     */
+    private QueryCache queryCache = new QueryCache();
 
     public Integer getLoggingMaxBodySize() {
         return loggingMaxBodySize;
@@ -160,6 +200,38 @@ public class JdbcTemplateProperties {
         this.loggingMaxBodySize = loggingMaxBodySize;
     }
 
+    public Integer getParsedSqlCacheSize() {
+        return parsedSqlCacheSize;
+    }
+
+    public void setParsedSqlCacheSize(Integer parsedSqlCacheSize) {
+        this.parsedSqlCacheSize = parsedSqlCacheSize;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Integer getCursorFetchSize() {
+        return cursorFetchSize;
+    }
+
+    public void setCursorFetchSize(Integer cursorFetchSize) {
+        this.cursorFetchSize = cursorFetchSize;
+    }
+
+    public Integer getCursorLoggingSampleRate() {
+        return cursorLoggingSampleRate;
+    }
+
+    public void setCursorLoggingSampleRate(Integer cursorLoggingSampleRate) {
+        this.cursorLoggingSampleRate = cursorLoggingSampleRate;
+    }
+
     public JavaLoggingLevel getLoggingQueryLevel() {
         return loggingQueryLevel;
     }
@@ -184,6 +256,14 @@ public class JdbcTemplateProperties {
         this.loggingResponseLevel = loggingResponseLevel;
     }
 
+    public Integer getLoggingMaxRows() {
+        return loggingMaxRows;
+    }
+
+    public void setLoggingMaxRows(Integer loggingMaxRows) {
+        this.loggingMaxRows = loggingMaxRows;
+    }
+
     public JavaLoggingLevel getLoggingWarningLevel() {
         return loggingWarningLevel;
     }
@@ -199,4 +279,258 @@ public class JdbcTemplateProperties {
     public void setDisabled(Boolean disabled) {
         this.disabled = disabled;
     }
+
+    public SlowQuery getSlowQuery() {
+        return slowQuery;
+    }
+
+    public void setSlowQuery(SlowQuery slowQuery) {
+        this.slowQuery = slowQuery;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ConnectionGate getConnectionGate() {
+        return connectionGate;
+    }
+
+    public void setConnectionGate(ConnectionGate connectionGate) {
+        this.connectionGate = connectionGate;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Slow statements logging settings. Statements taking longer than the threshold (execution and result extraction)
+     * are logged with their parameters.
+     */
+    public static class SlowQuery {
+        /**
+         * Enables slow statements logging.
+         */
+        private Boolean enabled = true;
+        /**
+         * The slow statement threshold.
+         */
+        private Duration threshold = Duration.ofSeconds(1);
+        /**
+         * The logging level for slow statements.
+         */
+        private JavaLoggingLevel loggingLevel = JavaLoggingLevel.WARNING;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(Duration threshold) {
+            this.threshold = threshold;
+        }
+
+        public JavaLoggingLevel getLoggingLevel() {
+            return loggingLevel;
+        }
+
+        public void setLoggingLevel(JavaLoggingLevel loggingLevel) {
+            this.loggingLevel = loggingLevel;
+        }
+    }
+
+    /**
+     * Per-statement Micrometer metrics settings: latency, row count and error count by normalized SQL text.
+     * The metrics are opt-in, as every tracked statement registers its own meters.
+     */
+    public static class Metrics {
+        /**
+         * Enables the metrics, if Micrometer is available.
+         */
+        private Boolean enabled = false;
+        /**
+         * The maximum number of distinct tracked statements, the rest are tagged as "other".
+         */
+        private Integer maxStatements = 500;
+        /**
+         * Publish the latency percentile histogram. Every histogram adds tens of time series per statement.
+         */
+        private Boolean percentileHistogram = false;
+        /**
+         * The maximum number of cached normalized statements.
+         */
+        private Integer normalizedSqlCacheSize = 1000;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getMaxStatements() {
+            return maxStatements;
+        }
+
+        public void setMaxStatements(Integer maxStatements) {
+            this.maxStatements = maxStatements;
+        }
+
+        public Boolean getPercentileHistogram() {
+            return percentileHistogram;
+        }
+
+        public void setPercentileHistogram(Boolean percentileHistogram) {
+            this.percentileHistogram = percentileHistogram;
+        }
+
+        public Integer getNormalizedSqlCacheSize() {
+            return normalizedSqlCacheSize;
+        }
+
+        public void setNormalizedSqlCacheSize(Integer normalizedSqlCacheSize) {
+            this.normalizedSqlCacheSize = normalizedSqlCacheSize;
+        }
+    }
+
+    /**
+     * Connection gate settings. The gate limits the number of connections obtained concurrently from each DataSource
+     * bean, so that many (virtual) threads wait on a semaphore instead of inside the connection pool. The DataSource
+     * beans are replaced by the gating wrappers, so the JdbcTemplate and the transaction managers share the permits;
+     * injection points of a concrete pool type, e.g. HikariDataSource, no longer match them.
+     */
+    public static class ConnectionGate {
+        /**
+         * Enables the gate.
+         */
+        private Boolean enabled = false;
+        /**
+         * The maximum number of concurrently obtained connections. Zero or negative value means the pool maximum size,
+         * if it is known, otherwise the default of 10.
+         */
+        private Integer permits = 0;
+        /**
+         * Grant the permits in the waiting order.
+         */
+        private Boolean fair = true;
+        /**
+         * The maximum time to wait for a permit.
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(30);
+        /**
+         * Publish the wait time percentile histogram, if Micrometer is available.
+         */
+        private Boolean percentileHistogram = true;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getPermits() {
+            return permits;
+        }
+
+        public void setPermits(Integer permits) {
+            this.permits = permits;
+        }
+
+        public Boolean getFair() {
+            return fair;
+        }
+
+        public void setFair(Boolean fair) {
+            this.fair = fair;
+        }
+
+        public Duration getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+
+        public Boolean getPercentileHistogram() {
+            return percentileHistogram;
+        }
+
+        public void setPercentileHistogram(Boolean percentileHistogram) {
+            this.percentileHistogram = percentileHistogram;
+        }
+    }
+
+    /**
+     * Query result cache settings. Only the results of LoggingNamedParameterJdbcTemplate.queryForCachedList are cached.
+     */
+    public static class QueryCache {
+        /**
+         * Enables the cache.
+         */
+        private Boolean enabled = false;
+        /**
+         * The time to live of the cached results.
+         */
+        private Duration ttl = Duration.ofMinutes(1);
+        /**
+         * The maximum estimated size of all cached results, in bytes.
+         */
+        private Long maxBytes = 64L * 1024 * 1024;
+        /**
+         * The maximum estimated size of one cached result, in bytes. Bigger results are not cached.
+         */
+        private Long maxEntryBytes = 4L * 1024 * 1024;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(Long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public Long getMaxEntryBytes() {
+            return maxEntryBytes;
+        }
+
+        public void setMaxEntryBytes(Long maxEntryBytes) {
+            this.maxEntryBytes = maxEntryBytes;
+        }
+    }
 }
@@ -18,19 +18,58 @@
 package com.alcosi.lib.db
 
 import org.springframework.jdbc.core.*
+import org.springframework.jdbc.datasource.DataSourceUtils
+import org.springframework.jdbc.support.JdbcUtils
+import org.springframework.jdbc.support.KeyHolder
+import java.sql.Connection
+import java.sql.PreparedStatement
 import java.sql.ResultSet
+import java.sql.SQLException
+import java.sql.Statement
+import java.util.Spliterator
+import java.util.Spliterators
+import java.util.function.Consumer
+import java.util.function.Supplier
+import java.util.stream.Stream
+import java.util.stream.StreamSupport
 import javax.sql.DataSource
 
 /**
  * A subclass of JdbcTemplate that provides logging functionality to the executed SQL queries and parameters.
  *
+ * Only active callbacks (see [ConditionalRowCallbackHandler]) are applied. If no callback is active, the ResultSet
+ * and the extractor are not wrapped, so the query runs exactly as with the plain JdbcTemplate.
+ *
+ * SQL warnings are read once per statement, after its execution and processing, and passed to the active [warningHandlers]
+ * with the SQL of the statement, if it is known.
+ *
+ * Queries, updates and batch updates are timed (execution and result extraction) and reported to [queryListeners].
+ * The row count of the event is the size of a collection result, the update count, or -1 if unknown.
+ *
+ * Large results can be consumed incrementally with [queryForCursorStream], which reads them through a server-side
+ * cursor: autocommit is switched off for the statement, and only the rows of the current fetch are held in memory.
+ * Row callbacks are applied to every [cursorLoggingSampleRate]-th row of such streams only.
+ *
  * @property callbacks The list of RowCallbackHandlers to be applied to the ResultSet.
  * @param dataSource The DataSource instance to be used.
+ * @property warningHandlers The handlers of the statement SQL warnings.
+ * @property queryListeners The listeners of the executed statements.
+ * @property cursorFetchSize The default fetch size of the cursor streams.
+ * @property cursorLoggingSampleRate Row callbacks of the cursor streams are applied to every n-th row, zero or negative disables them.
  */
 open class LoggingJdbcTemplate(
     val callbacks: List<RowCallbackHandler>,
     dataSource: DataSource,
+    val warningHandlers: List<StatementWarningHandler> = listOf(),
+    val queryListeners: List<JdbcQueryListener> = listOf(),
+    val cursorFetchSize: Int = DEFAULT_CURSOR_FETCH_SIZE,
+    val cursorLoggingSampleRate: Int = DEFAULT_CURSOR_LOGGING_SAMPLE_RATE,
 ) : JdbcTemplate(dataSource) {
+    /**
+     * The SQL of the statement executed by the thread, passed to the warning handlers.
+     */
+    protected val currentSql: ThreadLocal<String?> = ThreadLocal()
+
     /**
      * Process a ResultSet by applying logging functionality and extracting the result set.
      *
@@ -45,7 +84,16 @@ open class LoggingJdbcTemplate(
         if (rs == null) {
             return HashMap()
         }
-        return super.processResultSet(LoggingResultSet(callbacks, rs), param)
+        val active = getActiveCallbacks()
+        if (active.isEmpty()) {
+            return super.processResultSet(rs, param)
+        }
+        val loggingResultSet = LoggingResultSet(active, rs)
+        try {
+            return super.processResultSet(loggingResultSet, param)
+        } finally {
+            loggingResultSet.end()
+        }
     }
 
     /**
@@ -61,8 +109,460 @@ open class LoggingJdbcTemplate(
         psc: PreparedStatementCreator,
         pss: PreparedStatementSetter?,
         rse: ResultSetExtractor<T>,
-    ): T? {
-        val processor = CallbackProcessorResultSetExtractor(callbacks, rse)
-        return super.query(psc, pss, processor)
+    ): T? =
+        timed(psc) {
+            val active = getActiveCallbacks()
+            if (active.isEmpty()) {
+                super.query(psc, pss, rse)
+            } else {
+                super.query(psc, pss, CallbackProcessorResultSetExtractor(active, rse))
+            }
+        }
+
+    /**
+     * Executes a static SQL query and reports it to the query listeners.
+     *
+     * @param sql The SQL query.
+     * @param rse The ResultSetExtractor.
+     * @return The extracted result.
+     */
+    override fun <T> query(
+        sql: String,
+        rse: ResultSetExtractor<T>,
+    ): T? = timed(sql, null) { super.query(sql, rse) }
+
+    /**
+     * Executes a prepared update and reports it to the query listeners.
+     *
+     * @param psc The PreparedStatementCreator.
+     * @param pss The PreparedStatementSetter, can be null.
+     * @return The number of affected rows.
+     */
+    override fun update(
+        psc: PreparedStatementCreator,
+        pss: PreparedStatementSetter?,
+    ): Int = timed(psc) { super.update(psc, pss) }
+
+    /**
+     * Executes a prepared update with generated keys and reports it to the query listeners.
+     *
+     * @param psc The PreparedStatementCreator.
+     * @param generatedKeyHolder The KeyHolder for the generated keys.
+     * @return The number of affected rows.
+     */
+    override fun update(
+        psc: PreparedStatementCreator,
+        generatedKeyHolder: KeyHolder,
+    ): Int = timed(psc) { super.update(psc, generatedKeyHolder) }
+
+    /**
+     * Executes a static SQL update and reports it to the query listeners.
+     *
+     * @param sql The SQL update.
+     * @return The number of affected rows.
+     */
+    override fun update(sql: String): Int = timed(sql, null) { super.update(sql) }
+
+    /**
+     * Executes a batch update and reports it to the query listeners.
+     *
+     * @param sql The SQL update.
+     * @param pss The batch setter.
+     * @return The numbers of affected rows.
+     */
+    override fun batchUpdate(
+        sql: String,
+        pss: BatchPreparedStatementSetter,
+    ): IntArray = timed(sql, null) { super.batchUpdate(sql, pss) }
+
+    /**
+     * Executes a query and returns its rows as a lazy stream read through a server-side cursor.
+     *
+     * Outside of a transaction, autocommit is switched off until the stream is closed, as drivers such as PostgreSQL
+     * only use cursors within a transaction. Rows are fetched by [fetchSize] as the stream is consumed, so a slow
+     * consumer holds the cursor instead of buffering the result. The stream holds a connection and must be closed.
+     *
+     * @param psc The PreparedStatementCreator, it must set the statement parameters.
+     * @param rowMapper The RowMapper.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @param T The type of the rows.
+     * @return The stream of the mapped rows.
+     */
+    open fun <T> queryForCursorStream(
+        psc: PreparedStatementCreator,
+        rowMapper: RowMapper<T>,
+        fetchSize: Int = cursorFetchSize,
+    ): Stream<T> {
+        val dataSource = obtainDataSource()
+        val con = DataSourceUtils.getConnection(dataSource)
+        var resetAutoCommit = false
+        var ps: PreparedStatement? = null
+        val start = System.nanoTime()
+        try {
+            if (!DataSourceUtils.isConnectionTransactional(con, dataSource) && con.autoCommit) {
+                con.autoCommit = false
+                resetAutoCommit = true
+            }
+            ps = psc.createPreparedStatement(con)
+            applyStatementSettings(ps)
+            ps.fetchSize = fetchSize
+            val cursor = CursorSpliterator(psc, con, resetAutoCommit, ps, ps.executeQuery(), rowMapper, start)
+            return StreamSupport.stream(cursor, false).onClose { cursor.close() }
+        } catch (ex: SQLException) {
+            val sql = (psc as? SqlProvider)?.sql
+            val translated = translateException("CursorStream", sql, ex)
+            releaseCursor(psc, con, resetAutoCommit, ps, false)
+            if (queryListeners.isNotEmpty()) {
+                notifyListeners(JdbcQueryEvent(sql, (psc as? SqlParametersProvider)?.getParameters(), System.nanoTime() - start, -1, translated))
+            }
+            throw translated
+        } catch (t: Throwable) {
+            releaseCursor(psc, con, resetAutoCommit, ps, false)
+            throw t
+        }
+    }
+
+    /**
+     * Executes a static SQL query and returns its rows as a lazy stream read through a server-side cursor.
+     *
+     * @param sql The SQL query.
+     * @param pss The PreparedStatementSetter, can be null.
+     * @param rowMapper The RowMapper.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @param T The type of the rows.
+     * @return The stream of the mapped rows.
+     * @see queryForCursorStream
+     */
+    open fun <T> queryForCursorStream(
+        sql: String,
+        pss: PreparedStatementSetter?,
+        rowMapper: RowMapper<T>,
+        fetchSize: Int = cursorFetchSize,
+    ): Stream<T> = queryForCursorStream(CursorStatementCreator(sql, pss), rowMapper, fetchSize)
+
+    /**
+     * Closes the statement, ends the cursor transaction and releases the connection. Errors are logged and ignored.
+     *
+     * @param psc The PreparedStatementCreator of the statement.
+     * @param con The connection.
+     * @param resetAutoCommit True if autocommit was switched off for the cursor.
+     * @param ps The statement, or null if it was not created.
+     * @param completed True if the stream was consumed without errors.
+     */
+    protected open fun releaseCursor(
+        psc: PreparedStatementCreator,
+        con: Connection,
+        resetAutoCommit: Boolean,
+        ps: PreparedStatement?,
+        completed: Boolean,
+    ) {
+        try {
+            if (ps != null) {
+                processWarnings(ps, (psc as? SqlProvider)?.sql)
+            }
+            JdbcUtils.closeStatement(ps)
+            (psc as? ParameterDisposer)?.cleanupParameters()
+            if (resetAutoCommit) {
+                try {
+                    if (completed) con.commit() else con.rollback()
+                } finally {
+                    con.autoCommit = true
+                }
+            }
+        } catch (t: Throwable) {
+            logger.error("Error closing cursor", t)
+        } finally {
+            DataSourceUtils.releaseConnection(con, obtainDataSource())
+        }
+    }
+
+    /**
+     * The cursor stream source. Applies the active row callbacks to every [cursorLoggingSampleRate]-th row
+     * and reports the statement to the query listeners when closed.
+     *
+     * @property psc The PreparedStatementCreator of the statement.
+     * @property con The connection.
+     * @property resetAutoCommit True if autocommit was switched off for the cursor.
+     * @property ps The statement.
+     * @property rs The cursor ResultSet.
+     * @property rowMapper The RowMapper.
+     * @property start The statement start time, in nanoseconds.
+     */
+    protected open inner class CursorSpliterator<T>(
+        protected val psc: PreparedStatementCreator,
+        protected val con: Connection,
+        protected val resetAutoCommit: Boolean,
+        protected val ps: PreparedStatement,
+        protected val rs: ResultSet,
+        protected val rowMapper: RowMapper<T>,
+        protected val start: Long,
+    ) : Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+        protected val sampledCallbacks: List<RowCallbackHandler> = if (cursorLoggingSampleRate > 0) getActiveCallbacks() else listOf()
+        protected var rows = 0L
+        protected var completed = false
+        protected var error: Throwable? = null
+        protected var closed = false
+
+        override fun tryAdvance(action: Consumer<in T>): Boolean {
+            if (closed || completed) {
+                return false
+            }
+            try {
+                if (!rs.next()) {
+                    completed = true
+                    return false
+                }
+                if (sampledCallbacks.isNotEmpty() && rows % cursorLoggingSampleRate == 0L) {
+                    processSampledRow()
+                }
+                action.accept(rowMapper.mapRow(rs, rows.toInt()) as T)
+                rows++
+                return true
+            } catch (ex: SQLException) {
+                val translated = translateException("CursorStream", (psc as? SqlProvider)?.sql, ex)
+                error = translated
+                throw translated
+            } catch (t: Throwable) {
+                error = t
+                throw t
+            }
+        }
+
+        /**
+         * Applies the row callbacks to the current row. Callback errors are logged and ignored.
+         */
+        protected open fun processSampledRow() {
+            sampledCallbacks.forEach {
+                try {
+                    it.processRow(rs)
+                } catch (t: Throwable) {
+                    logger.error("Error processing row callback", t)
+                }
+            }
+        }
+
+        /**
+         * Closes the cursor once: ends the callbacks, releases the statement and the connection and notifies the query listeners.
+         */
+        open fun close() {
+            if (closed) {
+                return
+            }
+            closed = true
+            sampledCallbacks.forEach {
+                if (it is ConditionalRowCallbackHandler) {
+                    try {
+                        it.onResultSetEnd(rs)
+                    } catch (t: Throwable) {
+                        logger.error("Error processing row callback", t)
+                    }
+                }
+            }
+            JdbcUtils.closeResultSet(rs)
+            releaseCursor(psc, con, resetAutoCommit, ps, error == null)
+            if (queryListeners.isNotEmpty()) {
+                notifyListeners(JdbcQueryEvent((psc as? SqlProvider)?.sql, (psc as? SqlParametersProvider)?.getParameters(), System.nanoTime() - start, if (error == null) rows else -1, error))
+            }
+        }
+    }
+
+    /**
+     * A PreparedStatementCreator of a forward-only, read-only statement for the cursor streams.
+     *
+     * @property query The SQL query.
+     * @property pss The PreparedStatementSetter, can be null.
+     */
+    protected open class CursorStatementCreator(
+        protected val query: String,
+        protected val pss: PreparedStatementSetter?,
+    ) : PreparedStatementCreator, SqlProvider, ParameterDisposer {
+        override fun createPreparedStatement(con: Connection): PreparedStatement {
+            val ps = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)
+            pss?.setValues(ps)
+            return ps
+        }
+
+        override fun getSql(): String = query
+
+        override fun cleanupParameters() {
+            (pss as? ParameterDisposer)?.cleanupParameters()
+        }
+    }
+
+    /**
+     * Executes the block and reports it to the query listeners with the SQL and parameters of the creator.
+     *
+     * @param psc The PreparedStatementCreator of the statement.
+     * @param block The statement execution.
+     * @return The block result.
+     */
+    protected open fun <T> timed(
+        psc: PreparedStatementCreator,
+        block: () -> T,
+    ): T {
+        if (queryListeners.isEmpty()) {
+            return withSql((psc as? SqlProvider)?.sql, block)
+        }
+        return timed((psc as? SqlProvider)?.sql, (psc as? SqlParametersProvider)?.getParameters(), block)
+    }
+
+    /**
+     * Executes the block and reports it to the query listeners.
+     *
+     * @param sql The SQL text.
+     * @param parameters The lazy parameters description, or null.
+     * @param block The statement execution.
+     * @return The block result.
+     */
+    protected open fun <T> timed(
+        sql: String?,
+        parameters: Supplier<String>?,
+        block: () -> T,
+    ): T {
+        if (queryListeners.isEmpty()) {
+            return withSql(sql, block)
+        }
+        val start = System.nanoTime()
+        try {
+            val result = withSql(sql, block)
+            notifyListeners(JdbcQueryEvent(sql, parameters, System.nanoTime() - start, countRows(result), null))
+            return result
+        } catch (t: Throwable) {
+            notifyListeners(JdbcQueryEvent(sql, parameters, System.nanoTime() - start, -1, t))
+            throw t
+        }
+    }
+
+    /**
+     * Executes the block with the SQL set as the current SQL of the thread, if there are warning handlers.
+     * The previous SQL is restored afterwards, so nested statements keep the SQL of the outer one.
+     *
+     * @param sql The SQL text.
+     * @param block The statement execution.
+     * @return The block result.
+     */
+    protected open fun <T> withSql(
+        sql: String?,
+        block: () -> T,
+    ): T {
+        if (warningHandlers.isEmpty()) {
+            return block()
+        }
+        val previous = currentSql.get()
+        currentSql.set(sql)
+        try {
+            return block()
+        } finally {
+            if (previous == null) {
+                currentSql.remove()
+            } else {
+                currentSql.set(previous)
+            }
+        }
+    }
+
+    /**
+     * Returns the row count of the statement result.
+     *
+     * @param result The statement result.
+     * @return The number of returned or affected rows, or -1 if unknown.
+     */
+    protected open fun countRows(result: Any?): Long =
+        when (result) {
+            is Collection<*> -> result.size.toLong()
+            is Int -> result.toLong()
+            is IntArray -> result.sumOf { if (it >= 0) it.toLong() else 0L }
+            else -> -1
+        }
+
+    /**
+     * Passes the event to the query listeners. Listener errors are logged and ignored.
+     *
+     * @param event The statement event.
+     */
+    protected open fun notifyListeners(event: JdbcQueryEvent) {
+        queryListeners.forEach {
+            try {
+                it.onQuery(event)
+            } catch (t: Throwable) {
+                logger.error("Error processing query event", t)
+            }
+        }
+    }
+
+    /**
+     * Returns the callbacks to apply to the current query.
+     *
+     * @return The callbacks that are not [ConditionalRowCallbackHandler]s or are active.
+     */
+    protected open fun getActiveCallbacks(): List<RowCallbackHandler> {
+        if (callbacks.isEmpty()) {
+            return callbacks
+        }
+        return callbacks.filter { it !is ConditionalRowCallbackHandler || it.isActive() }
+    }
+
+    /**
+     * Passes the warnings of the successfully executed statement to the warning handlers.
+     *
+     * @param stmt The executed statement.
+     */
+    override fun handleWarnings(stmt: Statement) {
+        processWarnings(stmt)
+        super.handleWarnings(stmt)
+    }
+
+    /**
+     * Passes the warnings of the failed statement to the warning handlers.
+     *
+     * @param stmt The executed statement.
+     * @param ex The statement exception.
+     */
+    override fun handleWarnings(
+        stmt: Statement,
+        ex: SQLException,
+    ) {
+        processWarnings(stmt)
+        super.handleWarnings(stmt, ex)
+    }
+
+    /**
+     * Reads the statement warning chain once, if any warning handler is active, and passes it to the active handlers.
+     *
+     * @param stmt The executed statement.
+     * @param sql The SQL of the statement, or null if it is unknown.
+     */
+    protected open fun processWarnings(
+        stmt: Statement,
+        sql: String? = currentSql.get(),
+    ) {
+        if (warningHandlers.isEmpty()) {
+            return
+        }
+        val active = warningHandlers.filter { it.isActive() }
+        if (active.isEmpty()) {
+            return
+        }
+        try {
+            val warning = stmt.warnings ?: return
+            active.forEach { it.handleWarnings(stmt, sql, warning) }
+        } catch (t: Throwable) {
+            logger.error("Error processing SQL warnings", t)
+        }
+    }
+
+    /**
+     * Contains the cursor stream defaults.
+     */
+    companion object {
+        /**
+         * The default fetch size of the cursor streams.
+         */
+        const val DEFAULT_CURSOR_FETCH_SIZE = 1000
+
+        /**
+         * By default, row callbacks of the cursor streams are applied to every 1000th row.
+         */
+        const val DEFAULT_CURSOR_LOGGING_SAMPLE_RATE = 1000
     }
 }
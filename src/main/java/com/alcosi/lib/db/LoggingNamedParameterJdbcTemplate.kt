@@ -18,32 +18,59 @@
 package com.alcosi.lib.db
 
 import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.PreparedStatementCallback
 import org.springframework.jdbc.core.PreparedStatementCreator
 import org.springframework.jdbc.core.PreparedStatementCreatorFactory
+import org.springframework.jdbc.core.RowMapper
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
 import org.springframework.jdbc.core.namedparam.SqlParameterSource
+import org.springframework.jdbc.support.KeyHolder
 import org.springframework.lang.Nullable
+import org.springframework.transaction.support.TransactionSynchronization
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 import java.util.logging.Level
 import java.util.logging.Level.OFF
 import java.util.logging.Logger
+import java.util.stream.Stream
 
 /**
  * A logging wrapper for NamedParameterJdbcTemplate that provides additional logging functionality.
  *
+ * Created PreparedStatementCreators carry a lazy parameters description (see [SqlParametersProvider]), used by the
+ * LoggingJdbcTemplate query listeners, e.g. to log slow queries with their parameters.
+ * The SQL and parameters log texts are built only if their logging level is loggable, and the parameters
+ * description is built at most once per statement.
+ *
+ * If [queryCache] is set, [queryForCachedList] results are cached, and updates, batch updates and non-query
+ * statements executed through this template invalidate the cached results of the written tables.
+ * Inside an actual transaction the cache is bypassed, as the transaction can see its own uncommitted writes, and
+ * writes invalidate the results once more after the transaction completes.
+ *
  * @property maxBodySize The maximum body size of values to be logged.
  * @property jdbcTemplate The JdbcTemplate instance to delegate to.
  * @property queryLoggingLevel The logging level for executing SQL queries.
  * @property logParamsLevel The logging level for SQL parameters.
+ * @param parsedSqlCacheSize The maximum number of cached parsed SQL statements, zero disables the cache.
+ * @property batchSize The default number of rows per batch for [batchUpdateChunked] and [batchInsert].
+ * @property queryCache The query result cache, or null to disable the caching.
  */
 open class LoggingNamedParameterJdbcTemplate(
     val maxBodySize: Int,
     jdbcTemplate: JdbcTemplate,
     val queryLoggingLevel: Level?,
     val logParamsLevel: Level?,
+    parsedSqlCacheSize: Int = DEFAULT_CACHE_LIMIT,
+    val batchSize: Int = DEFAULT_BATCH_SIZE,
+    val queryCache: QueryResultCache? = null,
 ) : NamedParameterJdbcTemplate(jdbcTemplate) {
     val logger = Logger.getLogger(this.javaClass.name)
 
+    init {
+        cacheLimit = parsedSqlCacheSize
+    }
+
     /**
      * Returns a PreparedStatementCreator object based on the given SQL statement and SqlParameterSource.
      *
@@ -75,15 +102,168 @@ open class LoggingNamedParameterJdbcTemplate(
         customizer: Consumer<PreparedStatementCreatorFactory>?,
     ): PreparedStatementCreator {
         if (queryLoggingLevel != null && queryLoggingLevel != OFF) {
-            logger.log(queryLoggingLevel, "Executing SQL: $sql")
+            logger.log(queryLoggingLevel) { "Executing SQL: $sql" }
+        }
+        val params = lazy(LazyThreadSafetyMode.NONE) { serializeParameters(paramSource) }
+        if (logParamsLevel != null && logParamsLevel != OFF && paramSource.parameterNames != null) {
+            logger.log(logParamsLevel) { "SQL params: ${params.value}" }
+        }
+        val creator = super.getPreparedStatementCreator(sql, paramSource, customizer)
+        return ParametersAwarePreparedStatementCreator(creator) { params.value }
+    }
+
+    /**
+     * Executes a query and returns its rows, reading them from the [queryCache] if possible.
+     * Without the cache or inside an actual transaction, the query is executed every time.
+     *
+     * @param sql The SQL query with named parameters.
+     * @param paramSource The parameter values.
+     * @param rowMapper The RowMapper.
+     * @param tables The tables read by the query, used to invalidate the result. If empty, they are parsed from the SQL.
+     * @param T The type of the rows.
+     * @return The unmodifiable list of the mapped rows.
+     */
+    open fun <T> queryForCachedList(
+        sql: String,
+        paramSource: SqlParameterSource,
+        rowMapper: RowMapper<T>,
+        tables: Set<String> = setOf(),
+    ): List<T> {
+        val cache = queryCache
+        if (cache == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return query(sql, paramSource, rowMapper)
+        }
+        return cache.getOrLoad(sql, paramSource, tables) { query(sql, paramSource, rowMapper) }
+    }
+
+    override fun update(
+        sql: String,
+        paramSource: SqlParameterSource,
+    ): Int {
+        try {
+            return super.update(sql, paramSource)
+        } finally {
+            afterWrite(sql)
+        }
+    }
+
+    override fun update(
+        sql: String,
+        paramSource: SqlParameterSource,
+        generatedKeyHolder: KeyHolder,
+        keyColumnNames: Array<out String>?,
+    ): Int {
+        try {
+            return super.update(sql, paramSource, generatedKeyHolder, keyColumnNames)
+        } finally {
+            afterWrite(sql)
+        }
+    }
+
+    override fun batchUpdate(
+        sql: String,
+        batchArgs: Array<out SqlParameterSource>,
+    ): IntArray {
+        try {
+            return super.batchUpdate(sql, batchArgs)
+        } finally {
+            afterWrite(sql)
         }
-        if (paramSource.parameterNames != null && logParamsLevel != null && logParamsLevel != OFF) {
-            val params = paramSource.parameterNames?.map { "$it:${serializeValue(paramSource, it)}" }?.joinToString(";")
-            logger.log(logParamsLevel, "SQL params: $params")
+    }
+
+    override fun batchUpdate(
+        sql: String,
+        batchArgs: Array<out SqlParameterSource>,
+        generatedKeyHolder: KeyHolder,
+        keyColumnNames: Array<out String>?,
+    ): IntArray {
+        try {
+            return super.batchUpdate(sql, batchArgs, generatedKeyHolder, keyColumnNames)
+        } finally {
+            afterWrite(sql)
+        }
+    }
+
+    override fun <T> execute(
+        sql: String,
+        paramSource: SqlParameterSource,
+        action: PreparedStatementCallback<T>,
+    ): T? {
+        try {
+            return super.execute(sql, paramSource, action)
+        } finally {
+            if (!isQuery(sql)) {
+                afterWrite(sql)
+            }
+        }
+    }
+
+    /**
+     * Invalidates the cached results of the tables written by the statement.
+     * Called after the statement, even if it failed, as it could have partially succeeded.
+     *
+     * Inside a transaction, the results are invalidated again after its completion: until the commit, other threads
+     * still read and cache the old rows.
+     *
+     * @param sql The write statement.
+     */
+    protected open fun afterWrite(sql: String) {
+        val cache = queryCache ?: return
+        cache.invalidateSql(sql)
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                object : TransactionSynchronization {
+                    override fun afterCompletion(status: Int) {
+                        cache.invalidateSql(sql)
+                    }
+                },
+            )
         }
-        return super.getPreparedStatementCreator(sql, paramSource, customizer)
     }
 
+    /**
+     * Returns true if the SQL text is a plain query.
+     *
+     * @param sql The SQL text.
+     * @return True for SELECT statements.
+     */
+    protected open fun isQuery(sql: String): Boolean = sql.trimStart().startsWith("select", true)
+
+    /**
+     * Executes a query and returns its rows as a lazy stream read through a server-side cursor.
+     * The stream holds a connection and must be closed.
+     *
+     * @param sql The SQL query with named parameters.
+     * @param paramSource The parameter values.
+     * @param rowMapper The RowMapper.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @param T The type of the rows.
+     * @return The stream of the mapped rows.
+     * @throws IllegalStateException If the underlying JdbcTemplate is not a LoggingJdbcTemplate.
+     * @see LoggingJdbcTemplate.queryForCursorStream
+     */
+    open fun <T> queryForCursorStream(
+        sql: String,
+        paramSource: SqlParameterSource,
+        rowMapper: RowMapper<T>,
+        fetchSize: Int = getCursorTemplate().cursorFetchSize,
+    ): Stream<T> = getCursorTemplate().queryForCursorStream(getPreparedStatementCreator(sql, paramSource), rowMapper, fetchSize)
+
+    /**
+     * Returns the underlying JdbcTemplate supporting the cursor streams.
+     *
+     * @return The LoggingJdbcTemplate.
+     */
+    protected open fun getCursorTemplate(): LoggingJdbcTemplate = jdbcTemplate as? LoggingJdbcTemplate ?: throw IllegalStateException("Cursor streams require LoggingJdbcTemplate, got ${jdbcTemplate.javaClass.name}")
+
+    /**
+     * Serializes all parameters of the SqlParameterSource.
+     *
+     * @param paramSource The SqlParameterSource.
+     * @return The parameters description.
+     */
+    protected open fun serializeParameters(paramSource: SqlParameterSource): String = paramSource.parameterNames?.map { "$it:${serializeValue(paramSource, it)}" }?.joinToString(";") ?: ""
+
     /**
      * Serializes the value of a parameter obtained from a SqlParameterSource
      *
@@ -103,4 +283,180 @@ open class LoggingNamedParameterJdbcTemplate(
         val length = value.length
         return if (length > maxBodySize) "<TOO BIG $length bytes>" else value
     }
+
+    /**
+     * Executes the statement for every item as JDBC batches of [batchSize] rows.
+     *
+     * The items are consumed lazily, chunk by chunk, so the iterable can be bigger than the memory. String parameter
+     * values are escaped as in [EscapingSqlParameter]. One summary line is logged per batch instead of per statement.
+     *
+     * @param sql The SQL statement with named parameters.
+     * @param items The items to write.
+     * @param batchSize The number of rows per batch.
+     * @param params The function returning the named parameters of the item.
+     * @return The update counts of every batch.
+     */
+    open fun <T> batchUpdateChunked(
+        sql: String,
+        items: Iterable<T>,
+        batchSize: Int = this.batchSize,
+        params: (T) -> Map<String, Any?>,
+    ): List<IntArray> {
+        var batchNum = 0
+        return items
+            .asSequence()
+            .chunked(batchSize)
+            .map { chunk ->
+                val sources = Array<SqlParameterSource>(chunk.size) { toEscapingParameterSource(params(chunk[it])) }
+                val start = System.nanoTime()
+                val counts = batchUpdate(sql, sources)
+                logBatch(sql, ++batchNum, chunk.size, sumCounts(counts), start)
+                counts
+            }.toList()
+    }
+
+    /**
+     * Inserts the items with multi-row `INSERT INTO table (columns) VALUES (...), (...)` statements.
+     *
+     * Each statement inserts up to [batchSize] rows, additionally limited so that it has at most
+     * [MAX_STATEMENT_PARAMETERS] parameters. It is portable and saves the per-row round trips even if the driver
+     * does not rewrite batched inserts itself. String values are escaped as in [EscapingSqlParameter].
+     * The table and column names are used as is and must not come from user input.
+     *
+     * @param table The table name.
+     * @param columns The column names.
+     * @param items The items to insert.
+     * @param batchSize The maximum number of rows per statement.
+     * @param values The function returning the column values of the item, in the order of [columns].
+     * @return The total number of inserted rows.
+     */
+    open fun <T> batchInsert(
+        table: String,
+        columns: List<String>,
+        items: Iterable<T>,
+        batchSize: Int = this.batchSize,
+        values: (T) -> List<Any?>,
+    ): Long {
+        require(columns.isNotEmpty()) { "No columns to insert" }
+        val rowsPerStatement = minOf(batchSize, MAX_STATEMENT_PARAMETERS / columns.size).coerceAtLeast(1)
+        val prefix = "INSERT INTO $table (${columns.joinToString(",")}) VALUES "
+        val rowPlaceholders = columns.joinToString(",", "(", ")") { "?" }
+        var batchNum = 0
+        var total = 0L
+        items
+            .asSequence()
+            .chunked(rowsPerStatement)
+            .forEach { chunk ->
+                val args = ArrayList<Any?>(chunk.size * columns.size)
+                chunk.forEach { item ->
+                    val row = values(item)
+                    require(row.size == columns.size) { "Expected ${columns.size} values, got ${row.size}" }
+                    row.forEach { args.add(EscapingSqlParameter.escape(it)) }
+                }
+                val sql = buildMultiRowSql(prefix, rowPlaceholders, chunk.size)
+                val start = System.nanoTime()
+                val inserted =
+                    try {
+                        jdbcOperations.update(sql, *args.toArray())
+                    } finally {
+                        afterWrite(sql)
+                    }
+                total += inserted
+                logBatch(prefix + rowPlaceholders, ++batchNum, chunk.size, inserted.toLong(), start)
+            }
+        return total
+    }
+
+    /**
+     * Builds the multi-row insert SQL.
+     *
+     * @param prefix The `INSERT INTO table (columns) VALUES ` prefix.
+     * @param rowPlaceholders The placeholders of one row.
+     * @param rows The number of rows.
+     * @return The SQL text.
+     */
+    protected open fun buildMultiRowSql(
+        prefix: String,
+        rowPlaceholders: String,
+        rows: Int,
+    ): String {
+        val builder = StringBuilder(prefix.length + (rowPlaceholders.length + 1) * rows)
+        builder.append(prefix)
+        for (i in 0 until rows) {
+            if (i > 0) {
+                builder.append(',')
+            }
+            builder.append(rowPlaceholders)
+        }
+        return builder.toString()
+    }
+
+    /**
+     * Creates an escaping parameter source with the values.
+     *
+     * @param values The named parameter values.
+     * @return The parameter source.
+     */
+    protected open fun toEscapingParameterSource(values: Map<String, Any?>): SqlParameterSource {
+        val source = EscapingSqlParameter()
+        values.forEach { (name, value) -> source.addValue(name, value) }
+        return source
+    }
+
+    /**
+     * Returns the total number of affected rows, or -1 if the driver did not report it.
+     *
+     * @param counts The batch update counts.
+     * @return The total number of affected rows.
+     */
+    protected open fun sumCounts(counts: IntArray): Long {
+        var sum = 0L
+        for (count in counts) {
+            if (count < 0) {
+                return -1
+            }
+            sum += count
+        }
+        return sum
+    }
+
+    /**
+     * Logs the batch summary line.
+     *
+     * @param sql The SQL statement.
+     * @param batchNum The number of the batch.
+     * @param rows The number of rows in the batch.
+     * @param affected The number of affected rows, or -1 if unknown.
+     * @param start The batch start time in nanoseconds.
+     */
+    protected open fun logBatch(
+        sql: String,
+        batchNum: Int,
+        rows: Int,
+        affected: Long,
+        start: Long,
+    ) {
+        if (queryLoggingLevel == null || queryLoggingLevel == OFF) {
+            return
+        }
+        logger.log(queryLoggingLevel) {
+            val took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+            "SQL batch #$batchNum: $rows rows, ${if (affected < 0) "unknown" else affected.toString()} affected, took $took ms: $sql"
+        }
+    }
+
+    /**
+     * The Companion object of the LoggingNamedParameterJdbcTemplate class.
+     */
+    companion object {
+        /**
+         * The default number of rows per batch.
+         */
+        const val DEFAULT_BATCH_SIZE = 500
+
+        /**
+         * The maximum number of parameters of one multi-row insert statement, within the PostgreSQL limit.
+         */
+        const val MAX_STATEMENT_PARAMETERS = 32767
+    }
 }
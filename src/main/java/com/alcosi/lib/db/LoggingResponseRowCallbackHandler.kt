@@ -17,7 +17,6 @@
 
 package com.alcosi.lib.db
 
-import org.springframework.jdbc.core.RowCallbackHandler
 import java.sql.ResultSet
 import java.util.logging.Level
 import java.util.logging.Level.OFF
@@ -27,35 +26,128 @@ import java.util.logging.Logger
 /**
  * A callback handler that logs response rows from a ResultSet.
  *
+ * The column names are resolved once per ResultSet and the row text is built in a reused per-thread StringBuilder.
+ * Only the first [maxRows] rows are logged, the number of skipped rows is logged when the ResultSet ends.
+ *
+ * The state is kept per ResultSet in a small per-thread identity stack, so nested queries, e.g. executed by a
+ * RowMapper, do not clobber the state of the outer ResultSet. The templates end the ResultSets in `finally` blocks;
+ * if a ResultSet is never ended, its state is dropped once [MAX_OPEN_RESULT_SETS] newer ResultSets are open.
+ *
  * @param maxBodySize The maximum size of the value to be logged.
  * @param logLevel The logging level for the handler.
+ * @param maxRows The maximum number of logged rows per ResultSet, zero or negative for no limit.
  */
 open class LoggingResponseRowCallbackHandler(
     val maxBodySize: Int,
     protected val logLevel: Level?,
-) : RowCallbackHandler {
+    val maxRows: Int = 0,
+) : ConditionalRowCallbackHandler {
+    /**
+     * The states of the ResultSets currently processed by the thread, the innermost last.
+     */
+    protected val states: ThreadLocal<ArrayDeque<ResultSetState>> = ThreadLocal()
+
+    /**
+     * The row text builder of the last ended ResultSet of the thread, reused by the next one.
+     */
+    protected val spareBuilder: ThreadLocal<StringBuilder> = ThreadLocal()
+
+    /**
+     * Returns true if the logging level is set and loggable.
+     */
+    override fun isActive(): Boolean = logLevel != null && logLevel != OFF && logger.isLoggable(logLevel)
+
     /**
      * Processes a row from a ResultSet and logs the column values.
      *
      * @param rs The ResultSet containing the row to be processed.
      */
     override fun processRow(rs: ResultSet) {
-        if (logLevel == null || logLevel == OFF) {
+        if (!isActive()) {
             return
         }
-        val metaData = rs.metaData
-        val columnCount: Int = metaData.columnCount
-        val columnNames: MutableList<Pair<String, Int>> = ArrayList()
-        for (i in 1..columnCount) {
-            val columnName = metaData.getColumnName(i)
-            if (columnName != null) {
-                columnNames.add(columnName to i)
-            } else {
-                columnNames.add("<null>" to i)
+        val current = getState(rs)
+        current.rows++
+        if (maxRows > 0 && current.rows > maxRows) {
+            return
+        }
+        val builder = current.builder
+        builder.setLength(0)
+        val columns = current.columns
+        for (i in columns.indices) {
+            if (i > 0) {
+                builder.append(';')
+            }
+            builder.append(i + 1).append(':').append(columns[i]).append(':').append(serializeValue(rs, i + 1))
+        }
+        logger.log(logLevel!!, builder.toString())
+    }
+
+    /**
+     * Logs the number of rows skipped because of the [maxRows] limit and releases the ResultSet state.
+     *
+     * @param rs The finished ResultSet.
+     */
+    override fun onResultSetEnd(rs: ResultSet) {
+        val stack = states.get() ?: return
+        val index = stack.indexOfLast { it.rs === rs }
+        if (index < 0) {
+            return
+        }
+        val current = stack.removeAt(index)
+        if (stack.isEmpty()) {
+            states.remove()
+        }
+        if (current.builder.capacity() <= MAX_REUSED_BUILDER_CAPACITY) {
+            spareBuilder.set(current.builder)
+        }
+        if (maxRows > 0 && current.rows > maxRows && isActive()) {
+            logger.log(logLevel!!, "Logged $maxRows of ${current.rows} rows, ${current.rows - maxRows} rows skipped")
+        }
+    }
+
+    /**
+     * Returns the state of the ResultSet, resolving its column names on the first row.
+     *
+     * @param rs The ResultSet.
+     * @return The ResultSet state.
+     */
+    protected open fun getState(rs: ResultSet): ResultSetState {
+        var stack = states.get()
+        if (stack == null) {
+            stack = ArrayDeque(4)
+            states.set(stack)
+        } else {
+            for (i in stack.indices.reversed()) {
+                if (stack[i].rs === rs) {
+                    return stack[i]
+                }
             }
         }
-        val map = columnNames.map { "${it.second}:${it.first}:${serializeValue(rs, it.second)}" }.joinToString(";")
-        logger.log(logLevel, map)
+        val metaData = rs.metaData
+        val columns = Array(metaData.columnCount) { metaData.getColumnName(it + 1) ?: "<null>" }
+        val builder = spareBuilder.get()?.also { spareBuilder.remove() } ?: StringBuilder()
+        val created = ResultSetState(rs, columns, builder)
+        if (stack.size >= MAX_OPEN_RESULT_SETS) {
+            stack.removeFirst()
+        }
+        stack.addLast(created)
+        return created
+    }
+
+    /**
+     * Per-ResultSet logging state.
+     *
+     * @property rs The ResultSet.
+     * @property columns The column names.
+     * @property builder The reused row text builder.
+     */
+    protected class ResultSetState(
+        val rs: ResultSet,
+        val columns: Array<String>,
+        val builder: StringBuilder,
+    ) {
+        var rows = 0L
     }
 
     /**
@@ -96,5 +188,15 @@ open class LoggingResponseRowCallbackHandler(
          * @see Logger
          */
         val logger = Logger.getLogger(this::class.java.name)
+
+        /**
+         * Builders grown above this capacity are not reused by the next ResultSet.
+         */
+        const val MAX_REUSED_BUILDER_CAPACITY = 65536
+
+        /**
+         * The maximum number of the ResultSet states per thread. The oldest state is dropped above it.
+         */
+        const val MAX_OPEN_RESULT_SETS = 16
     }
 }
@@ -26,10 +26,14 @@ import java.util.logging.Logger
  * Represents a ResultSet that provides logging capabilities by overriding the `next()` method and applying a list of
  * row callbacks to the original ResultSet.
  *
+ * When the ResultSet is exhausted or [end] is called, [ConditionalRowCallbackHandler.onResultSetEnd] is invoked once.
+ *
  * @property callbacks The list of RowCallbackHandlers to be applied to the ResultSet.
  * @property original The original ResultSet to be wrapped.
  */
 data class LoggingResultSet(val callbacks: List<RowCallbackHandler>, val original: ResultSet) : ResultSet by original {
+    private var ended = false
+
     /**
      * Overrides the next() method of the ResultSet interface to provide logging capabilities.
      *
@@ -40,6 +44,8 @@ data class LoggingResultSet(val callbacks: List<RowCallbackHandler>, val origina
             val rs = original.next()
             if (rs) {
                 callbacks.forEach { it.processRow(original) }
+            } else {
+                end()
             }
             return rs
         } catch (t: Throwable) {
@@ -48,6 +54,25 @@ data class LoggingResultSet(val callbacks: List<RowCallbackHandler>, val origina
         }
     }
 
+    /**
+     * Notifies the callbacks that the ResultSet processing is finished. Subsequent calls do nothing.
+     */
+    fun end() {
+        if (ended) {
+            return
+        }
+        ended = true
+        callbacks.forEach {
+            if (it is ConditionalRowCallbackHandler) {
+                try {
+                    it.onResultSetEnd(original)
+                } catch (t: Throwable) {
+                    logger.log(Level.SEVERE, "Error! ", t)
+                }
+            }
+        }
+    }
+
     /**
      * The `Companion` class defines a singleton object containing a logger for logging purposes*/
     companion object {
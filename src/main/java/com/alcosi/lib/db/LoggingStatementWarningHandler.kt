@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import java.sql.SQLWarning
+import java.sql.Statement
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Logs the SQL warnings of a statement as one deduplicated summary per statement.
+ *
+ * Equal warnings (same SQL state, error code and message) are logged once with their number of occurrences,
+ * followed by the SQL of the statement.
+ *
+ * @property logLevel The logging level for the SQL warnings. If null or Level.OFF, no logging will be performed.
+ * @property maxUniqueWarnings The maximum number of distinct warnings listed in the summary.
+ */
+open class LoggingStatementWarningHandler(
+    protected val logLevel: Level?,
+    protected val maxUniqueWarnings: Int = 100,
+) : StatementWarningHandler {
+    /**
+     * Returns true if the logging level is set and loggable.
+     */
+    override fun isActive(): Boolean = logLevel != null && logLevel != Level.OFF && logger.isLoggable(logLevel)
+
+    /**
+     * Collects the warning chain and logs the summary.
+     *
+     * @param statement The executed statement.
+     * @param sql The SQL of the statement, or null if it is unknown.
+     * @param warning The first warning of the chain.
+     */
+    override fun handleWarnings(
+        statement: Statement,
+        sql: String?,
+        warning: SQLWarning,
+    ) {
+        if (!isActive()) {
+            return
+        }
+        val unique = LinkedHashMap<String, Int>()
+        var total = 0
+        var current: SQLWarning? = warning
+        while (current != null) {
+            total++
+            val key = "${current.sqlState}(${current.errorCode}):${current.message}"
+            if (unique.containsKey(key) || unique.size < maxUniqueWarnings) {
+                unique.merge(key, 1, Int::plus)
+            }
+            current = current.nextWarning
+        }
+        logger.log(logLevel!!, formatSummary(unique, total, sql))
+    }
+
+    /**
+     * Formats the warnings summary.
+     *
+     * @param unique The distinct warnings with their number of occurrences.
+     * @param total The total number of warnings in the chain.
+     * @param sql The SQL of the statement, or null if it is unknown.
+     * @return The log text.
+     */
+    protected open fun formatSummary(
+        unique: Map<String, Int>,
+        total: Int,
+        sql: String?,
+    ): String {
+        val builder = StringBuilder("SQL warnings: $total total, ${unique.size} unique")
+        unique.forEach { (warning, count) ->
+            builder.append("\n  ").append(warning)
+            if (count > 1) {
+                builder.append(" x").append(count)
+            }
+        }
+        if (sql != null) {
+            builder.append("\n  SQL: ").append(sql)
+        }
+        return builder.toString()
+    }
+
+    /**
+     * The `Companion` class contains a single companion object with a logger property.
+     *
+     * @property logger The logger instance for this class.
+     */
+    companion object {
+        /**
+         * The logger variable is used to log messages. It is an instance of the Logger class from the java.util.logging package.
+         */
+        val logger = Logger.getLogger(this::class.java.name)
+    }
+}
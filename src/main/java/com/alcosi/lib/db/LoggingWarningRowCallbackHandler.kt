@@ -17,7 +17,6 @@
 
 package com.alcosi.lib.db
 
-import org.springframework.jdbc.core.RowCallbackHandler
 import java.sql.ResultSet
 import java.util.logging.Level
 import java.util.logging.Logger
@@ -27,7 +26,13 @@ import java.util.logging.Logger
  *
  * @property logLevel The logging level for the SQL warnings. If null or Level.OFF, no logging will be performed.
  */
-open class LoggingWarningRowCallbackHandler(protected val logLevel: Level?) : RowCallbackHandler {
+@Deprecated("Polls the statement warnings for every row, use statement level warnings handling", replaceWith = ReplaceWith("LoggingStatementWarningHandler(logLevel)", "com.alcosi.lib.db.LoggingStatementWarningHandler"), level = DeprecationLevel.WARNING)
+open class LoggingWarningRowCallbackHandler(protected val logLevel: Level?) : ConditionalRowCallbackHandler {
+    /**
+     * Returns true if the logging level is set and loggable.
+     */
+    override fun isActive(): Boolean = logLevel != null && logLevel != Level.OFF && logger.isLoggable(logLevel)
+
     /**
      * This method is called to process a single row of a ResultSet and log any SQL warnings.
      * It is part of the LoggingWarningRowCallbackHandler class.
@@ -35,12 +40,12 @@ open class LoggingWarningRowCallbackHandler(protected val logLevel: Level?) : Ro
      * @param rs The ResultSet containing the row to process.
      */
     override fun processRow(rs: ResultSet) {
-        if (logLevel == null || logLevel == Level.OFF) {
+        if (!isActive()) {
             return
         }
         var warning = rs.statement?.warnings
         while (warning != null) {
-            logger.log(logLevel, "SQL warning ${warning.sqlState}:${warning.message}")
+            logger.log(logLevel!!, "SQL warning ${warning.sqlState}:${warning.message}")
             warning = warning.nextWarning
         }
     }
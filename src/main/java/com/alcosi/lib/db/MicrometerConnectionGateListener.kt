@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+/**
+ * Exports the [ConnectionGateDataSource] permit wait times to Micrometer as the `jdbc.connection.gate.wait` timer,
+ * tagged with the outcome (`acquired` or `timeout`).
+ *
+ * @property registry The supplier of the meter registry, the listener does nothing while it returns null.
+ * @property percentileHistogram Publish the timer percentile histogram.
+ */
+open class MicrometerConnectionGateListener(
+    protected val registry: Supplier<MeterRegistry?>,
+    protected val percentileHistogram: Boolean,
+) : ConnectionGateListener {
+    @Volatile
+    protected var timers: Pair<Timer, Timer>? = null
+
+    /**
+     * Records the wait time.
+     *
+     * @param waitNanos The wait time, in nanoseconds.
+     * @param acquired True if the permit was acquired.
+     */
+    override fun onWait(
+        waitNanos: Long,
+        acquired: Boolean,
+    ) {
+        val current = timers ?: createTimers() ?: return
+        (if (acquired) current.first else current.second).record(waitNanos, TimeUnit.NANOSECONDS)
+    }
+
+    /**
+     * Creates the timers once the meter registry is available.
+     *
+     * @return The acquired and timeout timers, or null if there is no meter registry.
+     */
+    protected open fun createTimers(): Pair<Timer, Timer>? {
+        val meterRegistry = registry.get() ?: return null
+        val created = createTimer(meterRegistry, "acquired") to createTimer(meterRegistry, "timeout")
+        timers = created
+        return created
+    }
+
+    /**
+     * Creates the wait timer.
+     *
+     * @param meterRegistry The meter registry.
+     * @param outcome The outcome tag value.
+     * @return The timer.
+     */
+    protected open fun createTimer(
+        meterRegistry: MeterRegistry,
+        outcome: String,
+    ): Timer =
+        Timer
+            .builder("jdbc.connection.gate.wait")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram(percentileHistogram)
+            .register(meterRegistry)
+}
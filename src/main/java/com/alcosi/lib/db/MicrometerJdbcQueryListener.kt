@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+
+/**
+ * Exports per-statement metrics to Micrometer, tagged with the normalized SQL text:
+ * - `jdbc.query` timer, tagged with the outcome; the `error` timer of a statement is registered on its first failure
+ * - `jdbc.query.rows` distribution summary of returned or affected rows
+ *
+ * To bound the number of meters only [maxStatements] distinct statements are tracked, the rest share the `other` tag.
+ *
+ * @property registry The supplier of the meter registry, the listener does nothing while it returns null.
+ * @property normalizer The SQL normalizer.
+ * @property maxStatements The maximum number of distinct tracked statements.
+ * @property percentileHistogram Publish the timer percentile histogram.
+ */
+open class MicrometerJdbcQueryListener(
+    protected val registry: Supplier<MeterRegistry?>,
+    protected val normalizer: SqlNormalizer,
+    protected val maxStatements: Int,
+    protected val percentileHistogram: Boolean,
+) : JdbcQueryListener {
+    /**
+     * The meters by normalized SQL text. The values are never null, the nullable type allows
+     * the mapping function to reject a new statement.
+     */
+    protected val meters: MutableMap<String, StatementMeters?> = ConcurrentHashMap()
+    protected val trackedStatements = AtomicInteger()
+
+    /**
+     * Records the statement metrics.
+     *
+     * @param event The statement event.
+     */
+    override fun onQuery(event: JdbcQueryEvent) {
+        val meterRegistry = registry.get() ?: return
+        val sql = event.sql?.let { normalizer.normalize(it) } ?: UNKNOWN
+        val statementMeters = getMeters(meterRegistry, sql)
+        if (event.error == null) {
+            statementMeters.success.record(event.tookNanos, TimeUnit.NANOSECONDS)
+        } else {
+            statementMeters.error.record(event.tookNanos, TimeUnit.NANOSECONDS)
+        }
+        if (event.rows >= 0) {
+            statementMeters.rows.record(event.rows.toDouble())
+        }
+    }
+
+    /**
+     * Returns the meters of the statement, or the shared `other` meters if [maxStatements] statements are already tracked.
+     * The slot of a new statement is reserved inside the map update, so concurrent new statements cannot exceed the limit.
+     *
+     * @param meterRegistry The meter registry.
+     * @param sql The normalized SQL text.
+     * @return The statement meters.
+     */
+    protected open fun getMeters(
+        meterRegistry: MeterRegistry,
+        sql: String,
+    ): StatementMeters {
+        meters[sql]?.let { return it }
+        val tracked =
+            meters.computeIfAbsent(sql) {
+                if (trackedStatements.incrementAndGet() > maxStatements) {
+                    trackedStatements.decrementAndGet()
+                    null
+                } else {
+                    createMeters(meterRegistry, it)
+                }
+            }
+        return tracked ?: meters.computeIfAbsent(OTHER) { createMeters(meterRegistry, it) }!!
+    }
+
+    /**
+     * Creates the meters of the statement.
+     *
+     * @param meterRegistry The meter registry.
+     * @param sql The normalized SQL text.
+     * @return The statement meters.
+     */
+    protected open fun createMeters(
+        meterRegistry: MeterRegistry,
+        sql: String,
+    ): StatementMeters =
+        StatementMeters(
+            createTimer(meterRegistry, sql, "success"),
+            DistributionSummary.builder("jdbc.query.rows").tag("sql", sql).register(meterRegistry),
+        ) { createTimer(meterRegistry, sql, "error") }
+
+    /**
+     * Creates the statement timer.
+     *
+     * @param meterRegistry The meter registry.
+     * @param sql The normalized SQL text.
+     * @param outcome The outcome tag value.
+     * @return The timer.
+     */
+    protected open fun createTimer(
+        meterRegistry: MeterRegistry,
+        sql: String,
+        outcome: String,
+    ): Timer =
+        Timer
+            .builder("jdbc.query")
+            .tag("sql", sql)
+            .tag("outcome", outcome)
+            .publishPercentileHistogram(percentileHistogram)
+            .register(meterRegistry)
+
+    /**
+     * The meters of one statement.
+     *
+     * @property success The timer of the successful executions.
+     * @property rows The row count summary.
+     * @param errorTimer Creates the timer of the failed executions, called on the first failure.
+     */
+    open class StatementMeters(
+        val success: Timer,
+        val rows: DistributionSummary,
+        errorTimer: () -> Timer,
+    ) {
+        /**
+         * The timer of the failed executions.
+         */
+        val error: Timer by lazy(LazyThreadSafetyMode.PUBLICATION, errorTimer)
+    }
+
+    /**
+     * The Companion object of the MicrometerJdbcQueryListener class.
+     */
+    companion object {
+        const val UNKNOWN = "unknown"
+        const val OTHER = "other"
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.jdbc.core.RowMapper
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations
+import org.springframework.jdbc.core.namedparam.SqlParameterSource
+
+/**
+ * Executes the query and passes the mapped rows to the handler as a lazy Sequence, without building a list.
+ *
+ * The sequence is valid only inside the handler. Note that the driver may still fetch the whole result set at once,
+ * unless a fetch size is configured for the statement.
+ *
+ * @param sql The SQL query.
+ * @param paramSource The query parameters.
+ * @param rowMapper The row mapper.
+ * @param handler The rows handler.
+ * @return The handler result.
+ */
+fun <T, R> NamedParameterJdbcOperations.querySequence(
+    sql: String,
+    paramSource: SqlParameterSource,
+    rowMapper: RowMapper<T>,
+    handler: (Sequence<T>) -> R,
+): R? = query(sql, paramSource, SequenceResultSetExtractor(rowMapper, handler))
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.jdbc.core.ParameterDisposer
+import org.springframework.jdbc.core.PreparedStatementCreator
+import org.springframework.jdbc.core.PreparedStatementSetter
+import org.springframework.jdbc.core.SqlProvider
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.util.function.Supplier
+
+/**
+ * A PreparedStatementCreator wrapper carrying the lazy parameters description.
+ *
+ * Delegates to the original creator, including its PreparedStatementSetter, SqlProvider and ParameterDisposer roles.
+ *
+ * @property delegate The original PreparedStatementCreator.
+ * @property parametersSupplier The supplier of the parameters description.
+ */
+open class ParametersAwarePreparedStatementCreator(
+    val delegate: PreparedStatementCreator,
+    protected val parametersSupplier: Supplier<String>,
+) : PreparedStatementCreator,
+    PreparedStatementSetter,
+    SqlProvider,
+    ParameterDisposer,
+    SqlParametersProvider {
+    override fun createPreparedStatement(con: Connection): PreparedStatement = delegate.createPreparedStatement(con)
+
+    override fun setValues(ps: PreparedStatement) {
+        (delegate as? PreparedStatementSetter)?.setValues(ps)
+    }
+
+    override fun getSql(): String? = (delegate as? SqlProvider)?.sql
+
+    override fun cleanupParameters() {
+        (delegate as? ParameterDisposer)?.cleanupParameters()
+    }
+
+    override fun getParameters(): Supplier<String> = parametersSupplier
+
+    override fun toString(): String = delegate.toString()
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.jdbc.core.namedparam.SqlParameterSource
+import java.time.Duration
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A read-through cache of query results, keyed by the SQL text and the parameter values.
+ *
+ * Entries expire after [ttl] and the least recently used entries are evicted when the estimated size of the cached
+ * results exceeds [maxBytes]. Every entry is tagged with the tables it reads, and writes through the same template
+ * invalidate the entries of the written tables (see [invalidateSql]).
+ *
+ * A result loaded while an invalidation happened is returned but not cached, so a concurrent write is never hidden
+ * by a result read before it. Writes of other applications or through other templates are only visible after [ttl].
+ *
+ * @property ttl The time to live of the entries.
+ * @property maxBytes The maximum estimated size of all cached results.
+ * @property maxEntryBytes The maximum estimated size of one cached result, bigger results are not cached.
+ */
+open class QueryResultCache(
+    val ttl: Duration,
+    val maxBytes: Long,
+    val maxEntryBytes: Long = maxBytes / 10,
+) {
+    protected val lock = ReentrantLock()
+    protected val entries = LinkedHashMap<Key, Entry>(16, 0.75f, true)
+    protected val tagIndex = HashMap<String, MutableSet<Key>>()
+    protected var usedBytes = 0L
+    protected var generation = 0L
+    protected val hits = AtomicLong()
+    protected val misses = AtomicLong()
+    protected val evictions = AtomicLong()
+
+    /**
+     * Returns the cached result of the query, or loads and caches it.
+     *
+     * @param sql The SQL query.
+     * @param paramSource The parameter values.
+     * @param tables The tables read by the query, if empty they are parsed from the SQL text.
+     * @param loader Executes the query.
+     * @param T The type of the rows.
+     * @return The unmodifiable query result.
+     */
+    open fun <T> getOrLoad(
+        sql: String,
+        paramSource: SqlParameterSource,
+        tables: Set<String>,
+        loader: () -> List<T>,
+    ): List<T> {
+        val key = createKey(sql, paramSource)
+        val loadGeneration: Long
+        lock.withLock {
+            val entry = entries[key]
+            if (entry != null) {
+                if (entry.expiresAt - System.nanoTime() > 0) {
+                    hits.incrementAndGet()
+                    @Suppress("UNCHECKED_CAST")
+                    return entry.value as List<T>
+                }
+                remove(key)
+            }
+            loadGeneration = generation
+        }
+        misses.incrementAndGet()
+        val value = Collections.unmodifiableList(ArrayList(loader()))
+        val size = estimateSize(value)
+        if (size <= maxEntryBytes) {
+            val tags = tables.ifEmpty { SqlTables.readTables(sql) }.mapTo(HashSet()) { SqlTables.normalize(it) }
+            lock.withLock {
+                if (generation == loadGeneration) {
+                    put(key, Entry(value, tags, size, System.nanoTime() + ttl.toNanos()))
+                }
+            }
+        }
+        return value
+    }
+
+    /**
+     * Invalidates the entries reading the tables written by the statement, or all entries if the tables are unknown.
+     *
+     * @param sql The executed write statement.
+     */
+    open fun invalidateSql(sql: String) {
+        val tables = SqlTables.writeTables(sql)
+        if (tables.isEmpty()) {
+            invalidateAll()
+        } else {
+            invalidateTables(tables)
+        }
+    }
+
+    /**
+     * Invalidates the entries reading any of the tables.
+     *
+     * @param tables The table names.
+     */
+    open fun invalidateTables(tables: Collection<String>) {
+        lock.withLock {
+            generation++
+            tables.forEach { table ->
+                tagIndex[SqlTables.normalize(table)]?.toList()?.forEach { remove(it) }
+            }
+        }
+    }
+
+    /**
+     * Invalidates all entries.
+     */
+    open fun invalidateAll() {
+        lock.withLock {
+            generation++
+            entries.clear()
+            tagIndex.clear()
+            usedBytes = 0
+        }
+    }
+
+    /**
+     * Returns the number of the cache hits.
+     */
+    open fun getHits(): Long = hits.get()
+
+    /**
+     * Returns the number of the cache misses.
+     */
+    open fun getMisses(): Long = misses.get()
+
+    /**
+     * Returns the number of entries evicted because of the size limit.
+     */
+    open fun getEvictions(): Long = evictions.get()
+
+    /**
+     * Returns the number of entries.
+     */
+    open fun getSize(): Int = lock.withLock { entries.size }
+
+    /**
+     * Returns the estimated size of the cached results.
+     */
+    open fun getBytes(): Long = lock.withLock { usedBytes }
+
+    /**
+     * Adds the entry and evicts the least recently used entries above the size limit. Must be called under the lock.
+     *
+     * @param key The entry key.
+     * @param entry The entry.
+     */
+    protected open fun put(
+        key: Key,
+        entry: Entry,
+    ) {
+        remove(key)
+        entries[key] = entry
+        usedBytes += entry.bytes
+        entry.tags.forEach { tagIndex.getOrPut(it) { HashSet() }.add(key) }
+        val iterator = entries.entries.iterator()
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            val eldest = iterator.next()
+            if (eldest.key == key) {
+                continue
+            }
+            iterator.remove()
+            unindex(eldest.key, eldest.value)
+            evictions.incrementAndGet()
+        }
+    }
+
+    /**
+     * Removes the entry. Must be called under the lock.
+     *
+     * @param key The entry key.
+     */
+    protected open fun remove(key: Key) {
+        val removed = entries.remove(key) ?: return
+        unindex(key, removed)
+    }
+
+    /**
+     * Removes the removed entry from the size and the tag index. Must be called under the lock.
+     *
+     * @param key The entry key.
+     * @param entry The removed entry.
+     */
+    protected open fun unindex(
+        key: Key,
+        entry: Entry,
+    ) {
+        usedBytes -= entry.bytes
+        entry.tags.forEach { tag ->
+            val keys = tagIndex[tag] ?: return@forEach
+            keys.remove(key)
+            if (keys.isEmpty()) {
+                tagIndex.remove(tag)
+            }
+        }
+    }
+
+    /**
+     * Creates the cache key from the SQL text and the parameter values sorted by name.
+     *
+     * @param sql The SQL query.
+     * @param paramSource The parameter values.
+     * @return The key.
+     */
+    protected open fun createKey(
+        sql: String,
+        paramSource: SqlParameterSource,
+    ): Key {
+        val names = paramSource.parameterNames ?: return Key(sql, listOf())
+        val parameters = ArrayList<Any?>(names.size * 2)
+        names.sorted().forEach {
+            parameters.add(it)
+            parameters.add(toKeyValue(paramSource.getValue(it)))
+        }
+        return Key(sql, parameters)
+    }
+
+    /**
+     * Converts arrays to lists, so that parameter values are compared by content.
+     *
+     * @param value The parameter value.
+     * @return The comparable value.
+     */
+    protected open fun toKeyValue(value: Any?): Any? =
+        when (value) {
+            is ByteArray -> value.toList()
+            is IntArray -> value.toList()
+            is LongArray -> value.toList()
+            is Array<*> -> value.map { toKeyValue(it) }
+            else -> value
+        }
+
+    /**
+     * Estimates the retained size of the result, in bytes.
+     *
+     * @param value The result or its element.
+     * @return The estimated size.
+     */
+    protected open fun estimateSize(value: Any?): Long =
+        when (value) {
+            null -> 8
+            is String -> 40L + value.length * 2L
+            is Number, is Boolean, is Char -> 16
+            is ByteArray -> 16L + value.size
+            is Collection<*> -> 40L + value.sumOf { estimateSize(it) + 8 }
+            is Map<*, *> -> 48L + value.entries.sumOf { estimateSize(it.key) + estimateSize(it.value) + 32 }
+            is Array<*> -> 16L + value.sumOf { estimateSize(it) + 8 }
+            else -> DEFAULT_OBJECT_SIZE
+        }
+
+    /**
+     * The cache key.
+     *
+     * @property sql The SQL text.
+     * @property parameters The parameter names and values, sorted by name.
+     */
+    data class Key(
+        val sql: String,
+        val parameters: List<Any?>,
+    )
+
+    /**
+     * The cache entry.
+     *
+     * @property value The unmodifiable result.
+     * @property tags The tables read by the query.
+     * @property bytes The estimated size of the result.
+     * @property expiresAt The expiration time, in System.nanoTime units.
+     */
+    class Entry(
+        val value: List<*>,
+        val tags: Set<String>,
+        val bytes: Long,
+        val expiresAt: Long,
+    )
+
+    /**
+     * The Companion object of the QueryResultCache class.
+     */
+    companion object {
+        /**
+         * The estimated size of objects of unknown types.
+         */
+        const val DEFAULT_OBJECT_SIZE = 64L
+    }
+
+    /**
+     * Extracts table names from SQL text. The extraction is approximate: it may find more tables than the statement
+     * really uses, which only leads to extra invalidations.
+     */
+    object SqlTables {
+        private val readRegex = Regex("""\b(?:FROM|JOIN)\s+((?:"[^"]+"|[\w$]+)(?:\s*\.\s*(?:"[^"]+"|[\w$]+))*)""", RegexOption.IGNORE_CASE)
+        private val writeRegex = Regex("""\b(?:INSERT\s+INTO|UPDATE|DELETE\s+FROM|MERGE\s+INTO|TRUNCATE(?:\s+TABLE)?)\s+(?:ONLY\s+)?((?:"[^"]+"|[\w$]+)(?:\s*\.\s*(?:"[^"]+"|[\w$]+))*)""", RegexOption.IGNORE_CASE)
+
+        /**
+         * Returns the tables the query reads.
+         *
+         * @param sql The SQL text.
+         * @return The table names.
+         */
+        fun readTables(sql: String): Set<String> = readRegex.findAll(sql).mapTo(HashSet()) { normalize(it.groupValues[1]) }
+
+        /**
+         * Returns the tables the statement writes.
+         *
+         * @param sql The SQL text.
+         * @return The table names.
+         */
+        fun writeTables(sql: String): Set<String> = writeRegex.findAll(sql).mapTo(HashSet()) { normalize(it.groupValues[1]) }
+
+        /**
+         * Normalizes the table name: removes the schema and the quotes and converts it to lower case.
+         *
+         * @param table The table name.
+         * @return The normalized name.
+         */
+        fun normalize(table: String): String = table.substringAfterLast('.').trim().trim('"').lowercase()
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.MeterBinder
+
+/**
+ * Binds the [QueryResultCache] statistics to Micrometer:
+ * - `jdbc.query.cache.requests` counter, tagged with the result (`hit` or `miss`)
+ * - `jdbc.query.cache.evictions` counter
+ * - `jdbc.query.cache.size` gauge of the entries
+ * - `jdbc.query.cache.bytes` gauge of the estimated size of the cached results
+ *
+ * @property cache The query result cache.
+ */
+open class QueryResultCacheMeterBinder(
+    protected val cache: QueryResultCache,
+) : MeterBinder {
+    override fun bindTo(registry: MeterRegistry) {
+        FunctionCounter.builder("jdbc.query.cache.requests", cache) { it.getHits().toDouble() }.tag("result", "hit").register(registry)
+        FunctionCounter.builder("jdbc.query.cache.requests", cache) { it.getMisses().toDouble() }.tag("result", "miss").register(registry)
+        FunctionCounter.builder("jdbc.query.cache.evictions", cache) { it.getEvictions().toDouble() }.register(registry)
+        Gauge.builder("jdbc.query.cache.size", cache) { it.getSize().toDouble() }.register(registry)
+        Gauge.builder("jdbc.query.cache.bytes", cache) { it.getBytes().toDouble() }.register(registry)
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.springframework.jdbc.core.ResultSetExtractor
+import org.springframework.jdbc.core.RowMapper
+import java.sql.ResultSet
+import java.util.function.Function
+import java.util.stream.Stream
+import kotlin.streams.asStream
+
+/**
+ * A ResultSetExtractor passing the rows to [handler] as a lazy Sequence instead of collecting them into a list.
+ *
+ * Rows are mapped one by one while the handler iterates, so only the current row is held in memory.
+ * The sequence can be iterated once and only inside the handler, because the ResultSet is closed after the extraction.
+ *
+ * @param T The type of the mapped rows.
+ * @param R The type of the handler result.
+ * @property rowMapper The row mapper.
+ * @property handler The rows handler.
+ */
+open class SequenceResultSetExtractor<T, R>(
+    protected val rowMapper: RowMapper<T>,
+    protected val handler: (Sequence<T>) -> R,
+) : ResultSetExtractor<R> {
+    /**
+     * Passes the lazy sequence of the mapped rows to the handler.
+     *
+     * @param rs The ResultSet.
+     * @return The handler result.
+     */
+    override fun extractData(rs: ResultSet): R? = handler(rowSequence(rs))
+
+    /**
+     * Creates the lazy sequence of the mapped rows. SQL NULL rows mapped to null are passed as is.
+     *
+     * @param rs The ResultSet.
+     * @return The sequence of the rows.
+     */
+    protected open fun rowSequence(rs: ResultSet): Sequence<T> =
+        sequence {
+            var rowNum = 0
+            while (rs.next()) {
+                @Suppress("UNCHECKED_CAST")
+                yield(rowMapper.mapRow(rs, rowNum++) as T)
+            }
+        }.constrainOnce()
+
+    /**
+     * The Companion object of the SequenceResultSetExtractor class.
+     */
+    companion object {
+        /**
+         * Creates an extractor passing the rows to the handler as a sequential Stream.
+         *
+         * @param rowMapper The row mapper.
+         * @param handler The rows handler.
+         * @return The extractor.
+         */
+        @JvmStatic
+        fun <T, R> stream(
+            rowMapper: RowMapper<T>,
+            handler: Function<Stream<T>, R>,
+        ): SequenceResultSetExtractor<T, R> = SequenceResultSetExtractor(rowMapper) { handler.apply(it.asStream()) }
+    }
+}
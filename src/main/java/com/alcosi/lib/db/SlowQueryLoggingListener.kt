@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Logs statements that took longer than [threshold], together with their parameters.
+ *
+ * @property threshold The slow statement threshold.
+ * @property logLevel The logging level for slow statements.
+ */
+open class SlowQueryLoggingListener(
+    protected val threshold: Duration,
+    protected val logLevel: Level,
+) : JdbcQueryListener {
+    protected val thresholdNanos = threshold.toNanos()
+
+    /**
+     * Logs the statement if it is slow.
+     *
+     * @param event The statement event.
+     */
+    override fun onQuery(event: JdbcQueryEvent) {
+        if (event.tookNanos < thresholdNanos || logLevel == Level.OFF || !logger.isLoggable(logLevel)) {
+            return
+        }
+        logger.log(logLevel, format(event))
+    }
+
+    /**
+     * Formats the slow statement log text.
+     *
+     * @param event The statement event.
+     * @return The log text.
+     */
+    protected open fun format(event: JdbcQueryEvent): String {
+        val builder = StringBuilder("Slow SQL (").append(TimeUnit.NANOSECONDS.toMillis(event.tookNanos)).append(" ms")
+        if (event.rows >= 0) {
+            builder.append(", ").append(event.rows).append(" rows")
+        }
+        if (event.error != null) {
+            builder.append(", failed: ").append(event.error.message)
+        }
+        builder.append("): ").append(event.sql ?: "<unknown>")
+        val parameters = event.parameters
+        if (parameters != null) {
+            builder.append("\nSQL params: ").append(parameters.get())
+        }
+        return builder.toString()
+    }
+
+    /**
+     * The Companion object of the SlowQueryLoggingListener class.
+     */
+    companion object {
+        val logger = Logger.getLogger(this::class.java.name)
+    }
+}
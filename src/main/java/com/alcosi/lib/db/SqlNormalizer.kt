@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Normalizes SQL text for statistics: comments are removed, literals and parameter lists are replaced with a single
+ * placeholder and whitespace is collapsed, so statements differing only in values share one key.
+ *
+ * Normalized texts are cached, the cache is reset when it reaches [maxCacheSize] entries.
+ *
+ * @property maxCacheSize The maximum number of cached normalized statements.
+ */
+open class SqlNormalizer(
+    protected val maxCacheSize: Int = 1000,
+) {
+    protected val cache: MutableMap<String, String> = ConcurrentHashMap()
+
+    /**
+     * Returns the normalized SQL text.
+     *
+     * @param sql The SQL text.
+     * @return The normalized SQL text.
+     */
+    open fun normalize(sql: String): String {
+        val cached = cache[sql]
+        if (cached != null) {
+            return cached
+        }
+        val normalized = doNormalize(sql)
+        if (cache.size >= maxCacheSize) {
+            cache.clear()
+        }
+        cache[sql] = normalized
+        return normalized
+    }
+
+    /**
+     * Normalizes the SQL text without caching.
+     *
+     * @param sql The SQL text.
+     * @return The normalized SQL text.
+     */
+    protected open fun doNormalize(sql: String): String =
+        sql
+            .replace(COMMENTS_REGEX, " ")
+            .replace(STRING_LITERAL_REGEX, "?")
+            .replace(NUMBER_LITERAL_REGEX, "?")
+            .replace(PARAMETERS_LIST_REGEX, "?")
+            .replace(WHITESPACES_REGEX, " ")
+            .trim()
+
+    /**
+     * The Companion object of the SqlNormalizer class.
+     */
+    companion object {
+        val COMMENTS_REGEX = Regex("--[^\\n]*|/\\*.*?\\*/", RegexOption.DOT_MATCHES_ALL)
+        val STRING_LITERAL_REGEX = Regex("'(?:[^']|'')*'")
+        val NUMBER_LITERAL_REGEX = Regex("(?<![\\w$])\\d+(?:\\.\\d+)?")
+        val PARAMETERS_LIST_REGEX = Regex("\\?(?:\\s*,\\s*\\?)+")
+        val WHITESPACES_REGEX = Regex("\\s+")
+    }
+}
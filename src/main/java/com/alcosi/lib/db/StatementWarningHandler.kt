@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import java.sql.SQLWarning
+import java.sql.Statement
+
+/**
+ * Handler of the SQL warnings of an executed statement.
+ *
+ * LoggingJdbcTemplate reads the warning chain once per statement, after the statement is executed and its
+ * results are processed (or it failed), and passes it to all active handlers.
+ */
+interface StatementWarningHandler {
+    /**
+     * Returns true if the handler has to be applied. If no handler is active, the warnings are not read at all.
+     */
+    fun isActive(): Boolean
+
+    /**
+     * Handles the warning chain of the statement.
+     *
+     * @param statement The executed statement.
+     * @param sql The SQL of the statement, or null if it is unknown.
+     * @param warning The first warning of the chain.
+     */
+    fun handleWarnings(
+        statement: Statement,
+        sql: String?,
+        warning: SQLWarning,
+    )
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectReader
+import org.springframework.jdbc.core.RowMapper
+import java.sql.ResultSet
+
+/**
+ * Maps a JSON column straight from the driver stream into an object, without materializing it as a String first.
+ *
+ * The column is read as a byte stream (Jackson detects the encoding) or as a character stream, depending on [source],
+ * and parsed by an ObjectReader created once for the mapper.
+ *
+ * @param T The type of the object to be mapped.
+ * @property reader The ObjectReader for the target type.
+ * @property column The index of the JSON column.
+ * @property source The kind of the column stream to read.
+ */
+open class StreamingJsonRowMapper<T : Any>(
+    protected val reader: ObjectReader,
+    protected val column: Int = 1,
+    protected val source: Source = Source.BINARY,
+) : RowMapper<T> {
+    constructor(objectMapper: ObjectMapper, type: TypeReference<T>, column: Int = 1, source: Source = Source.BINARY) : this(objectMapper.readerFor(type), column, source)
+    constructor(objectMapper: ObjectMapper, type: Class<T>, column: Int = 1, source: Source = Source.BINARY) : this(objectMapper.readerFor(type), column, source)
+
+    /**
+     * The kind of the column stream.
+     */
+    enum class Source {
+        /**
+         * ResultSet.getBinaryStream, the cheapest for drivers keeping the raw column bytes (e.g. PostgreSQL).
+         */
+        BINARY,
+
+        /**
+         * ResultSet.getCharacterStream, for drivers that do not expose textual columns as bytes.
+         */
+        CHARACTER,
+    }
+
+    /**
+     * Maps the JSON column of the current row.
+     *
+     * @param rs The ResultSet object that contains the data to be mapped.
+     * @param rowNum The current row number in the ResultSet.
+     * @return The mapped object, or null if the column is SQL NULL.
+     */
+    override fun mapRow(
+        rs: ResultSet,
+        rowNum: Int,
+    ): T? =
+        when (source) {
+            Source.BINARY -> rs.getBinaryStream(column)?.use { reader.readValue<T>(it) }
+            Source.CHARACTER -> rs.getCharacterStream(column)?.use { reader.readValue<T>(it) }
+        }
+}
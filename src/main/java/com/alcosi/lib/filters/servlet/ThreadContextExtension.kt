@@ -38,3 +38,34 @@ inline fun <reified T : Enum<T>> ThreadContext.getEnum(
 inline fun <reified T : Enum<T>> ThreadContext.getEnumOrNull(key: String): T? {
     return enumValues<T>().firstOrNull { it.name == getAll()[key] }
 }
+
+/**
+ * Returns a shallow copy of the current thread context values.
+ *
+ * @return The snapshot of the current thread context.
+ */
+fun ThreadContext.snapshot(): Map<String, Any?> = HashMap(getAll())
+
+/**
+ * Executes the block with the thread context values replaced by the snapshot and restores the previous values afterwards.
+ *
+ * The values are installed into a fresh map, because the map of an inherited context is shared with the parent thread.
+ *
+ * @param snapshot The thread context values to install.
+ * @param block The block to execute.
+ * @return The result of the block.
+ */
+fun <T> ThreadContext.withSnapshot(
+    snapshot: Map<String, Any?>,
+    block: () -> T,
+): T {
+    val saved = HashMap(getAll())
+    clear()
+    getAll().putAll(snapshot)
+    try {
+        return block()
+    } finally {
+        clear()
+        getAll().putAll(saved)
+    }
+}
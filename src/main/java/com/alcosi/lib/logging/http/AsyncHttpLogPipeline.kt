@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http
+
+import java.io.Closeable
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import java.util.logging.Logger
+import java.util.regex.Pattern
+
+/**
+ * Asynchronous HTTP log pipeline.
+ *
+ * Interceptors [offer] compact [HttpLogEvent]s into a bounded ring buffer and return immediately.
+ * A single background consumer, started by [start], formats, masks and writes the events. When the buffer is full
+ * the event is dropped and counted, and the consumer periodically reports the number of dropped events.
+ *
+ * The values of the masked headers and of the masked JSON or form body keys are replaced with [MASKED].
+ *
+ * @property name The name of the pipeline, used for the consumer thread name.
+ * @property loggingLevel The logging level for the formatted events.
+ * @property maxBodySize The maximum number of body bytes captured for each event.
+ * @property dropReportInterval The minimal interval between two reports about dropped events.
+ */
+open class AsyncHttpLogPipeline(
+    val name: String,
+    val loggingLevel: Level,
+    bufferSize: Int,
+    val maxBodySize: Int,
+    maskedHeaders: Collection<String>,
+    protected val dropReportInterval: Duration,
+    maskedBodyKeys: Collection<String> = listOf(),
+) : Closeable {
+    /**
+     * The bounded event buffer.
+     */
+    protected val buffer: BlockingQueue<HttpLogEvent> = ArrayBlockingQueue(bufferSize)
+
+    /**
+     * Names of the masked headers, compared case-insensitively.
+     */
+    protected val maskedHeaders: Set<String> = TreeSet(String.CASE_INSENSITIVE_ORDER).apply { addAll(maskedHeaders) }
+
+    /**
+     * Matches the values of the masked JSON body keys, or null if no body keys are masked.
+     */
+    protected val maskedJsonPattern: Pattern? = createBodyPattern(maskedBodyKeys, "(\"(?:%s)\"\\s*:\\s*)(\"(?:[^\"\\\\]|\\\\.)*\"|[^,}\\]\\s]+)")
+
+    /**
+     * Matches the values of the masked form body keys, or null if no body keys are masked.
+     */
+    protected val maskedFormPattern: Pattern? = createBodyPattern(maskedBodyKeys, "((?:^|[&?])(?:%s)=)([^&\\s]*)")
+
+    protected val dropped = AtomicLong()
+    protected val processed = AtomicLong()
+    protected var reportedDropped = 0L
+    protected var lastDropReport = System.currentTimeMillis()
+
+    @Volatile
+    protected var running = true
+
+    /**
+     * The consumer thread formatting and writing the events.
+     */
+    protected val consumer: Thread = Thread.ofPlatform().daemon().name("$name-http-log").unstarted { consume() }
+
+    /**
+     * Starts the consumer thread. Events offered before the start wait in the buffer.
+     *
+     * @return This pipeline.
+     */
+    @Synchronized
+    open fun start(): AsyncHttpLogPipeline {
+        if (consumer.state == Thread.State.NEW) {
+            consumer.start()
+        }
+        return this
+    }
+
+    /**
+     * Returns true if the events of this pipeline would be written to the log.
+     */
+    open fun isEnabled(): Boolean = loggingLevel != Level.OFF && logger.isLoggable(loggingLevel)
+
+    /**
+     * Offers the event to the buffer without blocking.
+     *
+     * @param event The captured event.
+     * @return True if the event was accepted, false if it was dropped because the buffer is full or the pipeline is closed.
+     */
+    open fun offer(event: HttpLogEvent): Boolean {
+        if (running && buffer.offer(event)) {
+            return true
+        }
+        dropped.incrementAndGet()
+        return false
+    }
+
+    /**
+     * Returns the total number of dropped events.
+     */
+    open fun getDroppedCount(): Long = dropped.get()
+
+    /**
+     * Returns the total number of written events.
+     */
+    open fun getProcessedCount(): Long = processed.get()
+
+    /**
+     * Returns the number of events waiting in the buffer.
+     */
+    open fun getQueuedCount(): Int = buffer.size
+
+    /**
+     * Consumer loop. Runs until the pipeline is closed and the buffer is drained.
+     */
+    protected open fun consume() {
+        while (running || buffer.isNotEmpty()) {
+            try {
+                val event = buffer.poll(dropReportInterval.toMillis(), TimeUnit.MILLISECONDS)
+                if (event != null) {
+                    logger.log(loggingLevel, format(event))
+                    processed.incrementAndGet()
+                }
+                reportDropped()
+            } catch (_: InterruptedException) {
+                continue
+            } catch (t: Throwable) {
+                logger.log(Level.SEVERE, "Error writing http log event", t)
+            }
+        }
+        reportDropped(true)
+    }
+
+    /**
+     * Logs the number of events dropped since the previous report.
+     *
+     * @param force Report regardless of the report interval.
+     */
+    protected open fun reportDropped(force: Boolean = false) {
+        val now = System.currentTimeMillis()
+        if (!force && now - lastDropReport < dropReportInterval.toMillis()) {
+            return
+        }
+        lastDropReport = now
+        val total = dropped.get()
+        val diff = total - reportedDropped
+        if (diff > 0) {
+            reportedDropped = total
+            logger.log(Level.WARNING, "$name http log buffer overflow: $diff events dropped ($total total)")
+        }
+    }
+
+    /**
+     * Formats the event into the log text.
+     *
+     * @param event The event to format.
+     * @return The log text.
+     */
+    protected open fun format(event: HttpLogEvent): String {
+        val type = if (event.type == HttpLogEvent.Type.REQUEST) "request" else "response"
+        val builder = StringBuilder(256 + (event.bodySlice?.size ?: 0))
+        builder.append("\n===========================").append(event.clientName).append(' ').append(type).append(" begin===========================")
+        builder.append("\n=ID           : ").append(event.rqId)
+        builder.append("\n=URI          : ").append(event.method).append(' ').append(event.uri)
+        if (event.status != null) {
+            builder.append("\n=Response code: ").append(event.status)
+        }
+        if (event.tookMs != null) {
+            builder.append("\n=Took         : ").append(event.tookMs).append(" ms")
+        }
+        builder.append("\n=Headers      : ")
+        val headers = event.headers
+        var i = 0
+        while (i + 1 < headers.size) {
+            if (i > 0) {
+                builder.append(';')
+            }
+            builder.append(headers[i]).append(':').append(maskHeader(headers[i], headers[i + 1]))
+            i += 2
+        }
+        builder.append("\n=Body         : ")
+        val body = event.bodySlice
+        if (body == null || body.isEmpty()) {
+            builder.append("<EMPTY>")
+        } else {
+            builder.append(maskBody(event, String(body, event.charset)))
+            if (event.isBodyTruncated()) {
+                builder.append("...<TRUNCATED, ").append(event.bodySize).append(" bytes>")
+            }
+        }
+        builder.append("\n===========================").append(event.clientName).append(' ').append(type).append(" end=============================")
+        return builder.toString()
+    }
+
+    /**
+     * Masks the header value if the header is configured as masked.
+     *
+     * @param name The header name.
+     * @param value The header value.
+     * @return The value to log.
+     */
+    protected open fun maskHeader(
+        name: String,
+        value: String,
+    ): String = if (maskedHeaders.contains(name)) MASKED else value
+
+    /**
+     * Masks the values of the masked JSON and form body keys.
+     *
+     * @param event The event the body belongs to.
+     * @param body The decoded body slice.
+     * @return The body text to log.
+     */
+    protected open fun maskBody(
+        event: HttpLogEvent,
+        body: String,
+    ): String {
+        var masked = body
+        if (maskedJsonPattern != null) {
+            masked = maskedJsonPattern.matcher(masked).replaceAll("$1\"$MASKED\"")
+        }
+        if (maskedFormPattern != null) {
+            masked = maskedFormPattern.matcher(masked).replaceAll("$1$MASKED")
+        }
+        return masked
+    }
+
+    /**
+     * Creates the case-insensitive pattern matching the values of the body keys.
+     *
+     * @param keys The masked body keys.
+     * @param format The pattern format, with the alternatives of the quoted keys as the argument.
+     * @return The pattern, or null if there are no keys.
+     */
+    protected fun createBodyPattern(
+        keys: Collection<String>,
+        format: String,
+    ): Pattern? {
+        if (keys.isEmpty()) {
+            return null
+        }
+        return Pattern.compile(format.format(keys.joinToString("|") { Pattern.quote(it) }), Pattern.CASE_INSENSITIVE)
+    }
+
+    /**
+     * Stops accepting events, drains the buffer and stops the consumer thread. Waits for the drain at most the drop
+     * report interval.
+     */
+    override fun close() {
+        running = false
+        consumer.interrupt()
+        consumer.join(dropReportInterval.toMillis())
+    }
+
+    /**
+     * The Companion object of the AsyncHttpLogPipeline class.
+     */
+    companion object {
+        val logger = Logger.getLogger(AsyncHttpLogPipeline::class.java.name)
+
+        /**
+         * Masked header value placeholder.
+         */
+        const val MASKED = "<MASKED>"
+
+        /**
+         * Builds and starts an AsyncHttpLogPipeline instance with the given properties.
+         *
+         * @param name The name of the pipeline.
+         * @param properties The asynchronous logging properties.
+         * @return The started AsyncHttpLogPipeline instance.
+         */
+        fun build(
+            name: String,
+            properties: AsyncHttpLoggingProperties,
+        ): AsyncHttpLogPipeline =
+            AsyncHttpLogPipeline(
+                name,
+                properties.loggingLevel.javaLevel,
+                properties.bufferSize,
+                properties.maxBodySize,
+                properties.maskedHeaders,
+                properties.dropReportInterval,
+                properties.maskedBodyKeys,
+            ).start()
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http;
+
+import com.alcosi.lib.logging.JavaLoggingLevel;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Settings of the asynchronous HTTP log pipeline.
+ *
+ * When enabled, interceptors only capture a compact event into a bounded buffer and a background consumer
+ * formats, masks and writes the log lines.
+ */
+public class AsyncHttpLoggingProperties {
+    /**
+     * Enables the asynchronous logging mode. Disabled by default.
+     */
+    private Boolean enabled = false;
+    /**
+     * The capacity of the event buffer. Events offered to a full buffer are dropped and counted.
+     */
+    private Integer bufferSize = 4096;
+    /**
+     * The maximum number of body bytes captured for each event.
+     */
+    private Integer maxBodySize = 10000;
+    /**
+     * The logging level for the formatted events.
+     */
+    private JavaLoggingLevel loggingLevel = JavaLoggingLevel.INFO;
+    /**
+     * Names of the headers whose values are masked in the log (case-insensitive).
+     */
+    private List<String> maskedHeaders = List.of("Authorization", "Proxy-Authorization", "Cookie", "Set-Cookie");
+    /**
+     * Names of the JSON and form body keys whose values are masked in the log (case-insensitive).
+     */
+    private List<String> maskedBodyKeys = List.of("password", "secret", "token", "accessToken", "refreshToken");
+    /**
+     * The minimal interval between two reports about dropped events.
+     */
+    private Duration dropReportInterval = Duration.ofSeconds(10);
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Integer getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(Integer bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public Integer getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodySize(Integer maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public JavaLoggingLevel getLoggingLevel() {
+        return loggingLevel;
+    }
+
+    public void setLoggingLevel(JavaLoggingLevel loggingLevel) {
+        this.loggingLevel = loggingLevel;
+    }
+
+    public List<String> getMaskedHeaders() {
+        return maskedHeaders;
+    }
+
+    public void setMaskedHeaders(List<String> maskedHeaders) {
+        this.maskedHeaders = maskedHeaders;
+    }
+
+    public List<String> getMaskedBodyKeys() {
+        return maskedBodyKeys;
+    }
+
+    public void setMaskedBodyKeys(List<String> maskedBodyKeys) {
+        this.maskedBodyKeys = maskedBodyKeys;
+    }
+
+    public Duration getDropReportInterval() {
+        return dropReportInterval;
+    }
+
+    public void setDropReportInterval(Duration dropReportInterval) {
+        this.dropReportInterval = dropReportInterval;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http
+
+import java.nio.charset.Charset
+
+/**
+ * Compact immutable snapshot of an outgoing HTTP request or response, captured on the calling thread
+ * and formatted later by [AsyncHttpLogPipeline].
+ *
+ * Headers are stored as a flat name/value array and the body as a raw byte slice, so capturing an event
+ * does not build any log text.
+ *
+ * @property type Whether the event describes a request or a response.
+ * @property clientName The name of the HTTP client (OkHTTP, RestTemplate, ...).
+ * @property rqId The context request id.
+ * @property method The HTTP method.
+ * @property uri The request URI.
+ * @property status The response status code, or null for requests.
+ * @property headers Flat array of header names and values: name0, value0, name1, value1...
+ * @property bodySlice The first bytes of the body, or null if there is no body.
+ * @property bodySize The full body size in bytes, or -1 if unknown.
+ * @property charset The charset used to decode the body slice.
+ * @property tookMs The time taken by the call in milliseconds, or null for requests.
+ * @property timestamp The time the event was captured, in epoch milliseconds.
+ */
+class HttpLogEvent(
+    val type: Type,
+    val clientName: String,
+    val rqId: String,
+    val method: String,
+    val uri: String,
+    val status: Int?,
+    val headers: Array<String>,
+    val bodySlice: ByteArray?,
+    val bodySize: Long,
+    val charset: Charset,
+    val tookMs: Long?,
+    val timestamp: Long = System.currentTimeMillis(),
+) {
+    /**
+     * Type of the captured HTTP event.
+     */
+    enum class Type {
+        REQUEST,
+        RESPONSE,
+    }
+
+    /**
+     * Returns true if the body slice does not contain the whole body.
+     */
+    fun isBodyTruncated(): Boolean = bodySlice != null && bodySize > bodySlice.size
+}
@@ -19,22 +19,164 @@ package com.alcosi.lib.logging.http.okhttp
 
 import com.alcosi.lib.filters.servlet.HeaderHelper
 import com.alcosi.lib.logging.http.AlcosiHttpLoggingHelper
+import com.alcosi.lib.logging.http.AsyncHttpLogPipeline
+import com.alcosi.lib.logging.http.HttpLogEvent
 import io.github.breninsul.logging2.HttpLoggingHelper
 import io.github.breninsul.okhttp.logging.OkHttpLoggerProperties
 import okhttp3.*
+import okio.Buffer
+import okio.Sink
+import okio.Timeout
+import okio.buffer
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 /**
  * OKLoggingInterceptor is an open class that implements the Interceptor interface and Ordered interface.
  * It intercepts the HTTP requests and logs the request and response information.
  *
+ * If [asyncPipeline] is set, the interceptor only captures [HttpLogEvent]s on the calling thread and
+ * the pipeline formats and writes them in the background.
+ *
  * @property maxBodySize The maximum size of the response body to log.
  * @property loggingLevel The logging level for the interceptor.
  * @property order The order of the interceptor in the chain.
+ * @property asyncPipeline The asynchronous log pipeline, or null for synchronous logging.
  */
 open class OKLoggingInterceptor(
     properties: OkHttpLoggerProperties,
     protected open val headerHelper: HeaderHelper,
+    protected open val asyncPipeline: AsyncHttpLogPipeline? = null,
 ) : io.github.breninsul.okhttp.logging.OKLoggingInterceptor(properties) {
     override val helper: HttpLoggingHelper = AlcosiHttpLoggingHelper({ headerHelper.getContextRqId() }, "OkHTTP", properties)
+
+    /**
+     * Intercepts the call. Delegates to the synchronous logging if no asynchronous pipeline is configured.
+     *
+     * @param chain The interceptor chain.
+     * @return The response.
+     */
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val pipeline = asyncPipeline ?: return super.intercept(chain)
+        val request = chain.request()
+        if (!pipeline.isEnabled()) {
+            return chain.proceed(request)
+        }
+        val rqId = headerHelper.getContextRqId()
+        pipeline.offer(captureRequest(pipeline, rqId, request))
+        val start = System.nanoTime()
+        val response = chain.proceed(request)
+        val took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        pipeline.offer(captureResponse(pipeline, rqId, request, response, took))
+        return response
+    }
+
+    /**
+     * Captures the request event. The body is copied only up to the pipeline maximum body size.
+     *
+     * @param pipeline The asynchronous log pipeline.
+     * @param rqId The context request id.
+     * @param request The request.
+     * @return The captured event.
+     */
+    protected open fun captureRequest(
+        pipeline: AsyncHttpLogPipeline,
+        rqId: String,
+        request: Request,
+    ): HttpLogEvent {
+        val body = request.body
+        var slice: ByteArray? = null
+        var size = -1L
+        if (body != null && !body.isDuplex() && !body.isOneShot()) {
+            val sink = LimitedSink(pipeline.maxBodySize.toLong())
+            val bufferedSink = sink.buffer()
+            body.writeTo(bufferedSink)
+            bufferedSink.flush()
+            slice = sink.buffer.readByteArray()
+            size = sink.total
+        }
+        return HttpLogEvent(
+            HttpLogEvent.Type.REQUEST,
+            "OkHTTP",
+            rqId,
+            request.method,
+            request.url.toString(),
+            null,
+            flatHeaders(request.headers),
+            slice,
+            size,
+            body?.contentType()?.charset() ?: Charsets.UTF_8,
+            null,
+        )
+    }
+
+    /**
+     * Captures the response event. The body is peeked, so it stays readable for the caller.
+     *
+     * @param pipeline The asynchronous log pipeline.
+     * @param rqId The context request id.
+     * @param request The request.
+     * @param response The response.
+     * @param took The call duration in milliseconds.
+     * @return The captured event.
+     */
+    protected open fun captureResponse(
+        pipeline: AsyncHttpLogPipeline,
+        rqId: String,
+        request: Request,
+        response: Response,
+        took: Long,
+    ): HttpLogEvent {
+        val body = response.body
+        val slice = response.peekBody(pipeline.maxBodySize.toLong()).bytes()
+        return HttpLogEvent(
+            HttpLogEvent.Type.RESPONSE,
+            "OkHTTP",
+            rqId,
+            request.method,
+            request.url.toString(),
+            response.code,
+            flatHeaders(response.headers),
+            slice,
+            body.contentLength(),
+            body.contentType()?.charset() ?: Charsets.UTF_8,
+            took,
+        )
+    }
+
+    /**
+     * Converts headers to a flat name/value array.
+     *
+     * @param headers The headers.
+     * @return The flat array: name0, value0, name1, value1...
+     */
+    protected open fun flatHeaders(headers: Headers): Array<String> = Array(headers.size * 2) { if (it % 2 == 0) headers.name(it / 2) else headers.value(it / 2) }
+
+    /**
+     * Sink that keeps only the first [limit] bytes and counts the total number of written bytes.
+     *
+     * @property limit The maximum number of kept bytes.
+     */
+    protected class LimitedSink(val limit: Long) : Sink {
+        val buffer = Buffer()
+        var total = 0L
+
+        override fun write(
+            source: Buffer,
+            byteCount: Long,
+        ) {
+            total += byteCount
+            val toKeep = minOf(byteCount, limit - buffer.size).coerceAtLeast(0)
+            if (toKeep > 0) {
+                source.read(buffer, toKeep)
+            }
+            source.skip(byteCount - toKeep)
+        }
+
+        override fun flush() {}
+
+        override fun timeout(): Timeout = Timeout.NONE
+
+        override fun close() {}
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.okhttp
+
+import com.alcosi.lib.filters.servlet.ThreadContext
+import com.alcosi.lib.filters.servlet.withSnapshot
+import okhttp3.Interceptor
+import okhttp3.Response
+import org.springframework.core.Ordered
+
+/**
+ * Interceptor restoring the caller ThreadContext for calls executed on OkHttp dispatcher threads.
+ *
+ * Calls made with [executeAsync] carry a [Snapshot] tag with the caller context values. This interceptor installs
+ * them for the rest of the chain, so OKContextHeadersInterceptor and OKLoggingInterceptor see the caller request id
+ * and context headers instead of the stale values inherited by the dispatcher thread. Untagged calls pass through.
+ *
+ * @property threadContext The ThreadContext instance.
+ * @property order The order of this interceptor in the chain, it must run before the context headers and logging interceptors.
+ */
+open class OKThreadContextInterceptor(
+    protected val threadContext: ThreadContext,
+    private val order: Int = Ordered.HIGHEST_PRECEDENCE,
+) : Interceptor, Ordered {
+    /**
+     * Proceeds with the chain within the tagged ThreadContext snapshot, if any.
+     *
+     * @param chain The interceptor chain.
+     * @return The response.
+     */
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val snapshot = chain.request().tag(Snapshot::class.java) ?: return chain.proceed(chain.request())
+        return threadContext.withSnapshot(snapshot.values) { chain.proceed(chain.request()) }
+    }
+
+    /**
+     * Returns the order of this interceptor in the chain.
+     *
+     * @return The order of this interceptor
+     */
+    override fun getOrder(): Int = order
+
+    /**
+     * Request tag holding the caller ThreadContext values.
+     *
+     * @property values The ThreadContext values.
+     */
+    class Snapshot(val values: Map<String, Any?>)
+}
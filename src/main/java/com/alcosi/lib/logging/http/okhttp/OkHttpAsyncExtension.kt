@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.okhttp
+
+import com.alcosi.lib.filters.servlet.ThreadContext
+import com.alcosi.lib.filters.servlet.snapshot
+import com.alcosi.lib.filters.servlet.withSnapshot
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Executes the request asynchronously on the client dispatcher.
+ *
+ * No thread is parked while waiting for the response: the number of concurrent calls is bounded by the dispatcher
+ * limits only. If [threadContext] is set, its current values are attached to the request for OKThreadContextInterceptor
+ * and installed while the future is completed, so dependent stages see the caller context.
+ * Cancelling the future cancels the call. The caller must close the response.
+ *
+ * @param request The request.
+ * @param threadContext The ThreadContext to propagate, or null.
+ * @return The future of the response.
+ */
+fun OkHttpClient.executeAsync(
+    request: Request,
+    threadContext: ThreadContext? = null,
+): CompletableFuture<Response> = executeAsync(request, threadContext) { it }
+
+/**
+ * Executes the request asynchronously on the client dispatcher and handles the response in the callback.
+ *
+ * The [handler] is invoked on the dispatcher thread (within the caller ThreadContext, if set), the response is closed
+ * after it unless the handler returns the response itself.
+ *
+ * @param request The request.
+ * @param threadContext The ThreadContext to propagate, or null.
+ * @param handler The response handler, it must not block.
+ * @return The future of the handler result.
+ */
+fun <T> OkHttpClient.executeAsync(
+    request: Request,
+    threadContext: ThreadContext?,
+    handler: (Response) -> T,
+): CompletableFuture<T> {
+    val snapshot = threadContext?.snapshot()
+    val tagged = if (snapshot == null) request else request.newBuilder().tag(OKThreadContextInterceptor.Snapshot::class.java, OKThreadContextInterceptor.Snapshot(snapshot)).build()
+    val call = newCall(tagged)
+    val future = CompletableFuture<T>()
+    future.whenComplete { _, t ->
+        if (t is CancellationException) {
+            call.cancel()
+        }
+    }
+    call.enqueue(
+        object : Callback {
+            override fun onFailure(
+                call: Call,
+                e: IOException,
+            ) {
+                withContext(threadContext, snapshot) { future.completeExceptionally(e) }
+            }
+
+            override fun onResponse(
+                call: Call,
+                response: Response,
+            ) {
+                withContext(threadContext, snapshot) {
+                    try {
+                        val result = handler(response)
+                        if (result !== response) {
+                            response.close()
+                        }
+                        if (!future.complete(result) && result === response) {
+                            response.close()
+                        }
+                    } catch (t: Throwable) {
+                        response.close()
+                        future.completeExceptionally(t)
+                    }
+                }
+            }
+        },
+    )
+    return future
+}
+
+/**
+ * Executes the block within the snapshot, if any.
+ */
+private fun withContext(
+    threadContext: ThreadContext?,
+    snapshot: Map<String, Any?>?,
+    block: () -> Unit,
+) {
+    if (threadContext == null || snapshot == null) {
+        block()
+    } else {
+        threadContext.withSnapshot(snapshot, block)
+    }
+}
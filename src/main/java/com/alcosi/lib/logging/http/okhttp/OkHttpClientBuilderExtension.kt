@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.okhttp
+
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sets a new connection pool and dispatcher configured with the given properties.
+ *
+ * @param properties The connection pool and dispatcher settings.
+ * @return This builder.
+ */
+fun OkHttpClient.Builder.connectionSettings(properties: OkHttpConnectionProperties): OkHttpClient.Builder {
+    val dispatcher = Dispatcher()
+    dispatcher.maxRequests = properties.maxRequests
+    dispatcher.maxRequestsPerHost = properties.maxRequestsPerHost
+    return this
+        .connectionPool(ConnectionPool(properties.maxIdleConnections, properties.keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+        .dispatcher(dispatcher)
+}
+
+/**
+ * Creates a client builder sharing the connection pool and dispatcher of the root client if it is present,
+ * or a fresh builder with its own pool and dispatcher configured with the given properties otherwise.
+ *
+ * @param root The shared root client, or null.
+ * @param properties The connection pool and dispatcher settings used without a root client.
+ * @return The client builder.
+ */
+fun newOkHttpClientBuilder(
+    root: OkHttpClient?,
+    properties: OkHttpConnectionProperties,
+): OkHttpClient.Builder = root?.newBuilder() ?: OkHttpClient.Builder().connectionSettings(properties)
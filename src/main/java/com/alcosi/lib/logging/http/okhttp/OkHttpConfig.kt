@@ -18,11 +18,14 @@
 package com.alcosi.lib.logging.http.okhttp
 
 import com.alcosi.lib.filters.servlet.HeaderHelper
+import com.alcosi.lib.filters.servlet.ThreadContext
+import com.alcosi.lib.logging.http.AsyncHttpLogPipeline
 import com.alcosi.lib.logging.http.OrderedComparator
 import io.github.breninsul.okhttp.logging.OkHttpLoggerConfiguration
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
 import org.springframework.beans.factory.ObjectProvider
+import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.boot.autoconfigure.AutoConfiguration
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass
@@ -50,10 +53,21 @@ import org.springframework.context.annotation.Primary
 @EnableConfigurationProperties(OkHttpLoggingProperties::class)
 @ConditionalOnProperty(prefix = "common-lib.okhttp", name = ["enabled"], matchIfMissing = true, havingValue = "true")
 class OkHttpConfig {
+    /**
+     * Creates the asynchronous log pipeline used by the OKLoggingInterceptor when async logging is enabled.
+     *
+     * @param properties The OkHttpLoggingProperties object that holds the logging configuration properties.
+     * @return The AsyncHttpLogPipeline instance.
+     */
+    @Bean("okHttpAsyncLogPipeline")
+    @ConditionalOnProperty(prefix = "common-lib.okhttp.async-logging", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+    fun getOkHttpAsyncLogPipeline(properties: OkHttpLoggingProperties): AsyncHttpLogPipeline = AsyncHttpLogPipeline.build("OkHTTP", properties.asyncLogging)
+
     /**
      * Retrieves an instance of the OKLoggingInterceptor class.
      *
      * @param properties The OkHttpLoggingProperties object that holds the logging configuration properties.
+     * @param asyncPipeline The asynchronous log pipeline, available only if async logging is enabled.
      */
     @Bean
     @ConditionalOnMissingBean(OKLoggingInterceptor::class)
@@ -62,8 +76,9 @@ class OkHttpConfig {
     fun getOKLoggingInterceptor(
         properties: OkHttpLoggingProperties,
         headerHelper: HeaderHelper,
+        @Qualifier("okHttpAsyncLogPipeline") asyncPipeline: ObjectProvider<AsyncHttpLogPipeline>,
     ): OKLoggingInterceptor {
-        return OKLoggingInterceptor(properties.logging, headerHelper)
+        return OKLoggingInterceptor(properties.logging, headerHelper, asyncPipeline.ifAvailable)
     }
 
     /**
@@ -77,18 +92,42 @@ class OkHttpConfig {
     @ConditionalOnProperty(prefix = "common-lib.okhttp", name = ["context-headers-disabled"], matchIfMissing = true, havingValue = "false")
     fun getOKContextInterceptor(headerHelper: HeaderHelper): OKContextHeadersInterceptor = OKContextHeadersInterceptor(headerHelper, 0)
 
+    /**
+     * Retrieves an instance of the OKThreadContextInterceptor class, restoring the caller ThreadContext for asynchronous calls.
+     *
+     * @param threadContext The ThreadContext instance.
+     **/
+    @Bean
+    @ConditionalOnMissingBean(OKThreadContextInterceptor::class)
+    @ConditionalOnBean(ThreadContext::class)
+    fun getOKThreadContextInterceptor(threadContext: ThreadContext): OKThreadContextInterceptor = OKThreadContextInterceptor(threadContext)
+
+    /**
+     * Creates the shared root OkHttpClient holding the connection pool and dispatcher.
+     * Library clients are derived from it with [OkHttpClient.newBuilder], so they reuse its sockets and threads.
+     *
+     * @param properties The OkHttpLoggingProperties object that holds the connection settings.
+     * @return The root OkHttpClient without interceptors.
+     */
+    @Bean("okHttpRootClient")
+    @ConditionalOnProperty(prefix = "common-lib.okhttp", name = ["shared-root-client"], matchIfMissing = false, havingValue = "true")
+    fun createOkHttpRootClient(properties: OkHttpLoggingProperties): OkHttpClient = OkHttpClient.Builder().connectionSettings(properties.connection).build()
+
     /**
      * Creates an instance of OkHttpClient with the provided configurations.
      *
-     * @param properties The OkHttpLoggingProperties*/
+     * @param properties The OkHttpLoggingProperties
+     * @param rootClient The shared root client, available only if it is enabled.
+     */
     @Bean("okHttpClient")
     @Primary
     fun createOkHttpClient(
         properties: OkHttpLoggingProperties,
         headerHelper: HeaderHelper,
         interceptors: ObjectProvider<Interceptor>,
+        @Qualifier("okHttpRootClient") rootClient: ObjectProvider<OkHttpClient>,
     ): OkHttpClient {
-        val builder = OkHttpClient.Builder()
+        val builder = newOkHttpClientBuilder(rootClient.ifAvailable, properties.connection)
         configureTimeouts(
             builder,
             interceptors.toList().sortedWith(OrderedComparator),
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.okhttp;
+
+import java.time.Duration;
+
+/**
+ * Connection pool and dispatcher settings of an OkHttpClient.
+ *
+ * The defaults match the OkHttp defaults.
+ */
+public class OkHttpConnectionProperties {
+    /**
+     * The maximum number of idle connections kept in the connection pool.
+     */
+    private Integer maxIdleConnections = 5;
+    /**
+     * The time an idle connection is kept in the connection pool.
+     */
+    private Duration keepAlive = Duration.ofMinutes(5);
+    /**
+     * The maximum number of concurrent asynchronous requests of the dispatcher.
+     */
+    private Integer maxRequests = 64;
+    /**
+     * The maximum number of concurrent asynchronous requests per host of the dispatcher.
+     */
+    private Integer maxRequestsPerHost = 5;
+
+    public Integer getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public void setMaxIdleConnections(Integer maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public Integer getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(Integer maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+
+    public Integer getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(Integer maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.alcosi.lib.logging.http.okhttp;
 
+import com.alcosi.lib.logging.http.AsyncHttpLoggingProperties;
 import io.github.breninsul.okhttp.logging.OkHttpLoggerProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -34,6 +35,19 @@ public class OkHttpLoggingProperties {
     private Duration readTimeout = Duration.ofSeconds(120);
     private Duration writeTimeout = Duration.ofSeconds(120);
     private OkHttpLoggerProperties logging= new OkHttpLoggerProperties();
+    /**
+     * Asynchronous logging mode settings. If enabled, the log text is formatted in the background.
+     */
+    private AsyncHttpLoggingProperties asyncLogging = new AsyncHttpLoggingProperties();
+    /**
+     * Connection pool and dispatcher settings.
+     */
+    private OkHttpConnectionProperties connection = new OkHttpConnectionProperties();
+    /**
+     * Create one shared root client with the configured connection pool and dispatcher.
+     * All library clients (okHttpClient, cryptoNodeHttpClient) are derived from it and reuse its sockets and threads.
+     */
+    private Boolean sharedRootClient = false;
 
     public Boolean getEnabled() {
         return enabled;
@@ -82,4 +96,28 @@ public class OkHttpLoggingProperties {
     public void setLogging(OkHttpLoggerProperties logging) {
         this.logging = logging;
     }
+
+    public AsyncHttpLoggingProperties getAsyncLogging() {
+        return asyncLogging;
+    }
+
+    public void setAsyncLogging(AsyncHttpLoggingProperties asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    public OkHttpConnectionProperties getConnection() {
+        return connection;
+    }
+
+    public void setConnection(OkHttpConnectionProperties connection) {
+        this.connection = connection;
+    }
+
+    public Boolean getSharedRootClient() {
+        return sharedRootClient;
+    }
+
+    public void setSharedRootClient(Boolean sharedRootClient) {
+        this.sharedRootClient = sharedRootClient;
+    }
 }
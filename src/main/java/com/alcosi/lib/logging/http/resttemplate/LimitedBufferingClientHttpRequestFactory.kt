@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.resttemplate
+
+import org.springframework.http.HttpMethod
+import org.springframework.http.client.AbstractClientHttpRequestFactoryWrapper
+import org.springframework.http.client.ClientHttpRequest
+import org.springframework.http.client.ClientHttpRequestFactory
+import org.springframework.http.client.ClientHttpResponse
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.io.SequenceInputStream
+import java.net.URI
+
+/**
+ * A ClientHttpRequestFactory wrapper that buffers response bodies only up to [limit] bytes.
+ *
+ * Unlike BufferingClientHttpRequestFactory, bigger bodies are not materialized on-heap: only the first
+ * [limit] bytes are read ahead (and are available for logging), the rest streams through from the connection.
+ *
+ * @param requestFactory The delegate request factory.
+ * @property limit The maximum number of buffered response bytes, usually the logging body size limit.
+ */
+open class LimitedBufferingClientHttpRequestFactory(
+    requestFactory: ClientHttpRequestFactory,
+    protected val limit: Int,
+) : AbstractClientHttpRequestFactoryWrapper(requestFactory) {
+    /**
+     * Creates a request whose response is buffered up to the limit.
+     *
+     * @param uri The request URI.
+     * @param httpMethod The HTTP method.
+     * @param requestFactory The delegate request factory.
+     * @return The wrapped request.
+     */
+    override fun createRequest(
+        uri: URI,
+        httpMethod: HttpMethod,
+        requestFactory: ClientHttpRequestFactory,
+    ): ClientHttpRequest = LimitedBufferingClientHttpRequest(requestFactory.createRequest(uri, httpMethod), limit)
+}
+
+/**
+ * A ClientHttpRequest wrapper returning [LimitedBufferingClientHttpResponse]s.
+ *
+ * @property delegate The original request.
+ * @property limit The maximum number of buffered response bytes.
+ */
+open class LimitedBufferingClientHttpRequest(
+    protected val delegate: ClientHttpRequest,
+    protected val limit: Int,
+) : ClientHttpRequest by delegate {
+    /**
+     * Executes the original request and wraps the response.
+     *
+     * @return The wrapped response.
+     */
+    override fun execute(): ClientHttpResponse = LimitedBufferingClientHttpResponse(delegate.execute(), limit)
+}
+
+/**
+ * A ClientHttpResponse wrapper that reads ahead at most [limit] + 1 bytes of the body.
+ *
+ * If the whole body fits into the limit, the body is repeatable, as with BufferingClientHttpRequestFactory.
+ * Otherwise the response is streaming: [getBody] returns the read-ahead bytes followed by the rest of the
+ * connection stream, and only the first [limit] bytes are kept for logging.
+ *
+ * @property delegate The original response.
+ * @property limit The maximum number of buffered bytes.
+ */
+open class LimitedBufferingClientHttpResponse(
+    protected val delegate: ClientHttpResponse,
+    protected val limit: Int,
+) : ClientHttpResponse by delegate {
+    protected var readAhead: ByteArray? = null
+    protected var streamingBody: InputStream? = null
+
+    /**
+     * Reads ahead up to [limit] + 1 bytes of the original body once.
+     *
+     * @return The read-ahead bytes.
+     */
+    protected open fun readAhead(): ByteArray {
+        val existed = readAhead
+        if (existed != null) {
+            return existed
+        }
+        val bytes = delegate.body.readNBytes(limit + 1)
+        readAhead = bytes
+        return bytes
+    }
+
+    /**
+     * Returns true if the body exceeds the limit and is streamed instead of being buffered.
+     */
+    open fun isStreaming(): Boolean = readAhead().size > limit
+
+    /**
+     * Returns the buffered bytes: the whole body if it fits into the limit, otherwise its first [limit] bytes.
+     */
+    open fun getBufferedPrefix(): ByteArray {
+        val bytes = readAhead()
+        return if (bytes.size > limit) bytes.copyOf(limit) else bytes
+    }
+
+    /**
+     * Returns the body. A buffered body can be read several times, a streaming body returns the same stream on each call.
+     *
+     * @return The body stream.
+     */
+    override fun getBody(): InputStream {
+        val bytes = readAhead()
+        if (bytes.size <= limit) {
+            return ByteArrayInputStream(bytes)
+        }
+        val existed = streamingBody
+        if (existed != null) {
+            return existed
+        }
+        val stream = SequenceInputStream(ByteArrayInputStream(bytes), delegate.body)
+        streamingBody = stream
+        return stream
+    }
+
+    /**
+     * Returns a response view whose body is the buffered prefix only.
+     * The view does not close the original response, so it can be handed to loggers safely.
+     *
+     * @return The prefix view.
+     */
+    open fun prefixView(): ClientHttpResponse {
+        val original = this
+        return object : ClientHttpResponse by original {
+            override fun getBody(): InputStream = ByteArrayInputStream(original.getBufferedPrefix())
+
+            override fun close() {}
+        }
+    }
+
+    override fun close() {
+        delegate.close()
+    }
+}
@@ -18,9 +18,11 @@
 package com.alcosi.lib.logging.http.resttemplate
 
 import com.alcosi.lib.filters.servlet.HeaderHelper
+import com.alcosi.lib.logging.http.AsyncHttpLogPipeline
 import com.alcosi.lib.logging.http.OrderedComparator
 import io.github.breninsul.rest.logging.RestTemplateLoggerConfiguration
 import org.springframework.beans.factory.ObjectProvider
+import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.boot.autoconfigure.AutoConfiguration
 import org.springframework.boot.autoconfigure.AutoConfigureBefore
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean
@@ -37,9 +39,13 @@ import org.springframework.context.annotation.Bean
 import org.springframework.http.client.BufferingClientHttpRequestFactory
 import org.springframework.http.client.ClientHttpRequestFactory
 import org.springframework.http.client.ClientHttpRequestInterceptor
+import org.springframework.http.client.JdkClientHttpRequestFactory
 import org.springframework.http.client.SimpleClientHttpRequestFactory
 import org.springframework.web.client.RestClient
 import org.springframework.web.client.RestTemplate
+import java.net.http.HttpClient
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 /** This class configures the RestTemplate for making HTTP requests. */
 @AutoConfiguration
@@ -47,11 +53,23 @@ import org.springframework.web.client.RestTemplate
 @EnableConfigurationProperties(RestTemplateProperties::class)
 @ConditionalOnProperty(prefix = "common-lib.rest-template", name = ["enabled"], matchIfMissing = true, havingValue = "true")
 class RestTemplateConfig {
+    /**
+     * Creates the asynchronous log pipeline used by the RestTemplateLogRequestResponseFilter when async logging is enabled.
+     *
+     * @param properties The properties for configuring the filter.
+     * @return The AsyncHttpLogPipeline instance.
+     */
+    @Bean("restTemplateAsyncLogPipeline")
+    @ConditionalOnClass(RestTemplate::class)
+    @ConditionalOnProperty(prefix = "common-lib.rest-template.async-logging", name = ["enabled"], matchIfMissing = false, havingValue = "true")
+    fun getRestTemplateAsyncLogPipeline(properties: RestTemplateProperties): AsyncHttpLogPipeline = AsyncHttpLogPipeline.build("RestTemplate", properties.asyncLogging)
+
     /**
      * Retrieves the `RestTemplateLogRequestResponseFilter` instance.
      *
      * @param properties The properties for configuring the filter.
      * @param headerHelper The HeaderHelper instance used by the filter.
+     * @param asyncPipeline The asynchronous log pipeline, available only if async logging is enabled.
      * @return The RestTemplateLogRequestResponseFilter instance.
      */
     @Bean
@@ -62,8 +80,9 @@ class RestTemplateConfig {
     fun getLogRequestResponseFilter(
         properties: RestTemplateProperties,
         headerHelper: HeaderHelper,
+        @Qualifier("restTemplateAsyncLogPipeline") asyncPipeline: ObjectProvider<AsyncHttpLogPipeline>,
     ): RestTemplateLogRequestResponseFilter {
-        return RestTemplateLogRequestResponseFilter(properties.logging, headerHelper)
+        return RestTemplateLogRequestResponseFilter(properties.logging, headerHelper, asyncPipeline.ifAvailable)
     }
 
     /**
@@ -80,22 +99,120 @@ class RestTemplateConfig {
     fun getRestTemplateContextFilter(headerHelper: HeaderHelper): RestTemplateContextHeadersFilter = RestTemplateContextHeadersFilter(headerHelper, 0)
 
     /**
-     * Retrieves a SimpleClientHttpRequestFactory instance with configured
+     * Creates the virtual-thread-per-task executor of the shared JDK HttpClient. It is closed with the context.
+     *
+     * @return The ExecutorService instance.
+     */
+    @Bean("restTemplateJdkHttpClientExecutor", destroyMethod = "close")
+    @ConditionalOnClass(RestTemplate::class)
+    @ConditionalOnProperty(prefix = "common-lib.rest-template", name = ["client-type"], matchIfMissing = false, havingValue = "JDK")
+    @ConditionalOnProperty(prefix = "common-lib.rest-template.jdk", name = ["virtual-threads"], matchIfMissing = true, havingValue = "true")
+    fun getJdkHttpClientExecutor(): ExecutorService = Executors.newVirtualThreadPerTaskExecutor()
+
+    /**
+     * Creates the shared JDK HttpClient used by the default request factory if client type is JDK.
+     * The client owns one connection pool for both restTemplate and restClient.
+     *
+     * @param properties The properties used to configure the client.
+     * @param executor The virtual-thread-per-task executor, available only if virtual threads are enabled.
+     * @return The HttpClient instance.
+     */
+    @Bean("restTemplateJdkHttpClient")
+    @ConditionalOnClass(RestTemplate::class)
+    @ConditionalOnProperty(prefix = "common-lib.rest-template", name = ["client-type"], matchIfMissing = false, havingValue = "JDK")
+    fun getJdkHttpClient(
+        properties: RestTemplateProperties,
+        @Qualifier("restTemplateJdkHttpClientExecutor") executor: ObjectProvider<ExecutorService>,
+    ): HttpClient {
+        val jdk = properties.jdk
+        val builder =
+            HttpClient
+                .newBuilder()
+                .connectTimeout(properties.connectTimeout)
+                .version(if (jdk.http2) HttpClient.Version.HTTP_2 else HttpClient.Version.HTTP_1_1)
+        executor.ifAvailable?.let { builder.executor(it) }
+        return builder.build()
+    }
+
+    /**
+     * Retrieves a ClientHttpRequestFactory instance with configured
      * connection and read timeouts.
+     * Uses SimpleClientHttpRequestFactory by default, or the shared JDK HttpClient if client type is JDK.
      *
      * @param properties The properties used to configure the
-     *     SimpleClientHttpRequestFactory.
-     * @return The SimpleClientHttpRequestFactory instance.
+     *     request factory.
+     * @param jdkHttpClient The shared JDK HttpClient, available only if client type is JDK.
+     * @return The ClientHttpRequestFactory instance.
      */
     @Bean("clientHttpRequestFactory")
     @ConditionalOnClass(RestTemplate::class)
     @ConditionalOnMissingBean(ClientHttpRequestFactory::class)
-    fun getSimpleClientHttpRequestFactory(properties: RestTemplateProperties): ClientHttpRequestFactory {
+    fun getSimpleClientHttpRequestFactory(
+        properties: RestTemplateProperties,
+        @Qualifier("restTemplateJdkHttpClient") jdkHttpClient: ObjectProvider<HttpClient>,
+    ): ClientHttpRequestFactory {
+        val httpClient = jdkHttpClient.ifAvailable
+        if (properties.clientType == RestTemplateProperties.ClientType.JDK && httpClient != null) {
+            return wrapBuffering(createJdkClientHttpRequestFactory(httpClient, properties), properties)
+        }
         val simpleClientHttpRequestFactory = SimpleClientHttpRequestFactory()
         simpleClientHttpRequestFactory.setConnectTimeout(properties.connectTimeout.toMillis().toInt())
         simpleClientHttpRequestFactory.setReadTimeout(properties.readTimeout.toMillis().toInt())
-        val factory = BufferingClientHttpRequestFactory(simpleClientHttpRequestFactory)
-        return factory
+        return wrapBuffering(simpleClientHttpRequestFactory, properties)
+    }
+
+    /**
+     * Creates a request factory backed by the shared JDK HttpClient, limited per route if configured.
+     *
+     * @param httpClient The shared JDK HttpClient.
+     * @param properties The properties used to configure the request factory.
+     * @return The ClientHttpRequestFactory instance.
+     */
+    protected fun createJdkClientHttpRequestFactory(
+        httpClient: HttpClient,
+        properties: RestTemplateProperties,
+    ): ClientHttpRequestFactory {
+        val factory = JdkClientHttpRequestFactory(httpClient)
+        factory.setReadTimeout(properties.readTimeout)
+        val maxPerRoute = properties.jdk.maxConnectionsPerRoute
+        return if (maxPerRoute > 0) {
+            RouteLimitingClientHttpRequestFactory(factory, maxPerRoute, properties.jdk.routeAcquireTimeout)
+        } else {
+            factory
+        }
+    }
+
+    /**
+     * Wraps the request factory according to the configured buffering mode.
+     *
+     * @param factory The request factory to wrap.
+     * @param properties The properties holding the buffering mode and limit.
+     * @return The buffering request factory.
+     */
+    protected fun wrapBuffering(
+        factory: ClientHttpRequestFactory,
+        properties: RestTemplateProperties,
+    ): ClientHttpRequestFactory =
+        when (properties.bufferingMode) {
+            RestTemplateProperties.BufferingMode.LIMITED -> LimitedBufferingClientHttpRequestFactory(factory, getBufferingLimit(properties))
+            else -> BufferingClientHttpRequestFactory(factory)
+        }
+
+    /**
+     * Returns the buffering limit of the LIMITED mode, the asynchronous logging body size limit if it is not set.
+     * A limit below the logging body size limit is rejected when asynchronous logging is enabled,
+     * since the logged prefix of a streamed body would be cut at the buffering limit.
+     *
+     * @param properties The properties holding the buffering limit and the logging settings.
+     * @return The buffering limit.
+     */
+    protected fun getBufferingLimit(properties: RestTemplateProperties): Int {
+        val loggingLimit = properties.asyncLogging.maxBodySize
+        val limit = properties.bufferingLimit ?: return loggingLimit
+        require(!properties.asyncLogging.enabled || limit >= loggingLimit) {
+            "common-lib.rest-template.buffering-limit ($limit) must be at least common-lib.rest-template.async-logging.max-body-size ($loggingLimit)"
+        }
+        return limit
     }
 
     /**
@@ -19,9 +19,18 @@ package com.alcosi.lib.logging.http.resttemplate
 
 import com.alcosi.lib.filters.servlet.HeaderHelper
 import com.alcosi.lib.logging.http.AlcosiHttpLoggingHelper
+import com.alcosi.lib.logging.http.AsyncHttpLogPipeline
+import com.alcosi.lib.logging.http.HttpLogEvent
 import io.github.breninsul.logging2.HttpLoggingHelper
 import io.github.breninsul.rest.logging.*
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpRequest
+import org.springframework.http.MediaType
+import org.springframework.http.client.ClientHttpRequestExecution
+import org.springframework.http.client.ClientHttpResponse
+import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 /**
  * The `RestTemplateLogRequestResponseFilter` class is a subclass of `RestTemplateLoggingInterceptor` and is responsible
@@ -29,6 +38,8 @@ import java.util.*
  *
  * @param properties The properties used to configure the filter.
  * @param headerHelper The `HeaderHelper` instance used by the filter.
+ * @param asyncPipeline The asynchronous log pipeline, or null for synchronous logging. If set, the filter only
+ *   captures [HttpLogEvent]s on the calling thread and the pipeline formats and writes them in the background.
  *
  * @see RestTemplate
  */
@@ -36,6 +47,143 @@ open class RestTemplateLogRequestResponseFilter(
     properties: RestTemplateLoggerProperties,
 
     protected open val headerHelper: HeaderHelper,
+    protected open val asyncPipeline: AsyncHttpLogPipeline? = null,
 ) : RestTemplateLoggingInterceptor(properties) {
     override val helper: HttpLoggingHelper = AlcosiHttpLoggingHelper({ headerHelper.getContextRqId() }, "RestTemplate", properties)
+
+    /**
+     * Intercepts the request. Delegates to the synchronous logging if no asynchronous pipeline is configured.
+     *
+     * @param request The HTTP request.
+     * @param body The request body.
+     * @param execution The request execution.
+     * @return The response.
+     */
+    override fun intercept(
+        request: HttpRequest,
+        body: ByteArray,
+        execution: ClientHttpRequestExecution,
+    ): ClientHttpResponse {
+        val pipeline = asyncPipeline ?: return interceptSync(request, body, execution)
+        if (!pipeline.isEnabled()) {
+            return execution.execute(request, body)
+        }
+        val rqId = headerHelper.getContextRqId()
+        val slice = if (body.size <= pipeline.maxBodySize) body else body.copyOf(pipeline.maxBodySize)
+        pipeline.offer(
+            HttpLogEvent(
+                HttpLogEvent.Type.REQUEST,
+                "RestTemplate",
+                rqId,
+                request.method.name(),
+                request.uri.toString(),
+                null,
+                flatHeaders(request.headers),
+                slice,
+                body.size.toLong(),
+                getCharset(request.headers),
+                null,
+            ),
+        )
+        val start = System.nanoTime()
+        val response = execution.execute(request, body)
+        val took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        pipeline.offer(captureResponse(pipeline, rqId, request, response, took))
+        return response
+    }
+
+    /**
+     * Logs synchronously. A streaming [LimitedBufferingClientHttpResponse] is logged through its buffered prefix
+     * and returned to the caller untouched, so the logger never consumes the streamed body.
+     *
+     * @param request The HTTP request.
+     * @param body The request body.
+     * @param execution The request execution.
+     * @return The response.
+     */
+    protected open fun interceptSync(
+        request: HttpRequest,
+        body: ByteArray,
+        execution: ClientHttpRequestExecution,
+    ): ClientHttpResponse {
+        var streaming: ClientHttpResponse? = null
+        val logged =
+            super.intercept(request, body) { rq, rqBody ->
+                val response = execution.execute(rq, rqBody)
+                if (response is LimitedBufferingClientHttpResponse && response.isStreaming()) {
+                    streaming = response
+                    response.prefixView()
+                } else {
+                    response
+                }
+            }
+        return streaming ?: logged
+    }
+
+    /**
+     * Captures the response event. Reads only the first bytes of the body: the response must be repeatable
+     * or a [LimitedBufferingClientHttpResponse], whose buffered prefix is used for a streaming body.
+     *
+     * @param pipeline The asynchronous log pipeline.
+     * @param rqId The context request id.
+     * @param request The request.
+     * @param response The response.
+     * @param took The call duration in milliseconds.
+     * @return The captured event.
+     */
+    protected open fun captureResponse(
+        pipeline: AsyncHttpLogPipeline,
+        rqId: String,
+        request: HttpRequest,
+        response: ClientHttpResponse,
+        took: Long,
+    ): HttpLogEvent {
+        val slice =
+            if (response is LimitedBufferingClientHttpResponse && response.isStreaming()) {
+                response.getBufferedPrefix().let { if (it.size <= pipeline.maxBodySize) it else it.copyOf(pipeline.maxBodySize) }
+            } else {
+                response.body.readNBytes(pipeline.maxBodySize)
+            }
+        return HttpLogEvent(
+            HttpLogEvent.Type.RESPONSE,
+            "RestTemplate",
+            rqId,
+            request.method.name(),
+            request.uri.toString(),
+            response.statusCode.value(),
+            flatHeaders(response.headers),
+            slice,
+            response.headers.contentLength,
+            getCharset(response.headers),
+            took,
+        )
+    }
+
+    /**
+     * Converts headers to a flat name/value array.
+     *
+     * @param headers The headers.
+     * @return The flat array: name0, value0, name1, value1...
+     */
+    protected open fun flatHeaders(headers: HttpHeaders): Array<String> {
+        val result = ArrayList<String>(headers.size * 2)
+        headers.forEach { (name, values) ->
+            values.forEach { value ->
+                result.add(name)
+                result.add(value)
+            }
+        }
+        return result.toTypedArray()
+    }
+
+    /**
+     * Returns the charset of the content type, or UTF-8 if it is not set.
+     *
+     * @param headers The headers.
+     * @return The body charset.
+     */
+    protected open fun getCharset(headers: HttpHeaders): Charset {
+        val contentType: MediaType? = headers.contentType
+        return contentType?.charset ?: Charsets.UTF_8
+    }
 }
@@ -17,6 +17,7 @@
 
 package com.alcosi.lib.logging.http.resttemplate;
 
+import com.alcosi.lib.logging.http.AsyncHttpLoggingProperties;
 import io.github.breninsul.rest.logging.RestTemplateLoggerProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -32,7 +33,101 @@ public class RestTemplateProperties {
     private Duration connectTimeout = Duration.ofSeconds(10);
     private Duration readTimeout = Duration.ofSeconds(120);
     private RestTemplateLoggerProperties logging=new RestTemplateLoggerProperties();
+    /**
+     * Asynchronous logging mode settings. If enabled, the log text is formatted in the background.
+     */
+    private AsyncHttpLoggingProperties asyncLogging = new AsyncHttpLoggingProperties();
     private Boolean contextHeadersDisabled = false;
+    /**
+     * Response body buffering mode of the default request factory.
+     * FULL buffers every response body on-heap, LIMITED buffers only up to bufferingLimit bytes and streams the rest.
+     */
+    private BufferingMode bufferingMode = BufferingMode.FULL;
+    /**
+     * The maximum number of buffered response bytes in LIMITED buffering mode. Defaults to asyncLogging.maxBodySize.
+     * If asynchronous logging is enabled, it must be at least asyncLogging.maxBodySize, otherwise the logged body is cut.
+     */
+    private Integer bufferingLimit = null;
+
+    /**
+     * The HTTP client backing the default request factory.
+     * SIMPLE uses HttpURLConnection, JDK uses a shared pooled java.net.http.HttpClient with HTTP/2 support.
+     */
+    private ClientType clientType = ClientType.SIMPLE;
+    /**
+     * Settings of the JDK HttpClient, used if clientType is JDK.
+     */
+    private Jdk jdk = new Jdk();
+
+    /**
+     * HTTP client types.
+     */
+    public enum ClientType {
+        SIMPLE,
+        JDK
+    }
+
+    /**
+     * Settings of the shared JDK HttpClient.
+     */
+    public static class Jdk {
+        /**
+         * Prefer HTTP/2 (with fallback to HTTP/1.1). Requests to the same host are multiplexed over one connection.
+         */
+        private Boolean http2 = true;
+        /**
+         * The maximum number of concurrent requests per route (scheme, host and port). 0 means unlimited.
+         */
+        private Integer maxConnectionsPerRoute = 0;
+        /**
+         * The maximum time to wait for a free route slot if maxConnectionsPerRoute is reached.
+         */
+        private Duration routeAcquireTimeout = Duration.ofSeconds(10);
+        /**
+         * Use a virtual-thread-per-task executor for the client instead of the default cached thread pool.
+         */
+        private Boolean virtualThreads = true;
+
+        public Boolean getHttp2() {
+            return http2;
+        }
+
+        public void setHttp2(Boolean http2) {
+            this.http2 = http2;
+        }
+
+        public Integer getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public void setMaxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public Duration getRouteAcquireTimeout() {
+            return routeAcquireTimeout;
+        }
+
+        public void setRouteAcquireTimeout(Duration routeAcquireTimeout) {
+            this.routeAcquireTimeout = routeAcquireTimeout;
+        }
+
+        public Boolean getVirtualThreads() {
+            return virtualThreads;
+        }
+
+        public void setVirtualThreads(Boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+        }
+    }
+
+    /**
+     * Response body buffering modes.
+     */
+    public enum BufferingMode {
+        FULL,
+        LIMITED
+    }
 
     public Boolean getContextHeadersDisabled() {
         return contextHeadersDisabled;
@@ -73,4 +168,44 @@ public class RestTemplateProperties {
     public void setEnabled(Boolean enabled) {
         this.enabled = enabled;
     }
+
+    public AsyncHttpLoggingProperties getAsyncLogging() {
+        return asyncLogging;
+    }
+
+    public void setAsyncLogging(AsyncHttpLoggingProperties asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    public BufferingMode getBufferingMode() {
+        return bufferingMode;
+    }
+
+    public void setBufferingMode(BufferingMode bufferingMode) {
+        this.bufferingMode = bufferingMode;
+    }
+
+    public Integer getBufferingLimit() {
+        return bufferingLimit;
+    }
+
+    public void setBufferingLimit(Integer bufferingLimit) {
+        this.bufferingLimit = bufferingLimit;
+    }
+
+    public ClientType getClientType() {
+        return clientType;
+    }
+
+    public void setClientType(ClientType clientType) {
+        this.clientType = clientType;
+    }
+
+    public Jdk getJdk() {
+        return jdk;
+    }
+
+    public void setJdk(Jdk jdk) {
+        this.jdk = jdk;
+    }
 }
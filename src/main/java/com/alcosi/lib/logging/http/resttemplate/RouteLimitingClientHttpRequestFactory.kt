@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.resttemplate
+
+import org.springframework.http.HttpMethod
+import org.springframework.http.client.AbstractClientHttpRequestFactoryWrapper
+import org.springframework.http.client.ClientHttpRequest
+import org.springframework.http.client.ClientHttpRequestFactory
+import org.springframework.http.client.ClientHttpResponse
+import java.io.IOException
+import java.net.URI
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A ClientHttpRequestFactory wrapper limiting the number of concurrent requests per route (scheme, host and port).
+ *
+ * A permit is taken when the request is executed and returned when the response is closed.
+ * Waiting for a permit is fair and bounded by [acquireTimeout].
+ *
+ * When there are more than [maxRoutes] routes, the idle ones (without requests waiting for a permit or in progress)
+ * are evicted. A route is used and evicted atomically, so an evicted route is never handed out.
+ *
+ * @param requestFactory The delegate request factory.
+ * @property maxPerRoute The maximum number of concurrent requests per route.
+ * @property acquireTimeout The maximum time to wait for a permit.
+ * @property maxRoutes The number of routes above which the idle routes are evicted.
+ */
+open class RouteLimitingClientHttpRequestFactory(
+    requestFactory: ClientHttpRequestFactory,
+    protected val maxPerRoute: Int,
+    protected val acquireTimeout: Duration,
+    protected val maxRoutes: Int = DEFAULT_MAX_ROUTES,
+) : AbstractClientHttpRequestFactoryWrapper(requestFactory) {
+    /**
+     * Limits by route.
+     */
+    protected open val routes: ConcurrentHashMap<String, RouteLimit> = ConcurrentHashMap()
+
+    override fun createRequest(
+        uri: URI,
+        httpMethod: HttpMethod,
+        requestFactory: ClientHttpRequestFactory,
+    ): ClientHttpRequest {
+        return RouteLimitedClientHttpRequest(requestFactory.createRequest(uri, httpMethod), this, getRoute(uri))
+    }
+
+    /**
+     * Takes a permit of the route, waiting up to [acquireTimeout]. The route is not evicted until the permit is released.
+     *
+     * @param route The route key.
+     * @return True if the permit is taken.
+     */
+    open fun acquire(route: String): Boolean {
+        if (routes.size > maxRoutes) {
+            evictIdleRoutes()
+        }
+        val limit = routes.compute(route) { _, limit -> (limit ?: RouteLimit(maxPerRoute)).also { it.users++ } }!!
+        val acquired =
+            try {
+                limit.semaphore.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)
+            } catch (t: Throwable) {
+                unuse(route, false)
+                throw t
+            }
+        if (!acquired) {
+            unuse(route, false)
+        }
+        return acquired
+    }
+
+    /**
+     * Returns a permit of the route taken by [acquire].
+     *
+     * @param route The route key.
+     */
+    open fun release(route: String) {
+        unuse(route, true)
+    }
+
+    /**
+     * Stops using the route.
+     *
+     * @param route The route key.
+     * @param permit True if the permit of the route is returned.
+     */
+    protected open fun unuse(
+        route: String,
+        permit: Boolean,
+    ) {
+        routes.computeIfPresent(route) { _, limit ->
+            if (permit) {
+                limit.semaphore.release()
+            }
+            limit.users--
+            limit
+        }
+    }
+
+    /**
+     * Removes the routes without requests waiting for a permit or in progress.
+     */
+    protected open fun evictIdleRoutes() {
+        routes.keys.forEach { route -> routes.computeIfPresent(route) { _, limit -> if (limit.users == 0) null else limit } }
+    }
+
+    /**
+     * Returns the route key of the URI. The port is resolved from the scheme if it is not set.
+     *
+     * @param uri The request URI.
+     * @return The route key.
+     */
+    protected open fun getRoute(uri: URI): String {
+        val scheme = uri.scheme?.lowercase()
+        val port =
+            when {
+                uri.port != -1 -> uri.port
+                scheme == "https" -> 443
+                scheme == "http" -> 80
+                else -> -1
+            }
+        return "$scheme://${uri.host?.lowercase()}:$port"
+    }
+
+    /**
+     * The Companion object of the RouteLimitingClientHttpRequestFactory class.
+     */
+    companion object {
+        /**
+         * The default number of routes above which the idle routes are evicted.
+         */
+        const val DEFAULT_MAX_ROUTES = 1000
+    }
+
+    /**
+     * The limit of a route. The users are only changed inside the map computations of the route.
+     *
+     * @param maxPerRoute The maximum number of concurrent requests per route.
+     */
+    open class RouteLimit(maxPerRoute: Int) {
+        /**
+         * The fair semaphore of the route.
+         */
+        val semaphore = Semaphore(maxPerRoute, true)
+
+        /**
+         * The number of requests waiting for a permit or in progress.
+         */
+        var users = 0
+    }
+}
+
+/**
+ * A ClientHttpRequest wrapper holding a route permit from execution until the response is closed.
+ *
+ * @property delegate The original request.
+ * @property limiter The factory limiting the routes.
+ * @property route The route key.
+ */
+open class RouteLimitedClientHttpRequest(
+    protected val delegate: ClientHttpRequest,
+    protected val limiter: RouteLimitingClientHttpRequestFactory,
+    protected val route: String,
+) : ClientHttpRequest by delegate {
+    override fun execute(): ClientHttpResponse {
+        if (!limiter.acquire(route)) {
+            throw IOException("Timeout waiting for a connection to $uri")
+        }
+        try {
+            val response = delegate.execute()
+            val released = AtomicBoolean(false)
+            return object : ClientHttpResponse by response {
+                override fun close() {
+                    try {
+                        response.close()
+                    } finally {
+                        if (released.compareAndSet(false, true)) {
+                            limiter.release(route)
+                        }
+                    }
+                }
+            }
+        } catch (t: Throwable) {
+            limiter.release(route)
+            throw t
+        }
+    }
+}
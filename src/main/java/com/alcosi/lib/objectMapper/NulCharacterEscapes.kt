@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.objectMapper
+
+import com.fasterxml.jackson.core.SerializableString
+import com.fasterxml.jackson.core.io.CharacterEscapes
+import com.fasterxml.jackson.core.io.SerializedString
+
+/**
+ * Jackson CharacterEscapes replacing the NUL character with [REPLACEMENT] while the generator writes a string,
+ * so no second pass over the serialized text is required. Other characters are escaped as by default.
+ *
+ * The companion object provides the same escaping for plain strings.
+ */
+open class NulCharacterEscapes : CharacterEscapes() {
+    /**
+     * The standard ASCII escape codes with the custom escape for NUL.
+     */
+    protected open val escapeCodes: IntArray = standardAsciiEscapesForJSON().also { it[0] = ESCAPE_CUSTOM }
+
+    override fun getEscapeCodesForAscii(): IntArray = escapeCodes
+
+    override fun getEscapeSequence(ch: Int): SerializableString? = if (ch == 0) REPLACEMENT_STRING else null
+
+    /**
+     * Contains the shared instance and the string escaping functions.
+     */
+    companion object {
+        /**
+         * The replacement of the NUL character.
+         */
+        const val REPLACEMENT = "<0x00>"
+
+        /**
+         * The pre-encoded replacement used by the generator.
+         */
+        private val REPLACEMENT_STRING = SerializedString(REPLACEMENT)
+
+        /**
+         * The shared instance. The escapes are stateless and can be used by any number of writers.
+         */
+        @JvmField
+        val INSTANCE = NulCharacterEscapes()
+
+        /**
+         * Replaces NUL characters of the string with [REPLACEMENT].
+         * The string is scanned once and returned as is, without copying, if it contains no NUL.
+         *
+         * @param value The string.
+         * @return The escaped string.
+         */
+        @JvmStatic
+        fun escape(value: String): String {
+            var index = value.indexOf('\u0000')
+            if (index < 0) {
+                return value
+            }
+            val builder = StringBuilder(value.length + REPLACEMENT.length * 2)
+            var start = 0
+            while (index >= 0) {
+                builder.append(value, start, index).append(REPLACEMENT)
+                start = index + 1
+                index = value.indexOf('\u0000', start)
+            }
+            return builder.append(value, start, value.length).toString()
+        }
+
+        /**
+         * Escapes the value if it is a string.
+         *
+         * @param value The value.
+         * @return The escaped string, or the value as is if it is not a string.
+         */
+        @JvmStatic
+        fun escapeValue(value: Any?): Any? = if (value is String) escape(value) else value
+    }
+}
@@ -224,9 +224,11 @@ inline fun <reified T : Any> ObjectMapper.mapListNode(
  *
  * @see ObjectMapper.serialize
  */
+@Deprecated("The replacement is done by NulCharacterEscapes", ReplaceWith("NulCharacterEscapes.escape(value)"))
 val serializationReplacePairs = listOf("\u0000" to "<0x00>")
 /**
  * Serializes the given object to a JSON string using the Jackson ObjectMapper.
+ * NUL characters of the strings are replaced by the generator with [NulCharacterEscapes.REPLACEMENT].
  *
  * @param o the object to be serialized
  * @return the JSON string representation of the object, or null if the object is null
@@ -235,6 +237,6 @@ fun ObjectMapper.serialize(o: Any?): String? {
     return if (o == null) {
         null
     } else {
-        serializationReplacePairs.fold(this.writeValueAsString(o)) { acc, pair -> acc.replace(pair.first, pair.second) }
+        this.writer().with(NulCharacterEscapes.INSTANCE).writeValueAsString(o)
     }
 }
\ No newline at end of file
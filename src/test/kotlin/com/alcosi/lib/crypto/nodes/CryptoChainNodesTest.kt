@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.net.URI
+import java.time.Duration
+
+class CryptoChainNodesTest {
+    @Test
+    fun testSmoothSchedule() {
+        val chain = createChain(5.0, 1.0, 1.0)
+        assertArrayEquals(intArrayOf(0, 0, 1, 0, 2, 0, 0), chain.roundRobinSchedule)
+    }
+
+    @Test
+    fun testScheduleIsReducedByDivisor() {
+        val chain = createChain(40.0, 20.0, 20.0)
+        assertArrayEquals(intArrayOf(0, 1, 2, 0), chain.roundRobinSchedule)
+    }
+
+    @Test
+    fun testLowWeightIsKeptInSchedule() {
+        val chain = createChain(1000.0, 0.0)
+        val schedule = chain.roundRobinSchedule
+        assertEquals(CryptoChainNodes.MAX_ROUND_ROBIN_WEIGHT + 1, schedule.size)
+        assertEquals(1, schedule.count { it == 1 })
+    }
+
+    @Test
+    fun testWeightedRoundRobinFollowsSchedule() {
+        val chain = createChain(5.0, 1.0, 1.0)
+        val strategy = CryptoNodeBalancingStrategy.WeightedRoundRobin()
+        val picked = List(14) { chain.nodes.indexOf(strategy.pick(chain)) }
+        assertEquals(chain.roundRobinSchedule.toList() + chain.roundRobinSchedule.toList(), picked)
+        assertEquals(listOf(10, 2, 2), counts(picked, 3))
+    }
+
+    private fun counts(
+        indexes: List<Int>,
+        size: Int,
+    ): List<Int> = List(size) { index -> indexes.count { it == index } }
+
+    private fun createChain(vararg weights: Double): CryptoChainNodes {
+        val nodes = weights.indices.map { CryptoNodeStats(URI.create("http://node$it").toURL(), Duration.ofMillis(10)) }
+        return CryptoChainNodes(1, nodes, weights)
+    }
+}
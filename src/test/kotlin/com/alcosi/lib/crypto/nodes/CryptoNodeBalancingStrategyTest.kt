@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.net.URI
+import java.time.Duration
+
+class CryptoNodeBalancingStrategyTest {
+    @Test
+    fun testPenalty() {
+        val node = createNode("a", 10)
+        assertEquals(1.0, node.getPenalty())
+        node.setLag(20)
+        assertEquals(3.0, node.getPenalty(), 1e-9)
+        fail(node)
+        assertEquals(300.0, node.getPenalty(), 1e-6)
+    }
+
+    @Test
+    fun testLeastOutstandingAvoidsLaggingNode() {
+        val lagging = createNode("a", 10)
+        val synced = createNode("b", 10)
+        lagging.setLag(100)
+        repeat(2) { synced.start() }
+        val chain = CryptoChainNodes(1, listOf(lagging, synced), doubleArrayOf(1.0, 1.0))
+        repeat(100) { assertSame(synced, CryptoNodeBalancingStrategy.LeastOutstanding().pick(chain)) }
+    }
+
+    @Test
+    fun testPowerOfTwoChoicesAvoidsFailingNode() {
+        val failing = createNode("a", 10)
+        val slow = createNode("b", 50)
+        fail(failing)
+        val chain = CryptoChainNodes(1, listOf(failing, slow), doubleArrayOf(1.0, 1.0))
+        repeat(100) { assertSame(slow, CryptoNodeBalancingStrategy.PowerOfTwoChoicesEwma().pick(chain)) }
+    }
+
+    @Test
+    fun testWeightedStrategiesAvoidFailingNode() {
+        listOf(CryptoNodeBalancingStrategy.WeightedRandom(), CryptoNodeBalancingStrategy.WeightedRoundRobin()).forEach { strategy ->
+            val failing = createNode("a", 10)
+            val healthy = createNode("b", 10)
+            fail(failing)
+            val chain = CryptoChainNodes(1, listOf(failing, healthy), doubleArrayOf(1.0, 1.0))
+            val picked = (1..10_000).count { strategy.pick(chain) === failing }
+            assertTrue(picked < 500, "$strategy picked the failing node $picked times")
+        }
+    }
+
+    private fun fail(node: CryptoNodeStats) {
+        node.finish(node.start(), false)
+    }
+
+    private fun createNode(
+        host: String,
+        latencyMillis: Long,
+    ) = CryptoNodeStats(URI.create("http://$host").toURL(), Duration.ofMillis(latencyMillis), Duration.ofNanos(1), Duration.ofMillis(10), lagWeight = 0.1)
+}
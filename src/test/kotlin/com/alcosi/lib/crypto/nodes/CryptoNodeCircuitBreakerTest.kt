@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import com.alcosi.lib.crypto.nodes.CryptoNodeCircuitBreaker.State
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.net.URI
+import java.time.Duration
+
+class CryptoNodeCircuitBreakerTest {
+    @Test
+    fun testOpensOnConsecutiveFailures() {
+        val breaker = CryptoNodeCircuitBreaker("node", consecutiveFailures = 3, openDuration = Duration.ofMinutes(1))
+        repeat(2) { breaker.onFailure() }
+        breaker.onSuccess()
+        repeat(2) { breaker.onFailure() }
+        assertEquals(State.CLOSED, breaker.getState())
+        breaker.onFailure()
+        assertEquals(State.OPEN, breaker.getState())
+        assertFalse(breaker.tryAcquire())
+    }
+
+    @Test
+    fun testOpensOnFailureRate() {
+        val breaker = CryptoNodeCircuitBreaker("node", consecutiveFailures = 0, minimumRequests = 10, openDuration = Duration.ofMinutes(1))
+        repeat(4) {
+            breaker.onSuccess()
+            breaker.onFailure()
+        }
+        assertEquals(State.CLOSED, breaker.getState())
+        breaker.onSuccess()
+        breaker.onFailure()
+        assertEquals(5L to 5L, breaker.getWindowCounts())
+        assertEquals(State.OPEN, breaker.getState())
+    }
+
+    @Test
+    fun testHalfOpenProbeSuccessCloses() {
+        val breaker = openBreaker()
+        assertTrue(breaker.tryAcquire())
+        assertEquals(State.HALF_OPEN, breaker.getState())
+        assertFalse(breaker.tryAcquire())
+        breaker.onSuccess()
+        assertEquals(State.CLOSED, breaker.getState())
+        assertEquals(0L to 0L, breaker.getWindowCounts())
+        assertTrue(breaker.tryAcquire())
+    }
+
+    @Test
+    fun testHalfOpenProbeFailureReopens() {
+        val breaker = openBreaker()
+        assertTrue(breaker.tryAcquire())
+        breaker.onFailure()
+        assertEquals(State.OPEN, breaker.getState())
+    }
+
+    @Test
+    fun testCancelledProbeIsReturned() {
+        val breaker = openBreaker()
+        assertTrue(breaker.tryAcquire())
+        assertFalse(breaker.tryAcquire())
+        breaker.onCancel()
+        assertEquals(State.HALF_OPEN, breaker.getState())
+        assertTrue(breaker.tryAcquire())
+        assertFalse(breaker.tryAcquire())
+    }
+
+    @Test
+    fun testCancelDoesNotExceedProbes() {
+        val breaker = openBreaker()
+        assertTrue(breaker.tryAcquire())
+        repeat(3) { breaker.onCancel() }
+        assertTrue(breaker.tryAcquire())
+        assertFalse(breaker.tryAcquire())
+    }
+
+    @Test
+    fun testStatsCancelReturnsProbe() {
+        val stats = CryptoNodeStats(URI.create("http://node").toURL(), Duration.ofMillis(10), circuitBreaker = openBreaker())
+        assertTrue(stats.tryAcquire())
+        val start = stats.start()
+        assertFalse(stats.tryAcquire())
+        stats.cancel()
+        assertEquals(0, stats.getOutstanding())
+        assertTrue(stats.tryAcquire())
+        stats.finish(start, true)
+        assertEquals(State.CLOSED, stats.circuitBreaker!!.getState())
+    }
+
+    private fun openBreaker(): CryptoNodeCircuitBreaker {
+        val breaker = CryptoNodeCircuitBreaker("node", consecutiveFailures = 1, openDuration = Duration.ZERO)
+        breaker.onFailure()
+        assertEquals(State.OPEN, breaker.getState())
+        return breaker
+    }
+}
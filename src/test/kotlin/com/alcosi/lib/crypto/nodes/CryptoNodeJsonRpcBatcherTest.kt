@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ObjectNode
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+class CryptoNodeJsonRpcBatcherTest {
+    private val objectMapper = ObjectMapper()
+    private val sent = CopyOnWriteArrayList<String>()
+
+    @Test
+    fun testIdsAreRemappedWithDuplicateCallerIds() {
+        val batcher = CryptoNodeJsonRpcBatcher(3, Duration.ofMinutes(1), objectMapper) { respond(it, true) }
+        val futures = (1..3).map { batcher.submit(request(7, "p$it")) }
+        val responses = futures.map { objectMapper.readTree(it.get(1, TimeUnit.SECONDS)) }
+        responses.forEachIndexed { index, response ->
+            assertEquals("p${index + 1}", response["result"].asText())
+            assertEquals(7, response["id"].asInt())
+        }
+        assertEquals(1, sent.size)
+        assertEquals(listOf(0, 1, 2), objectMapper.readTree(sent[0]).map { it["id"].asInt() })
+    }
+
+    @Test
+    fun testNonArrayResponseFallsBackToSingleRequests() {
+        val batcher = CryptoNodeJsonRpcBatcher(3, Duration.ofMinutes(1), objectMapper) { respond(it, false) }
+        val futures = listOf(batcher.submit(request(1, "a")), batcher.submit(request(1, "b")), batcher.submit(request(2, "c")))
+        val responses = futures.map { objectMapper.readTree(it.get(1, TimeUnit.SECONDS)) }
+        assertEquals(listOf("a", "b", "c"), responses.map { it["result"].asText() })
+        assertEquals(listOf(1, 1, 2), responses.map { it["id"].asInt() })
+        assertEquals(4, sent.size)
+        assertTrue(sent[0].startsWith("["))
+        assertEquals(listOf(request(1, "a"), request(1, "b"), request(2, "c")), sent.drop(1))
+    }
+
+    @Test
+    fun testWindowFlushesPartialBatch() {
+        val batcher = CryptoNodeJsonRpcBatcher(10, Duration.ofMillis(10), objectMapper) { respond(it, true) }
+        val first = batcher.submit(request(5, "x"))
+        assertEquals("x", objectMapper.readTree(first.get(1, TimeUnit.SECONDS))["result"].asText())
+        assertEquals(listOf(request(5, "x")), sent)
+    }
+
+    @Test
+    fun testRequestsWithoutIdAreSentAsIs() {
+        val batcher = CryptoNodeJsonRpcBatcher(3, Duration.ofMinutes(1), objectMapper) { respond(it, true) }
+        val notification = """{"jsonrpc":"2.0","method":"eth_call","params":["n"]}"""
+        batcher.submit(notification).get(1, TimeUnit.SECONDS)
+        assertEquals(listOf(notification), sent)
+    }
+
+    @Test
+    fun testNonIdempotentRequestsAreNotBatched() {
+        val batcher = CryptoNodeJsonRpcBatcher(2, Duration.ofMinutes(1), objectMapper) { respond(it, false) }
+        val transaction = """{"jsonrpc":"2.0","method":"eth_sendRawTransaction","params":["0x01"],"id":1}"""
+        val call = batcher.submit(request(1, "a"))
+        assertEquals("0x01", objectMapper.readTree(batcher.submit(transaction).get(1, TimeUnit.SECONDS))["result"].asText())
+        assertEquals(listOf(transaction), sent)
+        assertEquals("b", objectMapper.readTree(batcher.submit(request(2, "b")).get(1, TimeUnit.SECONDS))["result"].asText())
+        assertEquals("a", objectMapper.readTree(call.get(1, TimeUnit.SECONDS))["result"].asText())
+        assertEquals(listOf(request(1, "a"), request(2, "b")), sent.drop(2))
+    }
+
+    /**
+     * Answers every request with its first parameter. Batches are answered in the reverse order, or with a single
+     * error object if the node does not support them.
+     */
+    private fun respond(
+        body: String,
+        supportsBatches: Boolean,
+    ): CompletableFuture<InputStream?> {
+        sent.add(body)
+        val tree = objectMapper.readTree(body)
+        val response: JsonNode =
+            if (!tree.isArray) {
+                result(tree)
+            } else if (supportsBatches) {
+                objectMapper.createArrayNode().addAll(tree.reversed().map { result(it) })
+            } else {
+                objectMapper.createObjectNode().put("jsonrpc", "2.0").putNull("id").also {
+                    it.putObject("error").put("code", -32600).put("message", "Batches are not supported")
+                }
+            }
+        return CompletableFuture.completedFuture(ByteArrayInputStream(objectMapper.writeValueAsBytes(response)))
+    }
+
+    private fun result(request: JsonNode): ObjectNode {
+        val result = objectMapper.createObjectNode().put("jsonrpc", "2.0")
+        result.set<JsonNode>("id", request["id"])
+        return result.put("result", request["params"][0].asText())
+    }
+
+    private fun request(
+        id: Int,
+        param: String,
+    ) = """{"jsonrpc":"2.0","method":"eth_call","params":["$param"],"id":$id}"""
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.CompletableFuture
+
+class CryptoNodeResponseCacheTest {
+    private val objectMapper = ObjectMapper()
+    private var calls = 0
+
+    @Test
+    fun testFinalStateCalls() {
+        val cache = createCache(1_000_000)
+        assertCached(cache, "eth_getBalance", """["0xabc","0x10"]""", true)
+        assertCached(cache, "eth_getBalance", """["0xabc","latest"]""", false)
+        assertCached(cache, "eth_getBalance", """["0xabc"]""", false)
+        assertCached(cache, "eth_getStorageAt", """["0xabc","0x10","0x10"]""", true)
+        assertCached(cache, "eth_getStorageAt", """["0xabc","0x0"]""", false)
+        assertCached(cache, "eth_call", """[{"to":"0xabc"},"0x10",{"0xabc":{"balance":"0x1"}}]""", true)
+        assertCached(cache, "eth_call", """[{"to":"0xabc"},{"blockNumber":"0x10"}]""", true)
+        assertCached(cache, "eth_getCode", """["0xabc","0x7f"]""", false)
+    }
+
+    @Test
+    fun testFinalBlocks() {
+        val cache = createCache(1_000_000)
+        assertCached(cache, "eth_getBlockByNumber", """["0x10",false]""", true)
+        assertCached(cache, "eth_getBlockByNumber", """["0x7f",false]""", false)
+        assertCached(cache, "eth_getBlockByNumber", """["latest",false]""", false)
+        assertCached(cache, "eth_chainId", "[]", true)
+        assertCached(cache, "eth_blockNumber", "[]", false)
+        assertCached(cache, "eth_getLogs", """[{"fromBlock":"0x1","toBlock":"0x10"}]""", true)
+        assertCached(cache, "eth_getLogs", """[{"fromBlock":"0x1","toBlock":"latest"}]""", false)
+    }
+
+    @Test
+    fun testHeadConsensus() {
+        val cache = createCache(1_000_000)
+        cache.updateHead(1, listOf(0x80L, 0x7fL, 0x1000000L))
+        assertEquals(0x80L, cache.getHead(1))
+        cache.updateHead(1, listOf(0x40L, 0x1000000L))
+        assertEquals(0x40L, cache.getHead(1))
+        assertCached(cache, "eth_getBlockByNumber", """["0x40",false]""", false)
+        load(cache, createRequest(1, "eth_blockNumber", "[]"))
+        assertEquals(0x40L, cache.getHead(1))
+        cache.updateHead(1, listOf())
+        assertNull(cache.getHead(1))
+    }
+
+    @Test
+    fun testDeduplication() {
+        val cache = createCache(1_000_000)
+        val pending = ArrayList<CompletableFuture<InputStream?>>()
+        val loader: (String) -> CompletableFuture<InputStream?> = {
+            calls++
+            CompletableFuture<InputStream?>().also { pending.add(it) }
+        }
+        val first = cache.getOrLoad(1, createRequest(1, "eth_getBlockByNumber", """["latest",false]"""), loader)
+        val second = cache.getOrLoad(1, createRequest(2, "eth_getBlockByNumber", """["latest",false]"""), loader)
+        assertEquals(1, calls)
+        assertEquals(1, cache.getDeduplicated())
+        pending.single().complete(ByteArrayInputStream("""{"jsonrpc":"2.0","id":1,"result":{"number":"0x80"}}""".toByteArray()))
+        assertEquals(1, objectMapper.readTree(first.get())["id"].asInt())
+        assertEquals(2, objectMapper.readTree(second.get())["id"].asInt())
+        assertEquals(0, cache.getSize())
+    }
+
+    @Test
+    fun testEviction() {
+        val cache = createCache(1000)
+        (1..5).forEach { load(cache, createRequest(it, "eth_getBlockByNumber", """["0x$it",false]""")) }
+        assertTrue(cache.getEvictions() > 0)
+        assertTrue(cache.getBytes() <= 1000)
+        assertEquals(5 - cache.getEvictions(), cache.getSize().toLong())
+        val before = calls
+        load(cache, createRequest(6, "eth_getBlockByNumber", """["0x5",false]"""))
+        assertEquals(before, calls)
+        load(cache, createRequest(7, "eth_getBlockByNumber", """["0x1",false]"""))
+        assertEquals(before + 1, calls)
+    }
+
+    private fun createCache(maxBytes: Long): CryptoNodeResponseCache {
+        val cache = CryptoNodeResponseCache(10, maxBytes, maxBytes, objectMapper = objectMapper)
+        cache.updateHead(1, 0x80)
+        return cache
+    }
+
+    private fun assertCached(
+        cache: CryptoNodeResponseCache,
+        method: String,
+        params: String,
+        cached: Boolean,
+    ) {
+        load(cache, createRequest(1, method, params))
+        val before = calls
+        load(cache, createRequest(2, method, params))
+        assertEquals(if (cached) before else before + 1, calls, "$method $params")
+    }
+
+    private fun load(
+        cache: CryptoNodeResponseCache,
+        request: String,
+    ): InputStream? =
+        cache
+            .getOrLoad(1, request) {
+                calls++
+                val id = objectMapper.readTree(it)["id"]
+                CompletableFuture.completedFuture(ByteArrayInputStream("""{"jsonrpc":"2.0","id":$id,"result":{"number":"0x1"}}""".toByteArray()))
+            }.get()
+
+    private fun createRequest(
+        id: Int,
+        method: String,
+        params: String,
+    ): String = """{"jsonrpc":"2.0","method":"$method","params":$params,"id":$id}"""
+}
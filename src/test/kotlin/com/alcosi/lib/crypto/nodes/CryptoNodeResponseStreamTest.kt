@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.CopyOnWriteArrayList
+
+class CryptoNodeResponseStreamTest {
+    private val outcomes = CopyOnWriteArrayList<Boolean>()
+
+    @Test
+    fun testReadToEndIsReportedOnce() {
+        val stream = CryptoNodeResponseStream(ByteArrayInputStream(ByteArray(10)), outcomes::add)
+        assertEquals(10, stream.readAllBytes().size)
+        stream.close()
+        assertEquals(listOf(true), outcomes)
+    }
+
+    @Test
+    fun testCloseIsReportedAsSuccess() {
+        val stream = CryptoNodeResponseStream(ByteArrayInputStream(ByteArray(10)), outcomes::add)
+        stream.read()
+        assertEquals(listOf<Boolean>(), outcomes)
+        stream.close()
+        assertEquals(listOf(true), outcomes)
+    }
+
+    @Test
+    fun testReadFailureIsReportedAsFailure() {
+        val reset =
+            object : InputStream() {
+                private var remaining = 5
+
+                override fun read(): Int {
+                    if (remaining-- > 0) {
+                        return 1
+                    }
+                    throw IOException("Connection reset")
+                }
+            }
+        val stream = CryptoNodeResponseStream(reset, outcomes::add)
+        assertThrows(IOException::class.java) { stream.readAllBytes() }
+        stream.close()
+        assertEquals(listOf(false), outcomes)
+    }
+}
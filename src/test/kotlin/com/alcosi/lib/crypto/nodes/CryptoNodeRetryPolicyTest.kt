@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.web3j.protocol.exceptions.ClientConnectionException
+import java.io.IOException
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutionException
+
+class CryptoNodeRetryPolicyTest {
+    private val policy = CryptoNodeRetryPolicy()
+
+    @Test
+    fun testIdempotentRequest() {
+        assertTrue(policy.isRetryable(request("eth_call")))
+        assertTrue(policy.isRetryable("""{ "method" : "eth_blockNumber", "params":[], "id":1}"""))
+    }
+
+    @Test
+    fun testNonIdempotentRequest() {
+        assertFalse(policy.isRetryable(request("eth_sendRawTransaction")))
+        assertFalse(policy.isRetryable("""{"jsonrpc":"2.0","params":[],"id":1}"""))
+    }
+
+    @Test
+    fun testBatchRequest() {
+        assertTrue(policy.isRetryable("[${request("eth_call")},${request("eth_getBalance")}]"))
+        assertFalse(policy.isRetryable("[${request("eth_call")},${request("eth_sendRawTransaction")}]"))
+    }
+
+    @Test
+    fun testSingleAttemptOrCustomMethods() {
+        assertFalse(CryptoNodeRetryPolicy(maxAttempts = 1).isRetryable(request("eth_call")))
+        val custom = CryptoNodeRetryPolicy(methods = setOf("eth_sendRawTransaction"))
+        assertTrue(custom.isRetryable(request("eth_sendRawTransaction")))
+        assertFalse(custom.isRetryable(request("eth_call")))
+    }
+
+    @Test
+    fun testRetryableFailures() {
+        assertTrue(policy.isRetryable(IOException("reset")))
+        assertTrue(policy.isRetryable(ClientConnectionException("Invalid response received: 502")))
+        assertTrue(policy.isRetryable(CompletionException(ExecutionException(IOException("timeout")))))
+        assertFalse(policy.isRetryable(IllegalStateException("bug")))
+        assertFalse(policy.isRetryable(CompletionException(IllegalArgumentException("bug"))))
+    }
+
+    private fun request(method: String) = """{"jsonrpc":"2.0","method":"$method","params":[],"id":1}"""
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.crypto.nodes
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class WeightedAliasTableTest {
+    @Test
+    fun testDistribution() {
+        val counts = pick(WeightedAliasTable(listOf("a", "b", "c", "d"), doubleArrayOf(1.0, 2.0, 3.0, 4.0)))
+        assertEquals(0.1, counts.getValue("a") / PICKS.toDouble(), TOLERANCE)
+        assertEquals(0.2, counts.getValue("b") / PICKS.toDouble(), TOLERANCE)
+        assertEquals(0.3, counts.getValue("c") / PICKS.toDouble(), TOLERANCE)
+        assertEquals(0.4, counts.getValue("d") / PICKS.toDouble(), TOLERANCE)
+    }
+
+    @Test
+    fun testZeroWeightIsNeverPicked() {
+        val counts = pick(WeightedAliasTable(listOf("a", "b", "c"), doubleArrayOf(0.0, 1.0, 3.0)))
+        assertNull(counts["a"])
+        assertEquals(0.25, counts.getValue("b") / PICKS.toDouble(), TOLERANCE)
+    }
+
+    @Test
+    fun testAllZeroWeightsFallBackToUniform() {
+        val counts = pick(WeightedAliasTable(listOf("a", "b", "c"), doubleArrayOf(0.0, 0.0, 0.0)))
+        counts.values.forEach { assertEquals(1.0 / 3, it / PICKS.toDouble(), TOLERANCE) }
+        assertEquals(3, counts.size)
+    }
+
+    @Test
+    fun testSingleItem() {
+        val table = WeightedAliasTable(listOf("a"), doubleArrayOf(0.0))
+        repeat(100) { assertEquals("a", table.pick()) }
+    }
+
+    @Test
+    fun testInvalidArguments() {
+        assertThrows(IllegalArgumentException::class.java) { WeightedAliasTable(listOf<String>(), doubleArrayOf()) }
+        assertThrows(IllegalArgumentException::class.java) { WeightedAliasTable(listOf("a", "b"), doubleArrayOf(1.0)) }
+    }
+
+    private fun pick(table: WeightedAliasTable<String>): Map<String, Int> {
+        val counts = HashMap<String, Int>()
+        repeat(PICKS) { counts.merge(table.pick(), 1, Int::plus) }
+        assertTrue(counts.keys.all { it in table.items })
+        return counts
+    }
+
+    companion object {
+        const val PICKS = 200_000
+        const val TOLERANCE = 0.01
+    }
+}
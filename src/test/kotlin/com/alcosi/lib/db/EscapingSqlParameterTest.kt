@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+class EscapingSqlParameterTest {
+    @Test
+    fun testAddValuesEscapesNul() {
+        val parameter = EscapingSqlParameter()
+        parameter.addValues(mutableMapOf("string" to "a\u0000b", "number" to 1, "empty" to null))
+        parameter.addValue("single", "\u0000")
+        assertEquals("a<0x00>b", parameter.getValue("string"))
+        assertEquals(1, parameter.getValue("number"))
+        assertEquals(null, parameter.getValue("empty"))
+        assertEquals("<0x00>", parameter.getValue("single"))
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.RowMapper
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource
+import org.springframework.transaction.support.TransactionSynchronization
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import java.time.Duration
+
+class LoggingNamedParameterJdbcTemplateTest {
+    private val cache = QueryResultCache(Duration.ofMinutes(1), 1_000_000)
+    private val template = LoggingNamedParameterJdbcTemplate(100, Mockito.mock(JdbcTemplate::class.java), null, null, queryCache = cache)
+    private val rowMapper = RowMapper { rs, _ -> rs.getString(1) }
+
+    @AfterEach
+    fun clearTransaction() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization()
+        }
+        TransactionSynchronizationManager.setActualTransactionActive(false)
+    }
+
+    @Test
+    fun testCachedOutsideTransaction() {
+        template.queryForCachedList(SELECT, MapSqlParameterSource("id", 1), rowMapper)
+        template.queryForCachedList(SELECT, MapSqlParameterSource("id", 1), rowMapper)
+        assertEquals(1, cache.getMisses())
+        assertEquals(1, cache.getHits())
+        template.update("UPDATE ref SET name = 'a'", MapSqlParameterSource())
+        assertEquals(0, cache.getSize())
+    }
+
+    @Test
+    fun testBypassedInTransaction() {
+        template.queryForCachedList(SELECT, MapSqlParameterSource("id", 1), rowMapper)
+        beginTransaction()
+        template.queryForCachedList(SELECT, MapSqlParameterSource("id", 1), rowMapper)
+        template.queryForCachedList(SELECT, MapSqlParameterSource("id", 2), rowMapper)
+        assertEquals(1, cache.getMisses())
+        assertEquals(0, cache.getHits())
+        assertEquals(1, cache.getSize())
+    }
+
+    @Test
+    fun testInvalidatedAfterTransactionCompletion() {
+        beginTransaction()
+        template.update("UPDATE ref SET name = 'a'", MapSqlParameterSource())
+        assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size)
+        cache.getOrLoad(SELECT, MapSqlParameterSource("id", 1), setOf()) { listOf("old") }
+        assertEquals(1, cache.getSize())
+        TransactionSynchronizationManager.getSynchronizations().forEach { it.afterCompletion(TransactionSynchronization.STATUS_COMMITTED) }
+        assertEquals(0, cache.getSize())
+    }
+
+    private fun beginTransaction() {
+        TransactionSynchronizationManager.initSynchronization()
+        TransactionSynchronizationManager.setActualTransactionActive(true)
+    }
+
+    companion object {
+        const val SELECT = "SELECT name FROM ref WHERE id = :id"
+    }
+}
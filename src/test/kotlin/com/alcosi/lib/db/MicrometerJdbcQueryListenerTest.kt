@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.db
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import java.sql.SQLException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+
+class MicrometerJdbcQueryListenerTest {
+    private val registry = SimpleMeterRegistry()
+
+    @Test
+    fun testErrorTimerIsCreatedOnFirstFailure() {
+        val listener = createListener(10)
+        listener.onQuery(JdbcQueryEvent("select 1", null, 1000, 1, null))
+        assertNotNull(registry.find("jdbc.query").tag("outcome", "success").timer())
+        assertNull(registry.find("jdbc.query").tag("outcome", "error").timer())
+        listener.onQuery(JdbcQueryEvent("select 1", null, 1000, -1, SQLException("failed")))
+        assertEquals(1L, registry.find("jdbc.query").tag("outcome", "error").timer()!!.count())
+        assertNull(registry.find("jdbc.query.errors").meter())
+    }
+
+    @Test
+    fun testConcurrentStatementsDoNotExceedLimit() {
+        val listener = createListener(5)
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val futures = (0 until 200).map { CompletableFuture.runAsync({ listener.onQuery(JdbcQueryEvent("select * from t_$it", null, 1000, 1, null)) }, executor) }
+            CompletableFuture.allOf(*futures.toTypedArray()).join()
+        } finally {
+            executor.shutdown()
+        }
+        val tags = registry.find("jdbc.query").timers().map { it.id.getTag("sql") }.toSet()
+        assertEquals(6, tags.size)
+        assertEquals(200L, registry.find("jdbc.query").timers().sumOf { it.count() })
+    }
+
+    private fun createListener(maxStatements: Int) = MicrometerJdbcQueryListener({ registry }, SqlNormalizer(), maxStatements, false)
+}
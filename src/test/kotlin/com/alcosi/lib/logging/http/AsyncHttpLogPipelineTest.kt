@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.logging.Level
+
+class AsyncHttpLogPipelineTest {
+    @Test
+    fun testDropOnOverflow() {
+        val pipeline = TestPipeline(2)
+        assertTrue(pipeline.offer(createEvent("{}")))
+        assertTrue(pipeline.offer(createEvent("{}")))
+        assertFalse(pipeline.offer(createEvent("{}")))
+        assertFalse(pipeline.offer(createEvent("{}")))
+        assertEquals(2, pipeline.getQueuedCount())
+        assertEquals(2, pipeline.getDroppedCount())
+        pipeline.close()
+    }
+
+    @Test
+    fun testDrainOnClose() {
+        val pipeline = TestPipeline(10)
+        repeat(5) { pipeline.offer(createEvent("{}")) }
+        pipeline.start().close()
+        assertEquals(5, pipeline.getProcessedCount())
+        assertEquals(0, pipeline.getQueuedCount())
+        assertFalse(pipeline.offer(createEvent("{}")))
+        assertEquals(1, pipeline.getDroppedCount())
+    }
+
+    @Test
+    fun testMasking() {
+        val pipeline = TestPipeline(1)
+        val json = pipeline.formatEvent(createEvent("""{"user":"a","Password" : "p\"1","nested":{"token":12345}}"""))
+        assertTrue(json.contains(""""user":"a""""))
+        assertTrue(json.contains(""""Password" : "<MASKED>""""))
+        assertTrue(json.contains(""""token":"<MASKED>"}"""))
+        assertFalse(json.contains("p\\\"1"))
+        assertFalse(json.contains("12345"))
+        assertFalse(json.contains("secret-header"))
+        val form = pipeline.formatEvent(createEvent("user=a&password=p1&passwords=x"))
+        assertTrue(form.contains("user=a&password=<MASKED>&passwords=x"))
+        pipeline.close()
+    }
+
+    private fun createEvent(body: String): HttpLogEvent {
+        val bytes = body.toByteArray()
+        return HttpLogEvent(HttpLogEvent.Type.REQUEST, "Test", "id", "POST", "http://localhost", null, arrayOf("Authorization", "secret-header"), bytes, bytes.size.toLong(), Charsets.UTF_8, null)
+    }
+
+    class TestPipeline(bufferSize: Int) : AsyncHttpLogPipeline("Test", Level.FINEST, bufferSize, 1000, listOf("authorization"), Duration.ofSeconds(5), listOf("password", "token")) {
+        fun formatEvent(event: HttpLogEvent): String = format(event)
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2023 Alcosi Group Ltd. and affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.alcosi.lib.logging.http.resttemplate
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.springframework.http.client.SimpleClientHttpRequestFactory
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RouteLimitingClientHttpRequestFactoryTest {
+    private val factory = TestFactory()
+
+    @Test
+    fun testIdleRoutesAreEvicted() {
+        (1..10).forEach {
+            assertTrue(factory.acquire("http://h$it.com:80"))
+            factory.release("http://h$it.com:80")
+        }
+        assertTrue(factory.routeCount() <= 4, "${factory.routeCount()}")
+    }
+
+    @Test
+    fun testRouteInUseIsNotEvicted() {
+        assertTrue(factory.acquire("http://a.com:80"))
+        assertTrue(factory.acquire("http://a.com:80"))
+        (1..10).forEach {
+            assertTrue(factory.acquire("http://h$it.com:80"))
+            factory.release("http://h$it.com:80")
+        }
+        assertFalse(factory.acquire("http://a.com:80"))
+        factory.release("http://a.com:80")
+        assertTrue(factory.acquire("http://a.com:80"))
+    }
+
+    @Test
+    fun testLimitIsKeptWhileEvicting() {
+        val inProgress = AtomicInteger()
+        val maxInProgress = AtomicInteger()
+        val done = CountDownLatch(8)
+        val executor = Executors.newFixedThreadPool(8)
+        repeat(8) { thread ->
+            executor.execute {
+                repeat(2000) {
+                    if (thread % 2 == 0) {
+                        factory.acquire("http://h$thread-$it.com:80")
+                        factory.release("http://h$thread-$it.com:80")
+                    } else if (factory.acquire("http://a.com:80")) {
+                        maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), ::maxOf)
+                        inProgress.decrementAndGet()
+                        factory.release("http://a.com:80")
+                    }
+                }
+                done.countDown()
+            }
+        }
+        assertTrue(done.await(1, TimeUnit.MINUTES))
+        executor.shutdown()
+        assertTrue(maxInProgress.get() <= 2, "${maxInProgress.get()}")
+        assertEquals(0, factory.users())
+    }
+
+    private class TestFactory : RouteLimitingClientHttpRequestFactory(SimpleClientHttpRequestFactory(), 2, Duration.ofSeconds(1), 3) {
+        fun routeCount() = routes.size
+
+        fun users() = routes.values.sumOf { it.users }
+    }
+}
@@ -18,7 +18,11 @@
 package com.alcosi.lib.objectMapper
 
 import com.fasterxml.jackson.databind.JsonMappingException
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
 import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertSame
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.ExtendWith
@@ -83,6 +87,25 @@ class ObjectMapperTest {
         }
     }
 
+    @Test
+    fun testSerializeEscapesNulInKeysAndValues() {
+        val value =
+            mapOf(
+                "k\u0000ey" to "v\u0000al\u0000",
+                "nested" to mapOf("in\u0000ner" to listOf("a\u0000b", SerializationTest("\u0000"))),
+            )
+        val serialized = ObjectMapper().serialize(value)!!
+        assertEquals("{\"k<0x00>ey\":\"v<0x00>al<0x00>\",\"nested\":{\"in<0x00>ner\":[\"a<0x00>b\",{\"key\":\"<0x00>\"}]}}", serialized)
+        assertFalse(serialized.contains("\\u0000"))
+    }
+
+    @Test
+    fun testEscapeReturnsSameStringWithoutNul() {
+        val value = "no special characters"
+        assertSame(value, NulCharacterEscapes.escape(value))
+        assertEquals("<0x00>a<0x00><0x00>b<0x00>", NulCharacterEscapes.escape("\u0000a\u0000\u0000b\u0000"))
+    }
+
     private fun getBigJson(mb: Int): String {
         return "{\"key\":\"${getBigString(mb)}\"}"
     }